@@ -0,0 +1,79 @@
+package com.czifrotech.rapidtransfer.benchmarks;
+
+import com.czifrotech.rapidtransfer.net.PacketCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One datagram through a single channel's hot path: encode a batch of
+ * records, write it, read it on the other end and walk its records. The
+ * connected loopback pair is opened once per trial, so port setup is never
+ * timed. Throughput is in datagrams, multiply by the batch for packets.
+ *
+ * @author Will Czifro
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ChannelBenchmark {
+
+    @Param({"1", "8", "64"})
+    public int batchSize;
+
+    @Param({"1024"})
+    public int chunkSize;
+
+    private DatagramChannel server, client;
+    private ByteBuffer sendBuffer, receiveBuffer;
+    private int records;
+    private long seq;
+
+    @Setup
+    public void setup() throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        server = DatagramChannel.open().bind(new InetSocketAddress(loopback, 0));
+        client = DatagramChannel.open().bind(new InetSocketAddress(loopback, 0));
+        client.connect(server.getLocalAddress());
+        server.connect(client.getLocalAddress());
+
+        records = PacketCodec.recordsPerDatagram(chunkSize, batchSize);
+        int datagramSize = records * (PacketCodec.HEADER_SIZE + chunkSize);
+        sendBuffer = ByteBuffer.allocateDirect(datagramSize);
+        receiveBuffer = ByteBuffer.allocateDirect(datagramSize);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public long sendReceive() throws IOException {
+        sendBuffer.clear();
+        for (int i = 0; i < records; ++i) {
+            PacketCodec.encodeHeader(sendBuffer, seq++, chunkSize);
+            sendBuffer.position(sendBuffer.position() + chunkSize);
+        }
+        sendBuffer.flip();
+        client.write(sendBuffer);
+
+        receiveBuffer.clear();
+        int length = server.read(receiveBuffer), offset = 0;
+        long last = -1;
+        while (offset + PacketCodec.HEADER_SIZE <= length) {
+            last = PacketCodec.decodeSeq(receiveBuffer, offset);
+            offset += PacketCodec.HEADER_SIZE + PacketCodec.decodeLength(receiveBuffer, offset);
+        }
+        return last;
+    }
+}
@@ -0,0 +1,55 @@
+package com.czifrotech.rapidtransfer.benchmarks;
+
+import com.czifrotech.rapidtransfer.diagnostics.MetricsReporter;
+import com.czifrotech.rapidtransfer.net.ExecutionBackend;
+import com.czifrotech.rapidtransfer.net.TransferEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole reliable loopback transfer under each {@link ExecutionBackend},
+ * from a few channels to many, so the thread models can be compared on the
+ * host at hand. Runs unpaced, so the backend is the bottleneck. Backends the
+ * JVM cannot run, virtual threads before Java 21, fail their setup and are
+ * reported as errors.
+ * <p>
+ * This is an end to end benchmark timed as a single shot: the engine opens
+ * its sockets and starts its threads for each transfer, so every measured
+ * call includes that setup and teardown along with the data phase. Only the
+ * engine itself is built once per trial.
+ *
+ * @author Will Czifro
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+@State(Scope.Thread)
+public class ExecutionBackendBenchmark {
+
+    private static final long PACKETS = 200000;
+
+    @Param({"THREADS", "EVENT_LOOP", "VIRTUAL_THREADS"})
+    public ExecutionBackend backend;
+
+    @Param({"4", "64"})
+    public int channels;
+
+    private TransferEngine engine;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        engine = new TransferEngine(channels);
+        engine.setBackend(backend);
+        engine.setPacing(false);
+        engine.setMetricsReporter(MetricsReporter.none());
+    }
+
+    @Benchmark
+    public long transfer() throws IOException, InterruptedException {
+        return engine.transfer(PACKETS).getReceiverCounter();
+    }
+}
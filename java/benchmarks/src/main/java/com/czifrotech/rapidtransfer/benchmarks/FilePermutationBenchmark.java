@@ -0,0 +1,122 @@
+package com.czifrotech.rapidtransfer.benchmarks;
+
+import com.czifrotech.rapidtransfer.reorder.ParallelSegmentReorderer;
+import com.czifrotech.rapidtransfer.reorder.SegmentReorderer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorting an out of order segment file in place, one record swap at a time
+ * as FileSortingSimulator.testSortingAFile does, against the
+ * {@link SegmentReorderer} and the {@link ParallelSegmentReorderer}. Each measured call sorts a
+ * freshly shuffled file, so the file and the permutation are rebuilt before
+ * every iteration and the run is timed as a single shot.
+ *
+ * @author Will Czifro
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(2)
+@State(Scope.Thread)
+public class FilePermutationBenchmark {
+
+    @Param({"3", "4", "5", "6"})
+    public int size;
+
+    private File file;
+    private int[] segmentIds;
+    private int[] destinations;
+    private byte[] contents;
+    private SegmentReorderer reorderer;
+    private ParallelSegmentReorderer parallelReorderer;
+
+    @Setup(Level.Trial)
+    public void createFile() throws IOException {
+        file = File.createTempFile("rapidtransfer", ".segments");
+        int count = (int) Math.pow(10, size);
+        int recordSize = size + 2;
+        segmentIds = new int[count];
+        for (int i = 0; i < count; ++i)
+            segmentIds[i] = i + 1;
+        // fixed seed, every run sorts the same permutation
+        Random rand = new Random(42);
+        for (int i = count - 1; i > 0; --i) {
+            int j = rand.nextInt(i + 1);
+            int t = segmentIds[j];
+            segmentIds[j] = segmentIds[i];
+            segmentIds[i] = t;
+        }
+        destinations = new int[count];
+        for (int i = 0; i < count; ++i)
+            destinations[i] = segmentIds[i] - 1;
+        reorderer = new SegmentReorderer();
+        parallelReorderer = new ParallelSegmentReorderer();
+        contents = new byte[count * recordSize];
+        for (int i = 0; i < count; ++i) {
+            byte[] id = Integer.toString(segmentIds[i]).getBytes("US-ASCII");
+            for (int k = 0; k < recordSize; ++k)
+                contents[i * recordSize + k] = k < id.length ? id[k] : (byte) ' ';
+            contents[(i + 1) * recordSize - 1] = '\n';
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void shuffleFile() throws IOException {
+        Files.write(file.toPath(), contents);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Benchmark
+    public void segmentReorderer() throws IOException {
+        reorderer.reorder(file.toPath(), size + 2, destinations);
+    }
+
+    @Benchmark
+    public void parallelSegmentReorderer() throws IOException {
+        parallelReorderer.reorder(file.toPath(), size + 2, destinations);
+    }
+
+    @Benchmark
+    public int swapInPlace() throws IOException {
+        int[] ids = segmentIds.clone();
+        int swaps = 0;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            int i = 0;
+            while (i < ids.length) {
+                int j = ids[i] - 1;
+                if (i == j) {
+                    ++i;
+                    continue;
+                }
+                int curPos = i * (size + 2), swapPos = j * (size + 2);
+                byte[] curBytes = new byte[size + 1], swapBytes = new byte[size + 1];
+                raf.seek(curPos);
+                raf.read(curBytes);
+                raf.seek(swapPos);
+                raf.read(swapBytes);
+
+                ids[i] = ids[j];
+                ids[j] = j + 1;
+
+                raf.seek(swapPos);
+                raf.write(curBytes);
+                raf.seek(curPos);
+                raf.write(swapBytes);
+                ++swaps;
+            }
+        }
+        return swaps;
+    }
+}
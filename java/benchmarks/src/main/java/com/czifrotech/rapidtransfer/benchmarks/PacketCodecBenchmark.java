@@ -0,0 +1,81 @@
+package com.czifrotech.rapidtransfer.benchmarks;
+
+import com.czifrotech.rapidtransfer.collections.SequenceSet;
+import com.czifrotech.rapidtransfer.net.ControlCodec;
+import com.czifrotech.rapidtransfer.net.PacketCodec;
+import com.czifrotech.rapidtransfer.net.TransferEngine;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of laying out and sealing one batched datagram of SEG records, of
+ * walking and verifying it on arrival, and of packing a badly fragmented
+ * missing set into NACKs.
+ *
+ * @author Will Czifro
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class PacketCodecBenchmark {
+
+    @Param({"1024", "8192"})
+    public int chunkSize;
+
+    private int records;
+    private ByteBuffer encoded, scratch;
+    private SequenceSet missing;
+
+    @Setup
+    public void setup() {
+        records = PacketCodec.recordsPerDatagram(chunkSize, TransferEngine.DEFAULT_BATCH_SIZE);
+        int datagramSize = records * (PacketCodec.HEADER_SIZE + chunkSize);
+        scratch = ByteBuffer.allocateDirect(datagramSize);
+        encoded = ByteBuffer.allocateDirect(datagramSize);
+        encode(encoded, 0);
+        encoded.flip();
+
+        // every other packet lost, the worst case for the run list
+        missing = new SequenceSet();
+        for (long seq = 0; seq < 2 * ControlCodec.MAX_NACK_RANGES; seq += 2)
+            missing.add(seq);
+    }
+
+    @Benchmark
+    public int encodeBatch() {
+        scratch.clear();
+        encode(scratch, 1000);
+        return scratch.position();
+    }
+
+    @Benchmark
+    public void decodeBatch(Blackhole bh) {
+        int offset = 0, length = encoded.limit();
+        while (offset + PacketCodec.HEADER_SIZE <= length) {
+            bh.consume(PacketCodec.decodeSeq(encoded, offset));
+            bh.consume(PacketCodec.verify(encoded, offset));
+            offset += PacketCodec.HEADER_SIZE + PacketCodec.decodeLength(encoded, offset);
+        }
+    }
+
+    @Benchmark
+    public long encodeNack() {
+        scratch.clear();
+        return ControlCodec.encodeNack(scratch, 0, missing, 0);
+    }
+
+    private void encode(ByteBuffer dst, long firstSeq) {
+        for (int i = 0; i < records; ++i) {
+            int record = dst.position();
+            PacketCodec.encodeHeader(dst, firstSeq + i, chunkSize);
+            dst.position(dst.position() + chunkSize);
+            PacketCodec.seal(dst, record);
+        }
+    }
+}
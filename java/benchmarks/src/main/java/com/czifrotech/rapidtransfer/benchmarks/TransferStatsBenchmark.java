@@ -0,0 +1,67 @@
+package com.czifrotech.rapidtransfer.benchmarks;
+
+import com.czifrotech.rapidtransfer.diagnostics.TransferStats;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The per-packet accounting every sender and receiver does, with one thread
+ * per channel as in the engine. Replaces the DataStore counters the old
+ * simulator timed.
+ *
+ * @author Will Czifro
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@Threads(4)
+@State(Scope.Benchmark)
+public class TransferStatsBenchmark {
+
+    private static final int CHANNELS = 4;
+
+    private TransferStats stats;
+    private final AtomicInteger nextChannel = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Channel {
+        int id;
+        long seq;
+
+        @Setup
+        public void setup(TransferStatsBenchmark benchmark) {
+            id = benchmark.nextChannel.getAndIncrement() % CHANNELS;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        stats = new TransferStats(CHANNELS);
+    }
+
+    @Benchmark
+    public void sendPacket(Channel channel) {
+        stats.addSenderValue(channel.id, 1);
+        stats.addBytesSent(channel.id, 1024);
+    }
+
+    @Benchmark
+    public void receivePacket(Channel channel) {
+        stats.addReceiverValue(channel.id, 1);
+        stats.addBytesReceived(channel.id, 1024);
+    }
+
+    /**
+     * A gap opening and the late packet filling it again.
+     */
+    @Benchmark
+    public boolean missAndRecover(Channel channel) {
+        long seq = channel.seq++;
+        stats.addMissingPacket(channel.id, seq);
+        return stats.recoverMissingPacket(channel.id, seq);
+    }
+}
@@ -0,0 +1,263 @@
+package com.czifrotech.rapidtransfer.collections;
+
+import java.util.Arrays;
+
+/**
+ * A set of sequence numbers stored as sorted, disjoint, non-adjacent runs
+ * [start, end) in two primitive arrays. Memory grows with the number of runs,
+ * not with the number of sequences, and appending past the last run (the
+ * common case on a receive path) is O(1).
+ * <p>
+ * Not thread safe; callers that share an instance must synchronize on it.
+ *
+ * @author Will Czifro
+ */
+public class SequenceSet {
+
+    @FunctionalInterface
+    public interface RangeConsumer {
+        void accept(long start, long end);
+    }
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private long[] starts, ends;
+    private int size;
+    private long cardinality;
+
+    public SequenceSet() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public SequenceSet(int initialRuns) {
+        int capacity = Math.max(1, initialRuns);
+        starts = new long[capacity];
+        ends = new long[capacity];
+    }
+
+    public SequenceSet(SequenceSet other) {
+        starts = Arrays.copyOf(other.starts, Math.max(1, other.size));
+        ends = Arrays.copyOf(other.ends, Math.max(1, other.size));
+        size = other.size;
+        cardinality = other.cardinality;
+    }
+
+    public void add(long seq) {
+        add(seq, seq + 1);
+    }
+
+    /**
+     * Adds every sequence in [start, end).
+     */
+    public void add(long start, long end) {
+        if (end <= start)
+            return;
+        // fast path: extends or appends after the last run
+        if (size == 0 || start > ends[size - 1]) {
+            insertAt(size, start, end);
+            return;
+        }
+        if (start >= starts[size - 1]) {
+            if (end > ends[size - 1]) {
+                cardinality += end - ends[size - 1];
+                ends[size - 1] = end;
+            }
+            return;
+        }
+
+        // first run that touches or follows start, last run that touches or precedes end
+        int lo = firstEndAtOrAfter(start);
+        int hi = lastStartAtOrBefore(end);
+        if (lo > hi) {
+            insertAt(lo, start, end);
+            return;
+        }
+        long mergedStart = Math.min(start, starts[lo]), mergedEnd = Math.max(end, ends[hi]);
+        long removed = 0;
+        for (int i = lo; i <= hi; ++i)
+            removed += ends[i] - starts[i];
+        starts[lo] = mergedStart;
+        ends[lo] = mergedEnd;
+        deleteRuns(lo + 1, hi + 1);
+        cardinality += (mergedEnd - mergedStart) - removed;
+    }
+
+    public boolean remove(long seq) {
+        return remove(seq, seq + 1) > 0;
+    }
+
+    /**
+     * Removes every sequence in [start, end) and returns how many were present.
+     */
+    public long remove(long start, long end) {
+        if (end <= start || size == 0)
+            return 0;
+        int lo = firstEndAfter(start);
+        long removed = 0;
+        int i = lo;
+        while (i < size && starts[i] < end) {
+            long s = starts[i], e = ends[i];
+            long cutStart = Math.max(s, start), cutEnd = Math.min(e, end);
+            removed += cutEnd - cutStart;
+            if (s < cutStart && e > cutEnd) {
+                // removal punches a hole in the middle of this run
+                ends[i] = cutStart;
+                insertAt(i + 1, cutEnd, e);
+                // insertAt counted the tail again, it was never removed
+                cardinality -= e - cutEnd;
+                i += 2;
+            } else if (s < cutStart) {
+                ends[i] = cutStart;
+                ++i;
+            } else if (e > cutEnd) {
+                starts[i] = cutEnd;
+                ++i;
+            } else {
+                deleteRuns(i, i + 1);
+            }
+        }
+        cardinality -= removed;
+        return removed;
+    }
+
+    public boolean contains(long seq) {
+        int i = lastStartAtOrBefore(seq);
+        return i >= 0 && seq < ends[i];
+    }
+
+    /**
+     * Number of sequences in the set that fall in [from, to).
+     */
+    public long count(long from, long to) {
+        long total = 0;
+        for (int i = firstEndAfter(from); i < size && starts[i] < to; ++i)
+            total += Math.min(ends[i], to) - Math.max(starts[i], from);
+        return total;
+    }
+
+    /**
+     * @return the first sequence at or after {@code from} that is in the set, or -1 if there is none
+     */
+    public long nextSet(long from) {
+        int i = firstEndAfter(from);
+        return i < size ? Math.max(starts[i], from) : -1;
+    }
+
+    /**
+     * @return the first sequence at or after {@code from} that is not in the set
+     */
+    public long nextClear(long from) {
+        int i = firstEndAfter(from);
+        // runs never touch, so the end of a run is always clear
+        return i < size && starts[i] <= from ? ends[i] : from;
+    }
+
+    public long cardinality() {
+        return cardinality;
+    }
+
+    public int runCount() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long first() {
+        if (size == 0)
+            throw new IllegalStateException("empty");
+        return starts[0];
+    }
+
+    public long last() {
+        if (size == 0)
+            throw new IllegalStateException("empty");
+        return ends[size - 1] - 1;
+    }
+
+    public void clear() {
+        size = 0;
+        cardinality = 0;
+    }
+
+    public void addAll(SequenceSet other) {
+        for (int i = 0; i < other.size; ++i)
+            add(other.starts[i], other.ends[i]);
+    }
+
+    public void forEachRange(RangeConsumer consumer) {
+        for (int i = 0; i < size; ++i)
+            consumer.accept(starts[i], ends[i]);
+    }
+
+    /**
+     * Visits the runs clipped to [from, to), in ascending order.
+     */
+    public void forEachRange(long from, long to, RangeConsumer consumer) {
+        for (int i = firstEndAfter(from); i < size && starts[i] < to; ++i)
+            consumer.accept(Math.max(starts[i], from), Math.min(ends[i], to));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < size; ++i) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append('[').append(starts[i]).append(", ").append(ends[i]).append(')');
+        }
+        return sb.append('}').toString();
+    }
+
+    // index of the last run with start <= seq, or -1
+    private int lastStartAtOrBefore(long seq) {
+        int lo = 0, hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] <= seq)
+                lo = mid + 1;
+            else
+                hi = mid - 1;
+        }
+        return hi;
+    }
+
+    // index of the first run with end >= seq (touching counts), or size
+    private int firstEndAtOrAfter(long seq) {
+        int lo = 0, hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ends[mid] < seq)
+                lo = mid + 1;
+            else
+                hi = mid - 1;
+        }
+        return lo;
+    }
+
+    // index of the first run with end > seq, or size
+    private int firstEndAfter(long seq) {
+        return firstEndAtOrAfter(seq + 1);
+    }
+
+    private void insertAt(int index, long start, long end) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+        System.arraycopy(starts, index, starts, index + 1, size - index);
+        System.arraycopy(ends, index, ends, index + 1, size - index);
+        starts[index] = start;
+        ends[index] = end;
+        ++size;
+        cardinality += end - start;
+    }
+
+    // drops runs [from, to) without touching cardinality
+    private void deleteRuns(int from, int to) {
+        System.arraycopy(starts, to, starts, from, size - to);
+        System.arraycopy(ends, to, ends, from, size - to);
+        size -= to - from;
+    }
+}
@@ -0,0 +1,108 @@
+package com.czifrotech.rapidtransfer.cryptography;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The digest of one partition of a file and where that partition starts, the
+ * Java side of the F# {@code Hasher.Checksum} record. Serialized the same way,
+ * the partition's position as a big endian long followed by the digest.
+ *
+ * @author Will Czifro
+ */
+public final class Checksum {
+
+    public static final int POSITION_SIZE = 8;
+
+    private static final byte[] NONE = new byte[0];
+
+    private final byte[] checksum;
+    private final long positionInSource;
+
+    /**
+     * @param checksum the partition's digest, null or empty if it was never completed
+     */
+    public Checksum(byte[] checksum, long positionInSource) {
+        this.checksum = checksum == null ? NONE : checksum.clone();
+        this.positionInSource = positionInSource;
+    }
+
+    public byte[] getChecksum() {
+        return checksum.clone();
+    }
+
+    public long getPositionInSource() {
+        return positionInSource;
+    }
+
+    public boolean isComplete() {
+        return checksum.length > 0;
+    }
+
+    public static byte[] serialize(Checksum[] checksums) {
+        int size = 0;
+        for (Checksum checksum : checksums)
+            size += POSITION_SIZE + checksum.checksum.length;
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (Checksum checksum : checksums)
+            buffer.putLong(checksum.positionInSource).put(checksum.checksum);
+        return buffer.array();
+    }
+
+    public static Checksum[] deserialize(byte[] bytes, int digestSize) {
+        int blockSize = POSITION_SIZE + digestSize;
+        if (bytes.length % blockSize != 0)
+            throw new IllegalArgumentException(bytes.length + " bytes is not a list of " + blockSize +
+                    " byte checksums");
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        Checksum[] checksums = new Checksum[bytes.length / blockSize];
+        for (int i = 0; i < checksums.length; ++i) {
+            long position = buffer.getLong();
+            byte[] digest = new byte[digestSize];
+            buffer.get(digest);
+            checksums[i] = new Checksum(digest, position);
+        }
+        return checksums;
+    }
+
+    /**
+     * @return the checksums of {@code expected} that {@code actual} does not
+     * match, incomplete ones included, empty if the two agree
+     */
+    public static Checksum[] compare(Checksum[] expected, Checksum[] actual) {
+        if (expected.length != actual.length)
+            throw new IllegalArgumentException("Cannot compare " + expected.length + " checksums with " +
+                    actual.length);
+        List<Checksum> mismatched = new ArrayList<>();
+        for (int i = 0; i < expected.length; ++i) {
+            if (!expected[i].isComplete() || !expected[i].equals(actual[i]))
+                mismatched.add(expected[i]);
+        }
+        return mismatched.toArray(new Checksum[0]);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof Checksum))
+            return false;
+        Checksum other = (Checksum) o;
+        return positionInSource == other.positionInSource && Arrays.equals(checksum, other.checksum);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(positionInSource) + Arrays.hashCode(checksum);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : checksum)
+            hex.append(String.format("%02x", b));
+        return "Checksum{positionInSource=" + positionInSource + ", checksum=" + hex + "}";
+    }
+}
@@ -0,0 +1,122 @@
+package com.czifrotech.rapidtransfer.cryptography;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * CRC32C (Castagnoli), the checksum carried by every SEG record. Uses the
+ * JDK's hardware accelerated {@code java.util.zip.CRC32C} when the runtime
+ * has it (Java 9 and later) and a slicing-by-8 table implementation
+ * otherwise, so the values are the same on every runtime.
+ * <p>
+ * Not thread safe, keep one per thread.
+ *
+ * @author Will Czifro
+ */
+public final class Crc32c {
+
+    // reflected Castagnoli polynomial
+    private static final int POLYNOMIAL = 0x82F63B78;
+
+    private static final int[][] TABLES = new int[8][256];
+
+    // null on Java 8, where the tables are used
+    private static final MethodHandle NEW_JDK_CRC32C;
+    private static final MethodHandle UPDATE_BUFFER;
+
+    static {
+        for (int n = 0; n < 256; ++n) {
+            int crc = n;
+            for (int k = 0; k < 8; ++k)
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            TABLES[0][n] = crc;
+        }
+        for (int n = 0; n < 256; ++n)
+            for (int t = 1; t < 8; ++t)
+                TABLES[t][n] = (TABLES[t - 1][n] >>> 8) ^ TABLES[0][TABLES[t - 1][n] & 0xFF];
+
+        MethodHandle create = null, update = null;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            create = lookup.findConstructor(Class.forName("java.util.zip.CRC32C"), MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(java.util.zip.Checksum.class));
+            update = lookup.findVirtual(java.util.zip.Checksum.class, "update",
+                    MethodType.methodType(void.class, ByteBuffer.class));
+        } catch (ReflectiveOperationException e) {
+            create = null; // Java 8, use the tables
+        }
+        NEW_JDK_CRC32C = create;
+        UPDATE_BUFFER = update;
+    }
+
+    private final java.util.zip.Checksum jdk;
+    private int crc = 0xFFFFFFFF;
+
+    public Crc32c() {
+        this(true);
+    }
+
+    /**
+     * @param useJdk false to use the tables even where the JDK has CRC32C, so they can be tested there
+     */
+    Crc32c(boolean useJdk) {
+        java.util.zip.Checksum jdk = null;
+        if (useJdk && NEW_JDK_CRC32C != null) {
+            try {
+                jdk = (java.util.zip.Checksum) NEW_JDK_CRC32C.invokeExact();
+            } catch (Throwable t) {
+                throw new IllegalStateException("CRC32C creation failed", t);
+            }
+        }
+        this.jdk = jdk;
+    }
+
+    /**
+     * Checksums the bytes between {@code src}'s position and limit and moves the position to the limit.
+     */
+    public void update(ByteBuffer src) {
+        if (jdk != null) {
+            try {
+                UPDATE_BUFFER.invokeExact(jdk, src);
+                return;
+            } catch (Throwable t) {
+                throw new IllegalStateException("CRC32C update failed", t);
+            }
+        }
+        int crc = this.crc, position = src.position(), limit = src.limit();
+        ByteBuffer le = src.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        while (limit - position >= 8) {
+            long word = le.getLong(position) ^ (crc & 0xFFFFFFFFL);
+            crc = TABLES[7][(int) word & 0xFF] ^
+                    TABLES[6][(int) (word >>> 8) & 0xFF] ^
+                    TABLES[5][(int) (word >>> 16) & 0xFF] ^
+                    TABLES[4][(int) (word >>> 24) & 0xFF] ^
+                    TABLES[3][(int) (word >>> 32) & 0xFF] ^
+                    TABLES[2][(int) (word >>> 40) & 0xFF] ^
+                    TABLES[1][(int) (word >>> 48) & 0xFF] ^
+                    TABLES[0][(int) (word >>> 56) & 0xFF];
+            position += 8;
+        }
+        while (position < limit)
+            crc = (crc >>> 8) ^ TABLES[0][(crc ^ src.get(position++)) & 0xFF];
+        src.position(limit);
+        this.crc = crc;
+    }
+
+    public void update(byte[] b, int off, int len) {
+        update(ByteBuffer.wrap(b, off, len));
+    }
+
+    public int getValue() {
+        return jdk != null ? (int) jdk.getValue() : ~crc;
+    }
+
+    public void reset() {
+        if (jdk != null)
+            jdk.reset();
+        crc = 0xFFFFFFFF;
+    }
+}
@@ -0,0 +1,151 @@
+package com.czifrotech.rapidtransfer.cryptography;
+
+import com.czifrotech.rapidtransfer.io.FileChannels;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds the SHA-256 Merkle root of a run of chunks while they arrive in any
+ * order, so a partition's digest is ready the moment its last chunk lands
+ * instead of after a second pass over the file.
+ * <p>
+ * Leaf {@code i} is {@code SHA-256(0x00 || chunk i)} and a node is
+ * {@code SHA-256(0x01 || left || right)}. Node {@code i} of level {@code l}
+ * covers leaves {@code [i << l, (i + 1) << l)}; a node with no right sibling
+ * is carried up unchanged. Only nodes still waiting for their sibling are
+ * kept, which for chunks arriving roughly in order is a handful.
+ * <p>
+ * Every chunk must be added exactly once. Leaves may be hashed on any number
+ * of threads, only combining nodes takes the lock.
+ *
+ * @author Will Czifro
+ */
+public class MerkleHasher {
+
+    public static final String ALGORITHM = "SHA-256";
+    public static final int DIGEST_SIZE = 32;
+
+    private static final byte LEAF = 0, NODE = 1;
+
+    private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(MerkleHasher::newDigest);
+
+    private final long firstSeq, leafCount;
+    private final int height;
+
+    // level in the top 6 bits, index in the rest
+    private final Map<Long, byte[]> pending = new HashMap<>();
+    private byte[] root;
+
+    public MerkleHasher(long firstSeq, long leafCount) {
+        if (leafCount < 0)
+            throw new IllegalArgumentException("leafCount must not be negative");
+        this.firstSeq = firstSeq;
+        this.leafCount = leafCount;
+        this.height = leafCount <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(leafCount - 1);
+        if (leafCount == 0)
+            root = leaf(ByteBuffer.allocate(0));
+    }
+
+    public long getLeafCount() {
+        return leafCount;
+    }
+
+    /**
+     * Hashes the bytes between {@code chunk}'s position and limit as chunk
+     * {@code seq}, leaving the buffer's position where it was.
+     */
+    public void addChunk(long seq, ByteBuffer chunk) {
+        addLeaf(seq, leaf(chunk));
+    }
+
+    public synchronized void addLeaf(long seq, byte[] hash) {
+        long index = seq - firstSeq;
+        if (index < 0 || index >= leafCount)
+            throw new IllegalArgumentException("Chunk " + seq + " is outside [" + firstSeq + ", " +
+                    (firstSeq + leafCount) + ")");
+        for (int level = 0; level < height; ++level, index >>= 1) {
+            long sibling = index ^ 1;
+            if (sibling << level >= leafCount)
+                continue; // no right sibling, carried up as is
+            byte[] other = pending.remove(key(level, sibling));
+            if (other == null) {
+                if (pending.put(key(level, index), hash) != null)
+                    throw new IllegalStateException("Chunk " + seq + " was added twice");
+                return;
+            }
+            hash = (index & 1) == 0 ? node(hash, other) : node(other, hash);
+        }
+        if (root != null)
+            throw new IllegalStateException("Chunk " + seq + " was added twice");
+        root = hash;
+    }
+
+    public synchronized boolean isComplete() {
+        return root != null;
+    }
+
+    /**
+     * @return the Merkle root, null until every chunk was added
+     */
+    public synchronized byte[] getRoot() {
+        return root == null ? null : root.clone();
+    }
+
+    /**
+     * Hashes {@code length} bytes of a file from {@code firstByte} in order,
+     * for checking a partition at rest against a root built during a transfer.
+     */
+    public static byte[] digest(Path file, int chunkSize, long firstByte, long length) throws IOException {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("chunkSize must be positive");
+        MerkleHasher hasher = new MerkleHasher(0, (length + chunkSize - 1) / chunkSize);
+        ByteBuffer chunk = ByteBuffer.allocateDirect(chunkSize);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (long seq = 0; seq < hasher.leafCount; ++seq) {
+                long position = seq * chunkSize;
+                chunk.clear().limit((int) Math.min(chunkSize, length - position));
+                FileChannels.readFully(channel, chunk, firstByte + position);
+                chunk.flip();
+                hasher.addChunk(seq, chunk);
+            }
+        }
+        return hasher.getRoot();
+    }
+
+    private static long key(int level, long index) {
+        return (long) level << 58 | index;
+    }
+
+    private static byte[] leaf(ByteBuffer chunk) {
+        MessageDigest digest = DIGESTS.get();
+        int position = chunk.position();
+        digest.update(LEAF);
+        digest.update(chunk);
+        chunk.position(position);
+        return digest.digest();
+    }
+
+    private static byte[] node(byte[] left, byte[] right) {
+        MessageDigest digest = DIGESTS.get();
+        digest.update(NODE);
+        digest.update(left);
+        digest.update(right);
+        return digest.digest();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(ALGORITHM + " is required of every Java runtime", e);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.czifrotech.rapidtransfer.diagnostics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registers each running transfer on the platform MBean server as
+ * {@code com.czifrotech.rapidtransfer:type=Transfer,id=<n>}, where it can be
+ * watched live from JConsole, VisualVM or any JMX agent.
+ *
+ * @author Will Czifro
+ */
+class JmxMetricsReporter implements MetricsReporter {
+
+    static final JmxMetricsReporter INSTANCE = new JmxMetricsReporter();
+
+    static final String DOMAIN = "com.czifrotech.rapidtransfer";
+
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<TransferMetrics, ObjectName> names = new ConcurrentHashMap<>();
+
+    private JmxMetricsReporter() {
+    }
+
+    @Override
+    public void register(TransferMetrics metrics) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":type=Transfer,id=" + ids.incrementAndGet());
+            server.registerMBean(new StandardMBean(new Bean(metrics), TransferMXBean.class, true), name);
+            names.put(metrics, name);
+        } catch (JMException e) {
+            // metrics must never fail a transfer
+        }
+    }
+
+    @Override
+    public void unregister(TransferMetrics metrics) {
+        ObjectName name = names.remove(metrics);
+        if (name == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException ignored) {
+        }
+    }
+
+    /**
+     * Adapts the metrics to open types.
+     */
+    private static class Bean implements TransferMXBean {
+
+        private final TransferMetrics metrics;
+
+        Bean(TransferMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public int getChannels() {
+            return metrics.getChannels();
+        }
+
+        @Override
+        public long getElapsedMillis() {
+            return metrics.getElapsedNanos() / 1000000;
+        }
+
+        @Override
+        public long getPacketsSent() {
+            long sum = 0;
+            for (int i = 0; i < metrics.getChannels(); ++i)
+                sum += metrics.getPacketsSent(i);
+            return sum;
+        }
+
+        @Override
+        public long getBytesSent() {
+            long sum = 0;
+            for (int i = 0; i < metrics.getChannels(); ++i)
+                sum += metrics.getBytesSent(i);
+            return sum;
+        }
+
+        @Override
+        public long getPacketsReceived() {
+            long sum = 0;
+            for (int i = 0; i < metrics.getChannels(); ++i)
+                sum += metrics.getPacketsReceived(i);
+            return sum;
+        }
+
+        @Override
+        public long getBytesReceived() {
+            long sum = 0;
+            for (int i = 0; i < metrics.getChannels(); ++i)
+                sum += metrics.getBytesReceived(i);
+            return sum;
+        }
+
+        @Override
+        public double[] getPacketRates() {
+            return metrics.getPacketRates();
+        }
+
+        @Override
+        public double[] getByteRates() {
+            return metrics.getByteRates();
+        }
+
+        @Override
+        public long getRetransmitted() {
+            return metrics.getRetransmitted();
+        }
+
+        @Override
+        public long getCorrupted() {
+            return metrics.getCorrupted();
+        }
+
+        @Override
+        public long getReordered() {
+            return metrics.getReordered();
+        }
+
+        @Override
+        public double getLossRate() {
+            return metrics.getLossRate();
+        }
+
+        @Override
+        public long getParitySent() {
+            return metrics.getParitySent();
+        }
+
+        @Override
+        public double getFecOverhead() {
+            return metrics.getFecOverhead();
+        }
+
+        @Override
+        public long getRecovered() {
+            return metrics.getRecovered();
+        }
+
+        @Override
+        public double getRecoveryRate() {
+            return metrics.getRecoveryRate();
+        }
+
+        @Override
+        public long getMissing() {
+            return metrics.getMissing();
+        }
+
+        @Override
+        public double getSendRate() {
+            return metrics.getSendRate();
+        }
+
+        @Override
+        public long getPacerBacklogNanos() {
+            return metrics.getPacerBacklogNanos();
+        }
+
+        @Override
+        public int getFreeBuffers() {
+            return metrics.getFreeBuffers();
+        }
+
+        @Override
+        public long getRttP50Nanos() {
+            return metrics.getRtt().getValueAtPercentile(50);
+        }
+
+        @Override
+        public long getRttP99Nanos() {
+            return metrics.getRtt().getValueAtPercentile(99);
+        }
+
+        @Override
+        public long getRttP999Nanos() {
+            return metrics.getRtt().getValueAtPercentile(99.9);
+        }
+
+        @Override
+        public long getRttMaxNanos() {
+            return metrics.getRtt().getMax();
+        }
+
+        @Override
+        public long getPacingDelayP50Nanos() {
+            return metrics.getPacingDelay().getValueAtPercentile(50);
+        }
+
+        @Override
+        public long getPacingDelayP99Nanos() {
+            return metrics.getPacingDelay().getValueAtPercentile(99);
+        }
+
+        @Override
+        public long getPacingDelayP999Nanos() {
+            return metrics.getPacingDelay().getValueAtPercentile(99.9);
+        }
+
+        @Override
+        public long getPacingDelayMaxNanos() {
+            return metrics.getPacingDelay().getMax();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.czifrotech.rapidtransfer.diagnostics;
+
+/**
+ * Where a transfer publishes its {@link TransferMetrics}. The engine
+ * registers the metrics before the first packet goes out and unregisters
+ * them once the transfer is over, failed or not.
+ *
+ * @author Will Czifro
+ */
+public interface MetricsReporter {
+
+    void register(TransferMetrics metrics);
+
+    void unregister(TransferMetrics metrics);
+
+    static MetricsReporter none() {
+        return new MetricsReporter() {
+            @Override
+            public void register(TransferMetrics metrics) {
+            }
+
+            @Override
+            public void unregister(TransferMetrics metrics) {
+            }
+        };
+    }
+
+    /**
+     * Publishes every running transfer as an MXBean on the platform MBean server.
+     */
+    static MetricsReporter jmx() {
+        return JmxMetricsReporter.INSTANCE;
+    }
+}
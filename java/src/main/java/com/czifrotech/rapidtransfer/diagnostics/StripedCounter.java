@@ -0,0 +1,59 @@
+package com.czifrotech.rapidtransfer.diagnostics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter split into one cell per stripe (usually per channel). Cells are
+ * padded apart so threads updating different stripes never share a cache
+ * line; {@link #sum()} is exact once the writers have finished.
+ *
+ * @author Will Czifro
+ */
+public class StripedCounter {
+
+    // 16 longs = 128 bytes, enough to also defeat adjacent cache line prefetching
+    private static final int PAD = 16;
+
+    private final int stripes;
+    private final AtomicLongArray cells;
+
+    public StripedCounter(int stripes) {
+        if (stripes < 1)
+            throw new IllegalArgumentException("stripes must be positive");
+        this.stripes = stripes;
+        // leading pad keeps stripe 0 off the array header's cache line
+        this.cells = new AtomicLongArray((stripes + 1) * PAD);
+    }
+
+    public int getStripes() {
+        return stripes;
+    }
+
+    public void add(int stripe, long val) {
+        cells.getAndAdd(index(stripe), val);
+    }
+
+    public void increment(int stripe) {
+        add(stripe, 1);
+    }
+
+    public long get(int stripe) {
+        return cells.get(index(stripe));
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < stripes; ++i)
+            sum += cells.get(index(i));
+        return sum;
+    }
+
+    public void reset() {
+        for (int i = 0; i < stripes; ++i)
+            cells.set(index(i), 0);
+    }
+
+    private static int index(int stripe) {
+        return (stripe + 1) * PAD;
+    }
+}
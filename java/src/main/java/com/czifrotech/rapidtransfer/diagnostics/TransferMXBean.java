@@ -0,0 +1,67 @@
+package com.czifrotech.rapidtransfer.diagnostics;
+
+/**
+ * The JMX face of {@link TransferMetrics}: totals across channels,
+ * per-channel rates and the tail percentiles of each latency histogram, all
+ * as open types any JMX console can show.
+ *
+ * @author Will Czifro
+ */
+public interface TransferMXBean {
+
+    int getChannels();
+
+    long getElapsedMillis();
+
+    long getPacketsSent();
+
+    long getBytesSent();
+
+    long getPacketsReceived();
+
+    long getBytesReceived();
+
+    double[] getPacketRates();
+
+    double[] getByteRates();
+
+    long getRetransmitted();
+
+    long getCorrupted();
+
+    long getReordered();
+
+    double getLossRate();
+
+    long getParitySent();
+
+    double getFecOverhead();
+
+    long getRecovered();
+
+    double getRecoveryRate();
+
+    long getMissing();
+
+    double getSendRate();
+
+    long getPacerBacklogNanos();
+
+    int getFreeBuffers();
+
+    long getRttP50Nanos();
+
+    long getRttP99Nanos();
+
+    long getRttP999Nanos();
+
+    long getRttMaxNanos();
+
+    long getPacingDelayP50Nanos();
+
+    long getPacingDelayP99Nanos();
+
+    long getPacingDelayP999Nanos();
+
+    long getPacingDelayMaxNanos();
+}
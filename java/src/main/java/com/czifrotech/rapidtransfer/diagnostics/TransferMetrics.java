@@ -0,0 +1,102 @@
+package com.czifrotech.rapidtransfer.diagnostics;
+
+/**
+ * A live, read-only view of a running transfer, handed to a
+ * {@link MetricsReporter} when the transfer starts. Every getter reads the
+ * current state, so the view can be polled while the transfer runs.
+ *
+ * @author Will Czifro
+ */
+public interface TransferMetrics {
+
+    int getChannels();
+
+    long getElapsedNanos();
+
+    long getPacketsSent(int channel);
+
+    long getBytesSent(int channel);
+
+    long getPacketsReceived(int channel);
+
+    long getBytesReceived(int channel);
+
+    /**
+     * Packets per second each channel received over the last whole second,
+     * sampled by its receiving loop, so every reader sees the same rates.
+     * 0 before the first second is up and once the channel is done.
+     */
+    double[] getPacketRates();
+
+    /**
+     * Payload bytes per second each channel received over the last whole
+     * second, sampled the same way as {@link #getPacketRates()}.
+     */
+    double[] getByteRates();
+
+    long getRetransmitted();
+
+    long getCorrupted();
+
+    /**
+     * Packets that arrived out of order, in time to fill their gap before it was declared lost.
+     */
+    long getReordered();
+
+    /**
+     * Packets retransmitted per packet sent so far, the share of the first pass that was lost.
+     */
+    double getLossRate();
+
+    /**
+     * Parity records sent for forward error correction.
+     */
+    long getParitySent();
+
+    /**
+     * Parity records sent per packet sent, the bandwidth forward error correction costs.
+     */
+    double getFecOverhead();
+
+    /**
+     * Packets the receivers rebuilt from parity instead of waiting for a retransmission.
+     */
+    long getRecovered();
+
+    /**
+     * Packets rebuilt per packet rebuilt or retransmitted, the share of the
+     * losses forward error correction repaired without a round trip.
+     */
+    double getRecoveryRate();
+
+    /**
+     * Packets the receivers are waiting on right now.
+     */
+    long getMissing();
+
+    /**
+     * Packets per second the sender is paced at, 0 if it is not paced.
+     */
+    double getSendRate();
+
+    /**
+     * How far ahead of now the pacer has handed out send slots, the queue of
+     * datagrams waiting for their turn.
+     */
+    long getPacerBacklogNanos();
+
+    /**
+     * Datagram buffers no sender or receiver holds right now.
+     */
+    int getFreeBuffers();
+
+    /**
+     * Round trips of the control channel's PINGs, the time from a send to its echo.
+     */
+    LatencyHistogram getRtt();
+
+    /**
+     * How long each datagram waited for its slot before it was sent.
+     */
+    LatencyHistogram getPacingDelay();
+}
@@ -0,0 +1,226 @@
+package com.czifrotech.rapidtransfer.diagnostics;
+
+import com.czifrotech.rapidtransfer.collections.SequenceSet;
+
+/**
+ * Sender/receiver accounting shared by all channels of a transfer. Counters
+ * are striped per channel so channels never contend with each other, and each
+ * channel records its gaps in its own range-compressed {@link SequenceSet}.
+ *
+ * @author Will Czifro
+ */
+public class TransferStats {
+
+    private final StripedCounter senderCounter, receiverCounter;
+    private final StripedCounter bytesSent, bytesReceived;
+    private final StripedCounter retransmittedCounter;
+    // sequences the sender saw NACKed for the first time, the receivers' declared loss
+    private final StripedCounter declaredLostCounter;
+    private final StripedCounter corruptedCounter;
+    private final StripedCounter reorderedCounter;
+    private final StripedCounter stolenCounter;
+    private final StripedCounter parityCounter, recoveredCounter;
+    private final StripedCounter compressedCounter, bytesSaved;
+
+    // one set per channel, each guarded by its own monitor
+    private final SequenceSet[] missingPackets;
+
+    public TransferStats(int channels) {
+        senderCounter = new StripedCounter(channels);
+        receiverCounter = new StripedCounter(channels);
+        bytesSent = new StripedCounter(channels);
+        bytesReceived = new StripedCounter(channels);
+        retransmittedCounter = new StripedCounter(channels);
+        declaredLostCounter = new StripedCounter(channels);
+        corruptedCounter = new StripedCounter(channels);
+        reorderedCounter = new StripedCounter(channels);
+        stolenCounter = new StripedCounter(channels);
+        parityCounter = new StripedCounter(channels);
+        recoveredCounter = new StripedCounter(channels);
+        compressedCounter = new StripedCounter(channels);
+        bytesSaved = new StripedCounter(channels);
+        missingPackets = new SequenceSet[channels];
+        for (int i = 0; i < channels; ++i)
+            missingPackets[i] = new SequenceSet();
+    }
+
+    public int getChannels() {
+        return senderCounter.getStripes();
+    }
+
+    public void addSenderValue(int channel, long val) {
+        senderCounter.add(channel, val);
+    }
+
+    public void addReceiverValue(int channel, long val) {
+        receiverCounter.add(channel, val);
+    }
+
+    public void addBytesSent(int channel, long bytes) {
+        bytesSent.add(channel, bytes);
+    }
+
+    public void addBytesReceived(int channel, long bytes) {
+        bytesReceived.add(channel, bytes);
+    }
+
+    public void addRetransmittedValue(int channel, long val) {
+        retransmittedCounter.add(channel, val);
+    }
+
+    public void addDeclaredLostValue(int channel, long val) {
+        declaredLostCounter.add(channel, val);
+    }
+
+    public void addCorruptedValue(int channel, long val) {
+        corruptedCounter.add(channel, val);
+    }
+
+    public void addReorderedValue(int channel, long val) {
+        reorderedCounter.add(channel, val);
+    }
+
+    public void addStolenValue(int channel, long val) {
+        stolenCounter.add(channel, val);
+    }
+
+    public void addParityValue(int channel, long val) {
+        parityCounter.add(channel, val);
+    }
+
+    public void addRecoveredValue(int channel, long val) {
+        recoveredCounter.add(channel, val);
+    }
+
+    public void addCompressedValue(int channel, long val) {
+        compressedCounter.add(channel, val);
+    }
+
+    public void addBytesSaved(int channel, long bytes) {
+        bytesSaved.add(channel, bytes);
+    }
+
+    public void addMissingPacket(int channel, long packet) {
+        addMissingPackets(channel, packet, packet + 1);
+    }
+
+    /**
+     * Records [start, end) as missing on the given channel.
+     */
+    public void addMissingPackets(int channel, long start, long end) {
+        SequenceSet missing = missingPackets[channel];
+        synchronized (missing) {
+            missing.add(start, end);
+        }
+    }
+
+    /**
+     * Clears a late arrival from the channel's missing set.
+     *
+     * @return true if the packet had been recorded as missing
+     */
+    public boolean recoverMissingPacket(int channel, long packet) {
+        SequenceSet missing = missingPackets[channel];
+        synchronized (missing) {
+            return missing.remove(packet);
+        }
+    }
+
+    public long getSenderCounter() {
+        return senderCounter.sum();
+    }
+
+    public long getSenderCounter(int channel) {
+        return senderCounter.get(channel);
+    }
+
+    public long getReceiverCounter() {
+        return receiverCounter.sum();
+    }
+
+    public long getReceiverCounter(int channel) {
+        return receiverCounter.get(channel);
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    public long getBytesSent(int channel) {
+        return bytesSent.get(channel);
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    public long getBytesReceived(int channel) {
+        return bytesReceived.get(channel);
+    }
+
+    public long getRetransmittedCounter() {
+        return retransmittedCounter.sum();
+    }
+
+    public long getDeclaredLostCounter() {
+        return declaredLostCounter.sum();
+    }
+
+    public long getCorruptedCounter() {
+        return corruptedCounter.sum();
+    }
+
+    public long getReorderedCounter() {
+        return reorderedCounter.sum();
+    }
+
+    public long getStolenCounter() {
+        return stolenCounter.sum();
+    }
+
+    public long getParityCounter() {
+        return parityCounter.sum();
+    }
+
+    public long getRecoveredCounter() {
+        return recoveredCounter.sum();
+    }
+
+    public long getCompressedCounter() {
+        return compressedCounter.sum();
+    }
+
+    public long getBytesSaved() {
+        return bytesSaved.sum();
+    }
+
+    /**
+     * Number of packets missing across all channels, without copying the sets.
+     */
+    public long getMissingCount() {
+        long count = 0;
+        for (SequenceSet missing : missingPackets) {
+            synchronized (missing) {
+                count += missing.cardinality();
+            }
+        }
+        return count;
+    }
+
+    public SequenceSet getMissingPackets(int channel) {
+        SequenceSet missing = missingPackets[channel];
+        synchronized (missing) {
+            return new SequenceSet(missing);
+        }
+    }
+
+    public SequenceSet getMissingPackets() {
+        SequenceSet all = new SequenceSet();
+        for (SequenceSet missing : missingPackets) {
+            synchronized (missing) {
+                all.addAll(missing);
+            }
+        }
+        return all;
+    }
+}
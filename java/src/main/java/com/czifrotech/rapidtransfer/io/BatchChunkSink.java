@@ -0,0 +1,95 @@
+package com.czifrotech.rapidtransfer.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes the chunks of a {@link BatchManifest}'s stream back into separate
+ * files under a destination directory. Every file is created at its final
+ * size up front, then each chunk is scattered to the files it covers with
+ * positional writes, so chunks can land in any order.
+ * <p>
+ * Files are closed as soon as a thread moves on to the next one and
+ * {@link #force()} does not reopen them, so a batch is not checkpointed.
+ *
+ * @author Will Czifro
+ */
+public class BatchChunkSink implements ChunkSink {
+
+    private final BatchManifest manifest;
+    private final Path[] targets;
+    private final ThreadFileHandles handles;
+
+    public BatchChunkSink(Path root, BatchManifest manifest) throws IOException {
+        this.manifest = manifest;
+        this.targets = new Path[manifest.getFileCount()];
+        Path base = root.toAbsolutePath().normalize();
+        for (int i = 0; i < targets.length; ++i) {
+            Path target = base.resolve(manifest.getPath(i)).normalize();
+            if (!target.startsWith(base) || target.equals(base))
+                throw new IllegalArgumentException("Path " + manifest.getPath(i) + " leaves " + root);
+            targets[i] = target;
+            create(target, manifest.getSize(i));
+        }
+        this.handles = new ThreadFileHandles(file -> targets[file], StandardOpenOption.WRITE);
+    }
+
+    public BatchManifest getManifest() {
+        return manifest;
+    }
+
+    /**
+     * Creates {@code target} and its directories, sized like the source.
+     */
+    private static void create(Path target, long size) throws IOException {
+        Path parent = target.getParent();
+        if (parent != null)
+            Files.createDirectories(parent);
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (channel.size() > size)
+                channel.truncate(size);
+            else if (channel.size() < size)
+                channel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+        }
+    }
+
+    @Override
+    public void write(long seq, ByteBuffer src) throws IOException {
+        long position = seq * manifest.getChunkSize(), end = position + src.remaining();
+        if (seq < 0 || end > manifest.getTotalSize())
+            throw new IOException("Chunk " + seq + " runs past the end of the batch");
+        int file = Math.max(0, manifest.locate(position)), limit = src.limit();
+        try {
+            while (position < end) {
+                long offset = manifest.getOffset(file), fileEnd = offset + manifest.getSize(file);
+                if (position < offset) {
+                    // padding before an aligned file
+                    long to = Math.min(offset, end);
+                    src.position(src.position() + (int) (to - position));
+                    position = to;
+                    continue;
+                }
+                if (position >= fileEnd) {
+                    ++file;
+                    continue;
+                }
+                long to = Math.min(fileEnd, end);
+                src.limit(src.position() + (int) (to - position));
+                FileChannels.writeFully(handles.get(file), src, position - offset);
+                src.limit(limit);
+                position = to;
+            }
+        } finally {
+            src.limit(limit);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        handles.close();
+    }
+}
@@ -0,0 +1,72 @@
+package com.czifrotech.rapidtransfer.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the chunks of a {@link BatchManifest}'s stream from the files under
+ * its root directory. A chunk of packed small files is gathered from each of
+ * them in turn; padding before an aligned file is sent as zeros.
+ *
+ * @author Will Czifro
+ */
+public class BatchChunkSource implements ChunkSource {
+
+    private final BatchManifest manifest;
+    private final ThreadFileHandles handles;
+
+    public BatchChunkSource(Path root, BatchManifest manifest) {
+        this.manifest = manifest;
+        this.handles = new ThreadFileHandles(file -> root.resolve(manifest.getPath(file)), StandardOpenOption.READ);
+    }
+
+    public BatchManifest getManifest() {
+        return manifest;
+    }
+
+    @Override
+    public int getChunkSize() {
+        return manifest.getChunkSize();
+    }
+
+    @Override
+    public long getChunkCount() {
+        return manifest.getChunkCount();
+    }
+
+    @Override
+    public int read(long seq, ByteBuffer dst) throws IOException {
+        long position = seq * manifest.getChunkSize();
+        long end = Math.min(position + manifest.getChunkSize(), manifest.getTotalSize());
+        int file = Math.max(0, manifest.locate(position)), limit = dst.limit();
+        try {
+            while (position < end) {
+                long offset = manifest.getOffset(file), fileEnd = offset + manifest.getSize(file);
+                if (position < offset) {
+                    for (long to = Math.min(offset, end); position < to; ++position)
+                        dst.put((byte) 0);
+                    continue;
+                }
+                if (position >= fileEnd) {
+                    ++file;
+                    continue;
+                }
+                long to = Math.min(fileEnd, end);
+                dst.limit(dst.position() + (int) (to - position));
+                FileChannels.readFully(handles.get(file), dst, position - offset);
+                dst.limit(limit);
+                position = to;
+            }
+        } finally {
+            dst.limit(limit);
+        }
+        return (int) (end - seq * manifest.getChunkSize());
+    }
+
+    @Override
+    public void close() throws IOException {
+        handles.close();
+    }
+}
@@ -0,0 +1,171 @@
+package com.czifrotech.rapidtransfer.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * The offset table of a batch: every regular file under a directory tree laid
+ * out end to end in one byte stream, which is cut into chunks like a single
+ * file. Small files are packed back to back, so a chunk can carry the tail of
+ * one file and the heads of the next few, and a directory of thousands of
+ * small files costs as many datagrams as one file of the same total size.
+ * Files of at least {@code largeFileSize} bytes start on a chunk boundary, so
+ * each of their chunks is a single positional read and write.
+ * <p>
+ * Paths are relative, '/' separated and sorted, so both ends agree on the
+ * layout. Empty directories are not part of a batch.
+ *
+ * @author Will Czifro
+ */
+public final class BatchManifest {
+
+    public static final long DEFAULT_LARGE_FILE_SIZE = 1024 * 1024;
+
+    // largest relative path, its length is sent as an unsigned short
+    public static final int MAX_PATH_LENGTH = 0xFFFF;
+
+    private final int chunkSize;
+    private final String[] paths;
+    private final long[] offsets, sizes;
+    private final long totalSize;
+
+    private BatchManifest(int chunkSize, String[] paths, long[] offsets, long[] sizes) {
+        this.chunkSize = chunkSize;
+        this.paths = paths;
+        this.offsets = offsets;
+        this.sizes = sizes;
+        this.totalSize = paths.length == 0 ? 0 : offsets[paths.length - 1] + sizes[paths.length - 1];
+    }
+
+    public static BatchManifest scan(Path root, int chunkSize) throws IOException {
+        return scan(root, chunkSize, DEFAULT_LARGE_FILE_SIZE);
+    }
+
+    public static BatchManifest scan(Path root, int chunkSize, long largeFileSize) throws IOException {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("chunkSize must be positive");
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(root)) {
+            walk.filter(Files::isRegularFile).forEach(files::add);
+        }
+        String[] paths = new String[files.size()];
+        for (int i = 0; i < paths.length; ++i)
+            paths[i] = root.relativize(files.get(i)).toString().replace(root.getFileSystem().getSeparator(), "/");
+        Arrays.sort(paths);
+
+        long[] offsets = new long[paths.length], sizes = new long[paths.length];
+        long end = 0;
+        for (int i = 0; i < paths.length; ++i) {
+            sizes[i] = Files.size(root.resolve(paths[i]));
+            offsets[i] = sizes[i] >= largeFileSize ? (end + chunkSize - 1) / chunkSize * chunkSize : end;
+            end = offsets[i] + sizes[i];
+        }
+        return new BatchManifest(chunkSize, paths, offsets, sizes);
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public long getChunkCount() {
+        return (totalSize + chunkSize - 1) / chunkSize;
+    }
+
+    /**
+     * Length of the stream, padding before aligned files included.
+     */
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    public int getFileCount() {
+        return paths.length;
+    }
+
+    public String getPath(int file) {
+        return paths[file];
+    }
+
+    public long getOffset(int file) {
+        return offsets[file];
+    }
+
+    public long getSize(int file) {
+        return sizes[file];
+    }
+
+    /**
+     * @return the last file starting at or before {@code position}, or -1
+     */
+    public int locate(long position) {
+        int i = Arrays.binarySearch(offsets, position);
+        if (i < 0)
+            return -i - 2;
+        // empty files share their offset with the next file, take the last of them
+        while (i + 1 < offsets.length && offsets[i + 1] == position)
+            ++i;
+        return i;
+    }
+
+    /**
+     * The manifest as it goes over the wire: chunk size, file count, then
+     * offset, size, path length and UTF-8 path of every file.
+     */
+    public ByteBuffer encode() {
+        byte[][] encoded = new byte[paths.length][];
+        int length = 8;
+        for (int i = 0; i < paths.length; ++i) {
+            encoded[i] = paths[i].getBytes(StandardCharsets.UTF_8);
+            if (encoded[i].length > MAX_PATH_LENGTH)
+                throw new IllegalStateException("Path " + paths[i] + " is too long for a manifest");
+            length += 8 + 8 + 2 + encoded[i].length;
+        }
+        ByteBuffer dst = ByteBuffer.allocate(length);
+        dst.putInt(chunkSize).putInt(paths.length);
+        for (int i = 0; i < paths.length; ++i)
+            dst.putLong(offsets[i]).putLong(sizes[i]).putShort((short) encoded[i].length).put(encoded[i]);
+        dst.flip();
+        return dst;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the table is malformed or a path
+     * would leave the destination directory
+     */
+    public static BatchManifest decode(ByteBuffer src) {
+        int chunkSize = src.getInt(), count = src.getInt();
+        if (chunkSize < 1 || count < 0)
+            throw new IllegalArgumentException("Malformed manifest header");
+        String[] paths = new String[count];
+        long[] offsets = new long[count], sizes = new long[count];
+        long end = 0;
+        for (int i = 0; i < count; ++i) {
+            offsets[i] = src.getLong();
+            sizes[i] = src.getLong();
+            byte[] path = new byte[src.getShort() & 0xFFFF];
+            src.get(path);
+            paths[i] = new String(path, StandardCharsets.UTF_8);
+            if (offsets[i] < end || sizes[i] < 0)
+                throw new IllegalArgumentException("File " + paths[i] + " overlaps the file before it");
+            checkPath(paths[i]);
+            end = offsets[i] + sizes[i];
+        }
+        return new BatchManifest(chunkSize, paths, offsets, sizes);
+    }
+
+    private static void checkPath(String path) {
+        if (path.isEmpty() || path.startsWith("/") || path.contains("\\"))
+            throw new IllegalArgumentException("Path " + path + " is not relative");
+        for (String part : path.split("/")) {
+            if (part.isEmpty() || part.equals(".") || part.equals(".."))
+                throw new IllegalArgumentException("Path " + path + " leaves the batch directory");
+        }
+    }
+}
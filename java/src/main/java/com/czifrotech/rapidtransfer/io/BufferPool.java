@@ -0,0 +1,63 @@
+package com.czifrotech.rapidtransfer.io;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A fixed set of equally sized direct buffers carved out of one allocation.
+ * Acquiring and releasing never allocates, so hot loops can borrow a buffer
+ * once and reuse it for every packet.
+ *
+ * @author Will Czifro
+ */
+public class BufferPool {
+
+    private final int bufferSize;
+    private final ArrayBlockingQueue<ByteBuffer> free;
+
+    public BufferPool(int buffers, int bufferSize) {
+        if (buffers < 1 || bufferSize < 1)
+            throw new IllegalArgumentException("buffers and bufferSize must be positive");
+        if ((long) buffers * bufferSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Pool exceeds 2GB");
+        this.bufferSize = bufferSize;
+        this.free = new ArrayBlockingQueue<>(buffers);
+        ByteBuffer slab = ByteBuffer.allocateDirect(buffers * bufferSize);
+        for (int i = 0; i < buffers; ++i) {
+            slab.limit((i + 1) * bufferSize).position(i * bufferSize);
+            free.add(slab.slice());
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int available() {
+        return free.size();
+    }
+
+    /**
+     * Takes a cleared buffer, waiting for one to be released if the pool is empty.
+     */
+    public ByteBuffer acquire() throws InterruptedException {
+        ByteBuffer buffer = free.take();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Takes a cleared buffer, or returns null if the pool is empty.
+     */
+    public ByteBuffer tryAcquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer != null)
+            buffer.clear();
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize || !free.offer(buffer))
+            throw new IllegalArgumentException("Buffer does not belong to this pool");
+    }
+}
@@ -0,0 +1,38 @@
+package com.czifrotech.rapidtransfer.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Accepts the payload of each sequence number on the receiving side. Chunks
+ * arrive in any order and from every receiver thread at once.
+ *
+ * @author Will Czifro
+ */
+public interface ChunkSink extends Closeable {
+
+    /**
+     * Stores chunk {@code seq}; the payload lies between {@code src}'s position
+     * and limit. The buffer is reused once this returns.
+     */
+    void write(long seq, ByteBuffer src) throws IOException;
+
+    /**
+     * Makes every chunk written so far durable, so a checkpoint may claim it.
+     */
+    default void force() throws IOException {
+    }
+
+    static ChunkSink discard() {
+        return new ChunkSink() {
+            @Override
+            public void write(long seq, ByteBuffer src) {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
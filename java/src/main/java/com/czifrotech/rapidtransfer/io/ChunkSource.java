@@ -0,0 +1,53 @@
+package com.czifrotech.rapidtransfer.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Supplies the payload of each sequence number on the sending side. Sequence
+ * {@code n} covers bytes [n * chunkSize, (n + 1) * chunkSize) of the source.
+ * Implementations must allow concurrent reads from every sender thread.
+ *
+ * @author Will Czifro
+ */
+public interface ChunkSource extends Closeable {
+
+    int getChunkSize();
+
+    long getChunkCount();
+
+    /**
+     * Copies chunk {@code seq} into {@code dst} at its position and advances it.
+     *
+     * @return the number of bytes written, at most {@link #getChunkSize()}
+     */
+    int read(long seq, ByteBuffer dst) throws IOException;
+
+    /**
+     * A source of {@code count} chunks without payload, for measuring the
+     * protocol overhead alone.
+     */
+    static ChunkSource empty(long count) {
+        return new ChunkSource() {
+            @Override
+            public int getChunkSize() {
+                return 0;
+            }
+
+            @Override
+            public long getChunkCount() {
+                return count;
+            }
+
+            @Override
+            public int read(long seq, ByteBuffer dst) {
+                return 0;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
@@ -0,0 +1,32 @@
+package com.czifrotech.rapidtransfer.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Positional reads and writes that do not return until the whole buffer has
+ * been transferred.
+ *
+ * @author Will Czifro
+ */
+public final class FileChannels {
+
+    private FileChannels() {
+    }
+
+    public static void readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, position);
+            if (n < 0)
+                throw new EOFException("File truncated at " + position);
+            position += n;
+        }
+    }
+
+    public static void writeFully(FileChannel channel, ByteBuffer src, long position) throws IOException {
+        while (src.hasRemaining())
+            position += channel.write(src, position);
+    }
+}
@@ -0,0 +1,53 @@
+package com.czifrotech.rapidtransfer.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes each chunk at its own offset of the destination file with
+ * positional writes, so chunks can land in any order.
+ *
+ * @author Will Czifro
+ */
+public class FileChunkSink implements ChunkSink {
+
+    private final FileChannel channel;
+    private final int chunkSize;
+    private final long size;
+
+    public FileChunkSink(Path path, int chunkSize, long size) throws IOException {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("chunkSize must be positive");
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.chunkSize = chunkSize;
+        this.size = size;
+        // like the META handshake in Protocol.v1, the destination is padded to its final size up front
+        if (channel.size() > size)
+            channel.truncate(size);
+        else if (channel.size() < size)
+            channel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+    }
+
+    @Override
+    public void write(long seq, ByteBuffer src) throws IOException {
+        long position = seq * chunkSize;
+        if (position + src.remaining() > size)
+            throw new IOException("Chunk " + seq + " runs past the end of the file");
+        while (src.hasRemaining())
+            position += channel.write(src, position);
+    }
+
+    @Override
+    public void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,79 @@
+package com.czifrotech.rapidtransfer.io;
+
+import com.czifrotech.rapidtransfer.net.PacketCodec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads fixed size chunks of a file with positional reads, straight into the
+ * caller's (usually direct) buffer.
+ *
+ * @author Will Czifro
+ */
+public class FileChunkSource implements ChunkSource {
+
+    public static final int MIN_CHUNK_SIZE = 1024;
+
+    // 64KB less the datagram and record headers
+    public static final int JUMBO_CHUNK_SIZE = PacketCodec.MAX_PAYLOAD_SIZE;
+
+    // a 1KB chunk plus its record header still fits a standard 1500 byte Ethernet frame
+    public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+    private final FileChannel channel;
+    private final int chunkSize;
+    private final long size, chunkCount;
+
+    public FileChunkSource(Path path, int chunkSize) throws IOException {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("chunkSize must be positive");
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.chunkSize = chunkSize;
+        this.size = channel.size();
+        this.chunkCount = (size + chunkSize - 1) / chunkSize;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    @Override
+    public long getChunkCount() {
+        return chunkCount;
+    }
+
+    @Override
+    public int read(long seq, ByteBuffer dst) throws IOException {
+        long position = seq * chunkSize;
+        int length = (int) Math.min(chunkSize, size - position);
+        int limit = dst.limit();
+        dst.limit(dst.position() + length);
+        try {
+            int read = 0;
+            while (read < length) {
+                int n = channel.read(dst, position + read);
+                if (n < 0)
+                    throw new EOFException("Source truncated at " + (position + read));
+                read += n;
+            }
+        } finally {
+            dst.limit(limit);
+        }
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
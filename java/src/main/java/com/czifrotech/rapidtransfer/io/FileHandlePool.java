@@ -0,0 +1,116 @@
+package com.czifrotech.rapidtransfer.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A small, fixed number of {@link FileChannel}s open on one file, shared by
+ * any number of readers and writers. Every operation is positional, so a
+ * handle carries no state between borrowers and a handful of descriptors
+ * serve as many logical file pointers as needed, see {@link FilePointerArray}.
+ *
+ * @author Will Czifro
+ */
+public class FileHandlePool implements Closeable {
+
+    public static final int DEFAULT_HANDLES = 4;
+
+    private final FileChannel[] channels;
+    private final ArrayBlockingQueue<FileChannel> free;
+
+    public FileHandlePool(Path path) throws IOException {
+        this(path, DEFAULT_HANDLES);
+    }
+
+    public FileHandlePool(Path path, int handles) throws IOException {
+        if (handles < 1)
+            throw new IllegalArgumentException("handles must be positive");
+        this.channels = new FileChannel[handles];
+        this.free = new ArrayBlockingQueue<>(handles);
+        try {
+            for (int i = 0; i < handles; ++i) {
+                channels[i] = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                free.add(channels[i]);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public int getHandles() {
+        return channels.length;
+    }
+
+    public long size() throws IOException {
+        return channels[0].size();
+    }
+
+    /**
+     * Reads from {@code position} until {@code dst} is full or the file ends.
+     *
+     * @return the bytes read, -1 if {@code position} is at or past the end
+     */
+    public int read(ByteBuffer dst, long position) throws IOException {
+        FileChannel channel = acquire();
+        try {
+            int total = 0;
+            while (dst.hasRemaining()) {
+                int n = channel.read(dst, position + total);
+                if (n < 0)
+                    return total == 0 ? -1 : total;
+                total += n;
+            }
+            return total;
+        } finally {
+            free.add(channel);
+        }
+    }
+
+    public int write(ByteBuffer src, long position) throws IOException {
+        FileChannel channel = acquire();
+        try {
+            int total = src.remaining();
+            FileChannels.writeFully(channel, src, position);
+            return total;
+        } finally {
+            free.add(channel);
+        }
+    }
+
+    public void force() throws IOException {
+        channels[0].force(false);
+    }
+
+    private FileChannel acquire() throws InterruptedIOException {
+        try {
+            return free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a file handle");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (FileChannel channel : channels) {
+            if (channel == null)
+                continue;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                if (failure == null)
+                    failure = e;
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+}
@@ -0,0 +1,74 @@
+package com.czifrotech.rapidtransfer.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Any number of independent file pointers over a {@link FileHandlePool}.
+ * Each pointer is just a position in a {@code long[]}, read and written like
+ * {@link java.io.RandomAccessFile}, so millions of them cost eight bytes each
+ * and not a descriptor each.
+ * <p>
+ * Pointers are not thread safe individually, but different threads may use
+ * different pointers of the same array at once.
+ *
+ * @author Will Czifro
+ */
+public class FilePointerArray {
+
+    private final FileHandlePool pool;
+    private final long[] positions;
+
+    public FilePointerArray(FileHandlePool pool, int pointers) {
+        this.pool = pool;
+        this.positions = new long[pointers];
+    }
+
+    /**
+     * Pointer {@code i} starts at {@code i * stride}, one per fixed size record.
+     */
+    public static FilePointerArray strided(FileHandlePool pool, int pointers, long stride) {
+        FilePointerArray array = new FilePointerArray(pool, pointers);
+        for (int i = 0; i < pointers; ++i)
+            array.positions[i] = i * stride;
+        return array;
+    }
+
+    public int size() {
+        return positions.length;
+    }
+
+    public long getFilePointer(int pointer) {
+        return positions[pointer];
+    }
+
+    public void seek(int pointer, long position) {
+        if (position < 0)
+            throw new IllegalArgumentException("position must not be negative");
+        positions[pointer] = position;
+    }
+
+    public void seekAll(long position) {
+        Arrays.fill(positions, position);
+    }
+
+    /**
+     * Reads at the pointer and moves it past what was read.
+     *
+     * @return the bytes read, -1 at the end of the file
+     */
+    public int read(int pointer, ByteBuffer dst) throws IOException {
+        int n = pool.read(dst, positions[pointer]);
+        if (n > 0)
+            positions[pointer] += n;
+        return n;
+    }
+
+    /**
+     * Writes at the pointer and moves it past what was written.
+     */
+    public void write(int pointer, ByteBuffer src) throws IOException {
+        positions[pointer] += pool.write(src, positions[pointer]);
+    }
+}
@@ -0,0 +1,96 @@
+package com.czifrotech.rapidtransfer.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Maps the destination file and copies each chunk straight to its final
+ * offset, so the received file never needs a reordering pass. Files larger
+ * than one mapping (2GB) are split into windows whose size is a multiple of
+ * the chunk size, so no chunk ever straddles two windows.
+ *
+ * @author Will Czifro
+ */
+public class MappedFileChunkSink implements ChunkSink {
+
+    public static final long DEFAULT_WINDOW_SIZE = 1L << 30;
+
+    private final FileChannel channel;
+    private final int chunkSize;
+    private final long size, windowSize;
+    private final MappedByteBuffer[] windows;
+
+    // each receiver thread copies through its own views so positions never race
+    private final ThreadLocal<ByteBuffer[]> views;
+
+    public MappedFileChunkSink(Path path, int chunkSize, long size) throws IOException {
+        this(path, chunkSize, size, DEFAULT_WINDOW_SIZE);
+    }
+
+    public MappedFileChunkSink(Path path, int chunkSize, long size, long maxWindowSize) throws IOException {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("chunkSize must be positive");
+        if (maxWindowSize < chunkSize || maxWindowSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("maxWindowSize must be between chunkSize and 2GB");
+        this.chunkSize = chunkSize;
+        this.size = size;
+        this.windowSize = (maxWindowSize / chunkSize) * chunkSize;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            if (channel.size() > size)
+                channel.truncate(size);
+            int count = (int) ((size + windowSize - 1) / windowSize);
+            windows = new MappedByteBuffer[count];
+            for (int i = 0; i < count; ++i) {
+                long position = i * windowSize;
+                windows[i] = channel.map(FileChannel.MapMode.READ_WRITE, position,
+                        Math.min(windowSize, size - position));
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        this.views = ThreadLocal.withInitial(() -> new ByteBuffer[windows.length]);
+    }
+
+    public int getWindowCount() {
+        return windows.length;
+    }
+
+    @Override
+    public void write(long seq, ByteBuffer src) throws IOException {
+        long position = seq * chunkSize;
+        if (seq < 0 || position + src.remaining() > size)
+            throw new IOException("Chunk " + seq + " runs past the end of the file");
+        int index = (int) (position / windowSize);
+        ByteBuffer[] local = views.get();
+        ByteBuffer view = local[index];
+        if (view == null)
+            view = local[index] = windows[index].duplicate();
+        view.position((int) (position - index * windowSize));
+        view.put(src);
+    }
+
+    /**
+     * Flushes every window to the storage device.
+     */
+    @Override
+    public void force() {
+        for (MappedByteBuffer window : windows)
+            window.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            force();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.czifrotech.rapidtransfer.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Maps the source file as one region per partition, the same contiguous
+ * stripes of chunks the engine gives its channels, and copies each chunk
+ * straight from the mapping into the caller's buffer. A partition larger
+ * than one mapping (2GB) is split into windows on chunk boundaries.
+ * <p>
+ * A background prefetcher follows the highest chunk read from each
+ * partition and touches the pages up to {@code readAhead} bytes beyond it,
+ * so the page faults, and the disk reads behind them, happen off the send
+ * loop. Like {@code MemoryMappedFilePartition} on the F# side, each
+ * partition moves forward independently.
+ *
+ * @author Will Czifro
+ */
+public class MappedFileChunkSource implements ChunkSource {
+
+    public static final long DEFAULT_WINDOW_SIZE = 1L << 30;
+
+    public static final long DEFAULT_READ_AHEAD = 8L << 20;
+
+    // touching one byte per page faults the whole page in
+    private static final int PAGE_SIZE = 4096;
+
+    // how long the prefetcher sleeps once every partition is far enough ahead
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final FileChannel channel;
+    private final int chunkSize;
+    private final long size, chunkCount;
+    private final long readAheadChunks;
+
+    // partition i covers chunks [partitionStarts[i], partitionStarts[i + 1])
+    private final long[] partitionStarts;
+
+    // windows in chunk order, window i covers chunks [windowStarts[i], windowStarts[i + 1])
+    private final long[] windowStarts;
+    private final MappedByteBuffer[] windows;
+
+    // each sender thread copies through its own views so positions never race
+    private final ThreadLocal<ByteBuffer[]> views;
+
+    // the highest chunk read from each partition, -1 before the first
+    private final AtomicLongArray cursors;
+
+    private final Thread prefetcher;
+    private volatile boolean closed;
+
+    // keeps the page touches from being optimized away
+    private volatile int touched;
+
+    public MappedFileChunkSource(Path path, int chunkSize, int partitions) throws IOException {
+        this(path, chunkSize, partitions, DEFAULT_WINDOW_SIZE, DEFAULT_READ_AHEAD);
+    }
+
+    public MappedFileChunkSource(Path path, int chunkSize, int partitions, long maxWindowSize, long readAhead)
+            throws IOException {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("chunkSize must be positive");
+        if (partitions < 1)
+            throw new IllegalArgumentException("partitions must be positive");
+        if (maxWindowSize < chunkSize || maxWindowSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("maxWindowSize must be between chunkSize and 2GB");
+        if (readAhead < 0)
+            throw new IllegalArgumentException("readAhead must not be negative");
+        this.chunkSize = chunkSize;
+        this.readAheadChunks = (readAhead + chunkSize - 1) / chunkSize;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            this.size = channel.size();
+            this.chunkCount = (size + chunkSize - 1) / chunkSize;
+
+            // the same split as the engine's stripes, the first chunkCount % partitions get one more chunk
+            partitionStarts = new long[partitions + 1];
+            long base = chunkCount / partitions, extra = chunkCount % partitions;
+            for (int i = 0; i < partitions; ++i)
+                partitionStarts[i + 1] = partitionStarts[i] + base + (i < extra ? 1 : 0);
+
+            long windowChunks = maxWindowSize / chunkSize;
+            List<Long> starts = new ArrayList<>();
+            List<MappedByteBuffer> mapped = new ArrayList<>();
+            for (int i = 0; i < partitions; ++i) {
+                for (long seq = partitionStarts[i]; seq < partitionStarts[i + 1]; seq += windowChunks) {
+                    long position = seq * chunkSize;
+                    long end = Math.min(size, Math.min(partitionStarts[i + 1], seq + windowChunks) * chunkSize);
+                    starts.add(seq);
+                    mapped.add(channel.map(FileChannel.MapMode.READ_ONLY, position, end - position));
+                }
+            }
+            windowStarts = new long[starts.size() + 1];
+            for (int i = 0; i < starts.size(); ++i)
+                windowStarts[i] = starts.get(i);
+            windowStarts[starts.size()] = chunkCount;
+            windows = mapped.toArray(new MappedByteBuffer[0]);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        this.views = ThreadLocal.withInitial(() -> new ByteBuffer[windows.length]);
+        this.cursors = new AtomicLongArray(partitions);
+        for (int i = 0; i < partitions; ++i)
+            cursors.set(i, partitionStarts[i] - 1);
+
+        if (readAheadChunks > 0 && chunkCount > 0) {
+            prefetcher = new Thread(this::prefetch, "rapidtransfer-prefetch");
+            prefetcher.setDaemon(true);
+            prefetcher.start();
+        } else {
+            prefetcher = null;
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public int getPartitionCount() {
+        return partitionStarts.length - 1;
+    }
+
+    public int getWindowCount() {
+        return windows.length;
+    }
+
+    @Override
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    @Override
+    public long getChunkCount() {
+        return chunkCount;
+    }
+
+    @Override
+    public int read(long seq, ByteBuffer dst) throws IOException {
+        if (seq < 0 || seq >= chunkCount)
+            throw new IOException("Chunk " + seq + " is outside the source");
+        int index = window(seq);
+        ByteBuffer[] local = views.get();
+        ByteBuffer view = local[index];
+        if (view == null)
+            view = local[index] = windows[index].duplicate();
+        int offset = (int) ((seq - windowStarts[index]) * chunkSize);
+        int length = (int) Math.min(chunkSize, size - seq * chunkSize);
+        view.limit(offset + length).position(offset);
+        dst.put(view);
+
+        int partition = partition(seq);
+        if (seq > cursors.get(partition))
+            cursors.lazySet(partition, seq);
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (prefetcher != null) {
+            LockSupport.unpark(prefetcher);
+            try {
+                prefetcher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        channel.close();
+    }
+
+    private void prefetch() {
+        int partitions = getPartitionCount();
+        // the chunk up to which each partition's pages have been touched
+        long[] prefetched = Arrays.copyOf(partitionStarts, partitions);
+        int sum = 0;
+        while (!closed) {
+            boolean idle = true;
+            for (int i = 0; i < partitions && !closed; ++i) {
+                long from = Math.max(prefetched[i], cursors.get(i) + 1);
+                long to = Math.min(partitionStarts[i + 1], cursors.get(i) + 1 + readAheadChunks);
+                if (from >= to)
+                    continue;
+                // a window at a time, so one partition never holds up the others for long
+                int index = window(from);
+                to = Math.min(to, windowStarts[index + 1]);
+                MappedByteBuffer window = windows[index];
+                int start = (int) ((from - windowStarts[index]) * chunkSize);
+                int end = (int) Math.min(window.capacity(), (to - windowStarts[index]) * chunkSize);
+                for (int page = start; page < end; page += PAGE_SIZE)
+                    sum += window.get(page);
+                prefetched[i] = to;
+                idle = false;
+            }
+            if (idle)
+                LockSupport.parkNanos(IDLE_NANOS);
+        }
+        touched = sum;
+    }
+
+    private int window(long seq) {
+        int i = Arrays.binarySearch(windowStarts, 0, windows.length, seq);
+        // a miss falls in the window before the insertion point
+        return i >= 0 ? i : -i - 2;
+    }
+
+    private int partition(long seq) {
+        // only trailing partitions can be empty and they start at chunkCount, so starts below it are distinct
+        int i = Arrays.binarySearch(partitionStarts, 0, partitionStarts.length - 1, seq);
+        return i >= 0 ? i : -i - 2;
+    }
+}
@@ -0,0 +1,201 @@
+package com.czifrotech.rapidtransfer.io;
+
+import com.czifrotech.rapidtransfer.collections.SequenceSet;
+import com.czifrotech.rapidtransfer.cryptography.Crc32c;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The chunks a receiver has safely written, kept in a small sidecar file next
+ * to the destination so an interrupted transfer can pick up where it stopped
+ * instead of starting over from sequence 0.
+ * <p>
+ * Receiver threads mark each chunk once it is written, in a range-compressed
+ * {@link SequenceSet} per stripe. {@link #save} is meant to run every so often
+ * rather than per chunk: it forces the sink, writes the received runs to a
+ * temporary file, fsyncs that once and renames it over the sidecar. One fsync
+ * covers every chunk marked since the previous save, and a crash leaves
+ * either the old checkpoint or the new one, never a torn mix.
+ * <p>
+ * The sidecar holds the file size, the chunk size, the received runs and a
+ * CRC32C of all of that. A sidecar that fails its CRC or describes a
+ * different transfer is ignored and the transfer starts over.
+ *
+ * @author Will Czifro
+ */
+public class ReceiveCheckpoint {
+
+    public static final String SUFFIX = ".checkpoint";
+
+    // "RTCP"
+    private static final int MAGIC = 0x52544350;
+    private static final int VERSION = 1;
+
+    // magic, version, file size, chunk size, run count
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4;
+    private static final int RUN_SIZE = 16;
+    private static final int CRC_SIZE = 4;
+
+    private final Path path;
+    private final long size, chunkCount;
+    private final int chunkSize;
+    private final SequenceSet restored;
+
+    // one set per stripe, each guarded by its own monitor
+    private final SequenceSet[] stripes;
+
+    private long savedCount = -1;
+
+    private ReceiveCheckpoint(Path path, long size, int chunkSize, SequenceSet restored, int stripes) {
+        this.path = path;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.chunkCount = (size + chunkSize - 1) / chunkSize;
+        this.restored = restored;
+        this.stripes = new SequenceSet[stripes];
+        for (int i = 0; i < stripes; ++i)
+            this.stripes[i] = new SequenceSet();
+    }
+
+    public static Path sidecar(Path destination) {
+        return destination.resolveSibling(destination.getFileName() + SUFFIX);
+    }
+
+    /**
+     * Opens the checkpoint of {@code destination}, restoring whatever an
+     * earlier run of the same transfer saved. Nothing is restored if there is
+     * no usable sidecar or the destination is no longer {@code size} bytes.
+     */
+    public static ReceiveCheckpoint open(Path destination, long size, int chunkSize, int stripes)
+            throws IOException {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("chunkSize must be positive");
+        if (stripes < 1)
+            throw new IllegalArgumentException("stripes must be positive");
+        Path path = sidecar(destination);
+        SequenceSet restored = null;
+        if (Files.exists(path) && Files.exists(destination) && Files.size(destination) == size)
+            restored = read(path, size, chunkSize);
+        return new ReceiveCheckpoint(path, size, chunkSize, restored == null ? new SequenceSet() : restored,
+                stripes);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * The chunks an earlier run had already received.
+     */
+    public SequenceSet getRestored() {
+        return new SequenceSet(restored);
+    }
+
+    public void markReceived(int stripe, long seq) {
+        SequenceSet received = stripes[stripe];
+        synchronized (received) {
+            received.add(seq);
+        }
+    }
+
+    /**
+     * Chunks restored or marked so far.
+     */
+    public long getReceivedCount() {
+        return snapshot().cardinality();
+    }
+
+    public boolean isComplete() {
+        return getReceivedCount() == chunkCount;
+    }
+
+    /**
+     * Forces {@code sink} and persists every chunk marked before the call.
+     *
+     * @return false if nothing was marked since the last save
+     */
+    public synchronized boolean save(ChunkSink sink) throws IOException {
+        // taken before the force, so the force covers every chunk the snapshot claims
+        SequenceSet received = snapshot();
+        if (received.cardinality() == savedCount)
+            return false;
+        sink.force();
+        write(received);
+        savedCount = received.cardinality();
+        return true;
+    }
+
+    /**
+     * Removes the sidecar, once the transfer is complete.
+     */
+    public void delete() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    private SequenceSet snapshot() {
+        SequenceSet all = new SequenceSet(restored);
+        for (SequenceSet received : stripes) {
+            synchronized (received) {
+                all.addAll(received);
+            }
+        }
+        return all;
+    }
+
+    private void write(SequenceSet received) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + received.runCount() * RUN_SIZE + CRC_SIZE);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(size).putInt(chunkSize).putInt(received.runCount());
+        received.forEachRange((start, end) -> buffer.putLong(start).putLong(end));
+        buffer.putInt(crc(buffer.array(), buffer.position()));
+        buffer.flip();
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            FileChannels.writeFully(channel, buffer, 0);
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the runs saved in {@code path}, or null if it is damaged or belongs to another transfer
+     */
+    private static SequenceSet read(Path path, long size, int chunkSize) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        if (bytes.length < HEADER_SIZE + CRC_SIZE || (bytes.length - HEADER_SIZE - CRC_SIZE) % RUN_SIZE != 0)
+            return null;
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int body = bytes.length - CRC_SIZE;
+        if (buffer.getInt(body) != crc(bytes, body))
+            return null;
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != size ||
+                buffer.getInt() != chunkSize || buffer.getInt() != (body - HEADER_SIZE) / RUN_SIZE)
+            return null;
+        long chunkCount = (size + chunkSize - 1) / chunkSize;
+        SequenceSet runs = new SequenceSet();
+        while (buffer.position() < body) {
+            long start = buffer.getLong(), end = buffer.getLong();
+            if (start < 0 || end <= start || end > chunkCount)
+                return null;
+            runs.add(start, end);
+        }
+        return runs;
+    }
+
+    private static int crc(byte[] bytes, int length) {
+        Crc32c crc = new Crc32c();
+        crc.update(bytes, 0, length);
+        return crc.getValue();
+    }
+}
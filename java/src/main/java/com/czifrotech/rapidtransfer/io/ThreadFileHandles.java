@@ -0,0 +1,80 @@
+package com.czifrotech.rapidtransfer.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Keeps the last file each thread touched open. The chunks of one file come
+ * back to back, so they share a handle, while a batch of many thousands of
+ * files never holds more than one descriptor per thread.
+ *
+ * @author Will Czifro
+ */
+class ThreadFileHandles implements Closeable {
+
+    private static class Handle {
+        int file = -1;
+        FileChannel channel;
+    }
+
+    private final IntFunction<Path> paths;
+    private final OpenOption[] options;
+    private final List<Handle> handles = new ArrayList<>();
+    private final ThreadLocal<Handle> local = ThreadLocal.withInitial(() -> {
+        Handle handle = new Handle();
+        synchronized (handles) {
+            handles.add(handle);
+        }
+        return handle;
+    });
+
+    ThreadFileHandles(IntFunction<Path> paths, OpenOption... options) {
+        this.paths = paths;
+        this.options = options;
+    }
+
+    /**
+     * The calling thread's channel on {@code file}, closing the one it held before.
+     */
+    FileChannel get(int file) throws IOException {
+        Handle handle = local.get();
+        if (handle.file != file) {
+            if (handle.channel != null)
+                handle.channel.close();
+            handle.channel = null;
+            handle.file = -1;
+            handle.channel = FileChannel.open(paths.apply(file), options);
+            handle.file = file;
+        }
+        return handle.channel;
+    }
+
+    /**
+     * Closes every thread's handle, once no thread uses them any more.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        synchronized (handles) {
+            for (Handle handle : handles) {
+                try {
+                    if (handle.channel != null)
+                        handle.channel.close();
+                } catch (IOException e) {
+                    if (failure == null)
+                        failure = e;
+                }
+                handle.channel = null;
+                handle.file = -1;
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+}
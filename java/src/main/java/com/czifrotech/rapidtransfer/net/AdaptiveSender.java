@@ -0,0 +1,180 @@
+package com.czifrotech.rapidtransfer.net;
+
+import com.czifrotech.rapidtransfer.diagnostics.TransferStats;
+import com.czifrotech.rapidtransfer.io.BufferPool;
+import com.czifrotech.rapidtransfer.io.ChunkSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends the first pass of every channel with however many channels the
+ * {@link ChannelScaler} thinks pay for themselves. Workers take the next
+ * stripe that still has chunks to send and send it through its own channel
+ * until it is done. When the scaler lowers the count, a worker stops after
+ * its current datagram and puts the rest of its stripe back in the queue,
+ * for whichever worker is next free. With stealing on, a worker that finds the
+ * queue empty helps the stripe furthest behind instead of stopping.
+ * <p>
+ * Loss is what the receivers declare lost, as counted from their NACKs, not
+ * what gets retransmitted, which also repeats ranges NACKed more than once.
+ * <p>
+ * Runs as the single sender of a {@link TransferEngine} and returns once every
+ * first pass is done.
+ *
+ * @author Will Czifro
+ */
+class AdaptiveSender implements Runnable {
+
+    private final UdpChannel[] channels;
+    private final ChunkSource source;
+    private final BufferPool pool;
+    private final TransferStats stats;
+    private final ExecutionBackend backend;
+    private final ChannelScaler scaler;
+    private final long intervalNanos;
+    private final boolean steal;
+
+    // stripes whose first pass is not done and that no worker is sending
+    private final Queue<UdpChannel> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final List<Thread> workers = new ArrayList<>();
+
+    private volatile int target;
+    private int peak;
+
+    AdaptiveSender(UdpChannel[] channels, ChunkSource source, BufferPool pool, TransferStats stats,
+                   ExecutionBackend backend, int initialChannels, long intervalMillis, boolean steal) {
+        this.channels = channels;
+        this.source = source;
+        this.pool = pool;
+        this.stats = stats;
+        this.backend = backend;
+        this.scaler = new ChannelScaler(1, channels.length, initialChannels);
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.steal = steal;
+        this.target = scaler.getTarget();
+        for (UdpChannel channel : channels)
+            pending.add(channel);
+    }
+
+    /**
+     * The most channels that were sending at once, valid once {@link #run()} has returned.
+     */
+    int getPeakChannels() {
+        return peak;
+    }
+
+    @Override
+    public void run() {
+        long lastAt = System.nanoTime();
+        long lastReceived = stats.getReceiverCounter(), lastSent = stats.getSenderCounter();
+        long lastDeclaredLost = stats.getDeclaredLostCounter();
+        try {
+            while (!allFirstPassesDone()) {
+                while (active.get() < target && !pending.isEmpty())
+                    startWorker();
+                LockSupport.parkNanos(intervalNanos);
+                if (Thread.interrupted())
+                    return;
+
+                long now = System.nanoTime();
+                long received = stats.getReceiverCounter(), sent = stats.getSenderCounter();
+                long declaredLost = stats.getDeclaredLostCounter();
+                double goodput = (received - lastReceived) * 1e9 / Math.max(1, now - lastAt);
+                double loss = sent == lastSent ? 0 : (double) (declaredLost - lastDeclaredLost) / (sent - lastSent);
+                target = scaler.onInterval(goodput, loss);
+                lastAt = now;
+                lastReceived = received;
+                lastSent = sent;
+                lastDeclaredLost = declaredLost;
+            }
+        } finally {
+            // lets workers still running drain the queue without retiring
+            target = channels.length;
+            for (Thread worker : workers) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private boolean allFirstPassesDone() {
+        for (UdpChannel channel : channels) {
+            if (!channel.isFirstPassDone() && !channel.hasFailed())
+                return false;
+        }
+        return true;
+    }
+
+    private void startWorker() {
+        peak = Math.max(peak, active.incrementAndGet());
+        workers.add(backend.start("rapidtransfer-sender-" + workers.size(), this::work));
+    }
+
+    private void work() {
+        boolean retired = false;
+        ByteBuffer buffer = null;
+        try {
+            buffer = pool.acquire();
+            UdpChannel channel;
+            while (!retired && (channel = pending.poll()) != null) {
+                retired = sendUntilClaimed(channel, buffer, false);
+                if (retired)
+                    pending.add(channel);
+            }
+            while (steal && !retired && (channel = UdpChannel.furthestBehind(channels)) != null)
+                retired = sendUntilClaimed(channel, buffer, true);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (buffer != null)
+                pool.release(buffer);
+            if (!retired)
+                active.decrementAndGet();
+        }
+    }
+
+    /**
+     * Sends the channel's first pass until all of it is claimed or this worker retires.
+     *
+     * @return true if the worker retired
+     */
+    private boolean sendUntilClaimed(UdpChannel channel, ByteBuffer buffer, boolean stolen) {
+        try {
+            while (!retire()) {
+                long sent = channel.sendNext(buffer, source);
+                if (sent == 0)
+                    return false;
+                if (stolen)
+                    stats.addStolenValue(channel.getId(), sent);
+            }
+            return true;
+        } catch (IOException e) {
+            channel.failSend(e);
+            return false;
+        }
+    }
+
+    /**
+     * Claims a retirement if more workers are running than the target.
+     */
+    private boolean retire() {
+        int running;
+        while ((running = active.get()) > target) {
+            if (active.compareAndSet(running, running - 1))
+                return true;
+        }
+        return false;
+    }
+}
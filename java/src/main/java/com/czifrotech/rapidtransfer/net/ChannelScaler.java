@@ -0,0 +1,70 @@
+package com.czifrotech.rapidtransfer.net;
+
+/**
+ * Decides how many channels should be sending at once, by hill climbing on
+ * the goodput and loss measured each interval.
+ * <p>
+ * Every interval it adds a channel, and keeps it only if goodput grew by at
+ * least a tenth; a channel that did not pay for itself is retired again and
+ * the count is held for a while before the next probe. Receivers declaring
+ * more than a twentieth of the packets sent lost retires a channel straight
+ * away, extra channels only make a congested path worse.
+ * <p>
+ * Only the adaptive sender's control loop uses the scaler.
+ *
+ * @author Will Czifro
+ */
+class ChannelScaler {
+
+    static final double MIN_GAIN = 0.1;
+    static final double MAX_LOSS = 0.05;
+
+    // intervals to hold the count after a retirement before probing upwards again
+    static final int HOLD_INTERVALS = 8;
+
+    private final int min, max;
+    private int target, step, hold;
+    private double previous;
+
+    ChannelScaler(int min, int max, int initial) {
+        if (min < 1 || max < min)
+            throw new IllegalArgumentException("Invalid channel bounds [" + min + ", " + max + "]");
+        this.min = min;
+        this.max = max;
+        this.target = Math.max(min, Math.min(max, initial));
+    }
+
+    int getTarget() {
+        return target;
+    }
+
+    /**
+     * Feeds one interval's measurements.
+     *
+     * @param goodput  packets delivered per second during the interval
+     * @param lossRate packets newly declared lost per packet sent during the interval
+     * @return the number of channels that should be sending from now on
+     */
+    int onInterval(double goodput, double lossRate) {
+        if (lossRate > MAX_LOSS) {
+            retire(goodput);
+        } else if (hold > 0) {
+            --hold;
+            previous = goodput;
+        } else if (step > 0 && goodput < previous * (1 + MIN_GAIN)) {
+            retire(goodput);
+        } else {
+            previous = goodput;
+            step = target < max ? 1 : 0;
+            target += step;
+        }
+        return target;
+    }
+
+    private void retire(double goodput) {
+        target = Math.max(min, target - 1);
+        step = -1;
+        hold = HOLD_INTERVALS;
+        previous = goodput;
+    }
+}
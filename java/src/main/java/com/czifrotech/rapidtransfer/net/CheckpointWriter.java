@@ -0,0 +1,57 @@
+package com.czifrotech.rapidtransfer.net;
+
+import com.czifrotech.rapidtransfer.io.ChunkSink;
+import com.czifrotech.rapidtransfer.io.ReceiveCheckpoint;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves the receiving side's {@link ReceiveCheckpoint} every interval until
+ * it is stopped, so the cost of an fsync is spread over every chunk that
+ * arrived in between instead of paid per chunk.
+ *
+ * @author Will Czifro
+ */
+class CheckpointWriter implements Runnable {
+
+    private final ReceiveCheckpoint checkpoint;
+    private final ChunkSink sink;
+    private final long intervalMillis;
+
+    // not an interrupt, which would close the file channel of a save in progress
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    private volatile IOException failure;
+
+    CheckpointWriter(ReceiveCheckpoint checkpoint, ChunkSink sink, long intervalMillis) {
+        this.checkpoint = checkpoint;
+        this.sink = sink;
+        this.intervalMillis = intervalMillis;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!stopped.await(intervalMillis, TimeUnit.MILLISECONDS))
+                checkpoint.save(sink);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Stops saving; the engine saves one last time once the receivers are done.
+     */
+    void stop() {
+        stopped.countDown();
+    }
+
+    void rethrowFailure() throws IOException {
+        if (failure != null)
+            throw new IOException("Saving checkpoint " + checkpoint.getPath() + " failed", failure);
+    }
+}
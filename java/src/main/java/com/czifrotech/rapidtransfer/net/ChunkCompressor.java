@@ -0,0 +1,269 @@
+package com.czifrotech.rapidtransfer.net;
+
+import com.czifrotech.rapidtransfer.collections.SequenceSet;
+import com.czifrotech.rapidtransfer.cryptography.MerkleHasher;
+import com.czifrotech.rapidtransfer.diagnostics.TransferStats;
+import com.czifrotech.rapidtransfer.io.ChunkSource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * The compression stage of the send pipeline. A pool of worker threads,
+ * separate from the senders, reads each stripe's first pass ahead of its
+ * senders, compresses every chunk on its own and parks it in the stripe's
+ * ring until a sender takes it. Chunks are compressed independently, so the
+ * receiver inflates each as it arrives, in whatever order.
+ * <p>
+ * Deflate at {@link Deflater#BEST_SPEED} with no header, the fastest
+ * compressor the JDK ships. A chunk that does not shrink goes out as it was
+ * read. After {@link #BYPASS_AFTER} such chunks in a row a stripe stops
+ * trying for {@link #BYPASS_CHUNKS} chunks, so data that is already
+ * compressed costs little more than the copy.
+ * <p>
+ * Only first pass chunks go through the stage; retransmissions are read and
+ * sent uncompressed. With digests on, the workers also hash each chunk as read.
+ *
+ * @author Will Czifro
+ */
+class ChunkCompressor implements Closeable {
+
+    // bytes of chunks each stripe keeps compressed ahead of its senders
+    static final int READ_AHEAD = 1 << 20;
+
+    static final int BYPASS_AFTER = 8;
+    static final int BYPASS_CHUNKS = 256;
+
+    // how long an idle worker waits before it looks for work again
+    private static final long IDLE_MILLIS = 1;
+
+    private final ChunkSource source;
+    private final TransferStats stats;
+    private final SequenceSet restored;
+    private final Lane[] lanes;
+    private final Thread[] workers;
+
+    private final Object idle = new Object();
+    private volatile int idleWorkers;
+    private volatile boolean closed;
+
+    ChunkCompressor(ChunkSource source, SequenceRange[] stripes, SequenceSet restored, MerkleHasher[] digests,
+                    TransferStats stats, int threads, int perDatagram) {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be positive");
+        this.source = source;
+        this.stats = stats;
+        this.restored = restored;
+        // at least two datagrams, so the workers fill one while a sender sends the other
+        int depth = Math.max(2 * perDatagram, READ_AHEAD / Math.max(1, source.getChunkSize()));
+        this.lanes = new Lane[stripes.length];
+        for (int i = 0; i < stripes.length; ++i)
+            lanes[i] = new Lane(i, stripes[i], restored.nextClear(stripes[i].getStart()), depth,
+                    source.getChunkSize(), digests == null ? null : digests[i]);
+        this.workers = new Thread[threads];
+        for (int i = 0; i < threads; ++i) {
+            int first = i % stripes.length;
+            workers[i] = new Thread(() -> work(first), "rapidtransfer-compressor-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Copies chunk {@code seq} of stripe {@code stripe} into {@code dst} as it
+     * goes on the wire, waiting for the workers if they have not got to it yet.
+     * Chunks of a stripe must be taken in the order the first pass claims them.
+     *
+     * @return the chunk's length before compression; it was compressed if
+     * fewer bytes than that were written
+     */
+    int take(int stripe, long seq, ByteBuffer dst) throws IOException {
+        Lane lane = lanes[stripe];
+        int slot = (int) (seq % lane.seqs.length), length;
+        synchronized (lane) {
+            while (lane.seqs[slot] != seq || !lane.ready[slot]) {
+                if (lane.failure != null)
+                    throw new IOException("Could not read chunk " + seq, lane.failure);
+                if (closed)
+                    throw new IOException("Compressor closed");
+                try {
+                    lane.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for chunk " + seq, e);
+                }
+            }
+            dst.put(lane.data[slot], 0, lane.lengths[slot]);
+            length = lane.rawLengths[slot];
+            lane.seqs[slot] = -1;
+            lane.ready[slot] = false;
+        }
+        if (idleWorkers > 0) {
+            synchronized (idle) {
+                idle.notify();
+            }
+        }
+        return length;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Lane lane : lanes) {
+            synchronized (lane) {
+                lane.notifyAll();
+            }
+        }
+        synchronized (idle) {
+            idle.notifyAll();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void work(int first) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        ByteBuffer rawBuffer = ByteBuffer.allocate(source.getChunkSize());
+        try {
+            int next = first;
+            while (!closed) {
+                boolean worked = false;
+                for (int i = 0; i < lanes.length && !closed; ++i) {
+                    Lane lane = lanes[(next + i) % lanes.length];
+                    if (compressNext(lane, deflater, rawBuffer)) {
+                        // the next turn starts past this lane, so lanes share the workers evenly
+                        next = (next + i + 1) % lanes.length;
+                        worked = true;
+                        break;
+                    }
+                }
+                if (!worked) {
+                    synchronized (idle) {
+                        ++idleWorkers;
+                        try {
+                            idle.wait(IDLE_MILLIS);
+                        } catch (InterruptedException e) {
+                            return;
+                        } finally {
+                            --idleWorkers;
+                        }
+                    }
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Claims the lane's next chunk if its slot is free, then reads, hashes and compresses it.
+     *
+     * @return false if the lane had nothing to do
+     */
+    private boolean compressNext(Lane lane, Deflater deflater, ByteBuffer rawBuffer) {
+        long seq;
+        int slot;
+        boolean attempt;
+        synchronized (lane) {
+            seq = lane.next;
+            if (seq >= lane.stripe.getEnd() || lane.failure != null)
+                return false;
+            slot = (int) (seq % lane.seqs.length);
+            if (lane.seqs[slot] != -1)
+                return false; // the ring is full until a sender takes the oldest chunk
+            lane.seqs[slot] = seq;
+            lane.next = restored.nextClear(seq + 1);
+            attempt = lane.bypass == 0;
+            if (!attempt)
+                --lane.bypass;
+        }
+
+        byte[] out = lane.data[slot];
+        int length, compressed = -1;
+        try {
+            rawBuffer.clear();
+            length = source.read(seq, rawBuffer);
+        } catch (IOException e) {
+            synchronized (lane) {
+                lane.failure = e;
+                lane.notifyAll();
+            }
+            return true;
+        }
+        if (lane.digest != null) {
+            rawBuffer.flip();
+            lane.digest.addChunk(seq, rawBuffer);
+        }
+        byte[] raw = rawBuffer.array();
+        if (attempt && length > 0) {
+            deflater.reset();
+            deflater.setInput(raw, 0, length);
+            deflater.finish();
+            // anything that would not come out smaller is not worth inflating
+            int written = deflater.deflate(out, 0, length - 1);
+            if (deflater.finished())
+                compressed = written;
+        }
+        if (compressed < 0) {
+            System.arraycopy(raw, 0, out, 0, length);
+        } else {
+            stats.addCompressedValue(lane.id, 1);
+            stats.addBytesSaved(lane.id, length - compressed);
+        }
+
+        synchronized (lane) {
+            lane.lengths[slot] = compressed < 0 ? length : compressed;
+            lane.rawLengths[slot] = length;
+            lane.ready[slot] = true;
+            if (attempt)
+                lane.misses = compressed < 0 ? lane.misses + 1 : 0;
+            if (lane.misses >= BYPASS_AFTER) {
+                lane.misses = 0;
+                lane.bypass = BYPASS_CHUNKS;
+            }
+            lane.notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * One stripe's ring of chunks; slot {@code seq % depth} holds {@code seq},
+     * -1 when free. Guarded by the lane's monitor, except that the chunk data
+     * of a claimed slot belongs to the worker that claimed it until it is ready.
+     */
+    private static final class Lane {
+
+        final int id;
+        final SequenceRange stripe;
+        final MerkleHasher digest;
+        final long[] seqs;
+        final boolean[] ready;
+        final byte[][] data;
+        final int[] lengths, rawLengths;
+
+        long next;
+        int misses, bypass;
+        IOException failure;
+
+        Lane(int id, SequenceRange stripe, long next, int depth, int chunkSize, MerkleHasher digest) {
+            this.id = id;
+            this.stripe = stripe;
+            this.next = next;
+            this.digest = digest;
+            this.seqs = new long[depth];
+            this.ready = new boolean[depth];
+            this.data = new byte[depth][chunkSize];
+            this.lengths = new int[depth];
+            this.rawLengths = new int[depth];
+            Arrays.fill(seqs, -1);
+        }
+    }
+}
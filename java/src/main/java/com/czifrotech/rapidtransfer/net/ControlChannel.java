@@ -0,0 +1,63 @@
+package com.czifrotech.rapidtransfer.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * The feedback path between the receiving and the sending side of a
+ * transfer. Receivers send NACKs and completions, the sender sends FINs.
+ * Writes from several threads are safe, each end is read by one thread.
+ *
+ * @author Will Czifro
+ */
+class ControlChannel implements Closeable {
+
+    private final DatagramChannel senderEnd, receiverEnd;
+
+    ControlChannel(InetAddress address) throws IOException {
+        senderEnd = DatagramChannel.open();
+        DatagramChannel receiverEnd = null;
+        try {
+            senderEnd.bind(new InetSocketAddress(address, 0));
+            receiverEnd = DatagramChannel.open();
+            receiverEnd.bind(new InetSocketAddress(address, 0));
+            receiverEnd.connect(senderEnd.getLocalAddress());
+            senderEnd.connect(receiverEnd.getLocalAddress());
+        } catch (IOException e) {
+            senderEnd.close();
+            if (receiverEnd != null)
+                receiverEnd.close();
+            throw e;
+        }
+        this.receiverEnd = receiverEnd;
+    }
+
+    DatagramChannel getSenderEnd() {
+        return senderEnd;
+    }
+
+    DatagramChannel getReceiverEnd() {
+        return receiverEnd;
+    }
+
+    void sendToSender(ByteBuffer message) throws IOException {
+        receiverEnd.write(message);
+    }
+
+    void sendToReceiver(ByteBuffer message) throws IOException {
+        senderEnd.write(message);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            senderEnd.close();
+        } finally {
+            receiverEnd.close();
+        }
+    }
+}
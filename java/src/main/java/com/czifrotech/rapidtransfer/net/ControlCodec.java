@@ -0,0 +1,118 @@
+package com.czifrotech.rapidtransfer.net;
+
+import com.czifrotech.rapidtransfer.collections.SequenceSet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes and decodes the messages exchanged on the control channel, as laid
+ * out in the retransmission section of Protocol.v2.1:
+ * <pre>
+ *  NACK  | 'x' | channel 4 | nRanges 4 | nRanges * (start 8 | end 8) |
+ *  FIN   | 'f' | channel 4 |
+ *  ACT   | 'a' | action 1  | channel 4 |
+ *  PING  | 'P' | timestamp 8 |
+ * </pre>
+ *
+ * @author Will Czifro
+ */
+public final class ControlCodec {
+
+    public static final byte NACK = 'x';
+    public static final byte FIN = 'f';
+    public static final byte ACT = 'a';
+    public static final byte PING = 'P';
+
+    // ACT actions; 0 and 1 are initiate and abort from Protocol.v1
+    public static final byte ACTION_COMPLETE = 2;
+
+    public static final int NACK_HEADER_SIZE = 9;
+    public static final int NACK_RANGE_SIZE = 16;
+    public static final int MAX_NACK_RANGES = (PacketCodec.MAX_DATAGRAM_SIZE - NACK_HEADER_SIZE) / NACK_RANGE_SIZE;
+
+    private ControlCodec() {
+    }
+
+    /**
+     * Writes a NACK for the runs of {@code missing} that start at or after
+     * {@code from}, as many as fit in {@code dst}.
+     *
+     * @return the sequence to continue from in the next NACK, or -1 if every run fit
+     */
+    public static long encodeNack(ByteBuffer dst, int channel, SequenceSet missing, long from) {
+        int header = dst.position();
+        dst.put(NACK).putInt(channel).putInt(0);
+        int max = Math.min(MAX_NACK_RANGES, dst.remaining() / NACK_RANGE_SIZE);
+        final int[] count = {0};
+        final long[] next = {-1};
+        missing.forEachRange(from, Long.MAX_VALUE, (start, end) -> {
+            if (next[0] >= 0)
+                return;
+            if (count[0] == max) {
+                next[0] = start;
+                return;
+            }
+            dst.putLong(start).putLong(end);
+            ++count[0];
+        });
+        dst.putInt(header + 5, count[0]);
+        return next[0];
+    }
+
+    public static void encodeFin(ByteBuffer dst, int channel) {
+        dst.put(FIN).putInt(channel);
+    }
+
+    public static void encodeComplete(ByteBuffer dst, int channel) {
+        dst.put(ACT).put(ACTION_COMPLETE).putInt(channel);
+    }
+
+    /**
+     * The receiver echoes a PING back unchanged, so only the sender's clock
+     * is ever read and the two sides need not agree on the time.
+     */
+    public static void encodePing(ByteBuffer dst, long timestamp) {
+        dst.put(PING).putLong(timestamp);
+    }
+
+    public static long decodeTimestamp(ByteBuffer src) {
+        return src.getLong(1);
+    }
+
+    public static byte decodeType(ByteBuffer src) {
+        return src.get(0);
+    }
+
+    public static int decodeChannel(ByteBuffer src) {
+        return src.get(0) == ACT ? src.getInt(2) : src.getInt(1);
+    }
+
+    public static byte decodeAction(ByteBuffer src) {
+        return src.get(1);
+    }
+
+    public static int decodeNackRangeCount(ByteBuffer src) {
+        return src.getInt(5);
+    }
+
+    /**
+     * Control datagrams carry no CRC, so a NACK's range count is checked
+     * against what was read before any range is decoded.
+     *
+     * @return true if the first {@code length} bytes of {@code src} hold every range the NACK counts
+     */
+    public static boolean isWholeNack(ByteBuffer src, int length) {
+        if (length < NACK_HEADER_SIZE)
+            return false;
+        int ranges = decodeNackRangeCount(src);
+        return ranges >= 0 && ranges <= MAX_NACK_RANGES && NACK_HEADER_SIZE + ranges * NACK_RANGE_SIZE <= length;
+    }
+
+    public static long decodeNackStart(ByteBuffer src, int range) {
+        return src.getLong(NACK_HEADER_SIZE + range * NACK_RANGE_SIZE);
+    }
+
+    public static long decodeNackEnd(ByteBuffer src, int range) {
+        return src.getLong(NACK_HEADER_SIZE + range * NACK_RANGE_SIZE + 8);
+    }
+}
@@ -0,0 +1,275 @@
+package com.czifrotech.rapidtransfer.net;
+
+import com.czifrotech.rapidtransfer.io.BufferPool;
+import com.czifrotech.rapidtransfer.io.ChunkSink;
+import com.czifrotech.rapidtransfer.io.ChunkSource;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.function.Consumer;
+
+/**
+ * How a {@link TransferEngine} runs the sending and receiving loops of its
+ * channels. The control channel and checkpoint threads are the same for
+ * every backend.
+ *
+ * @author Will Czifro
+ */
+public enum ExecutionBackend {
+
+    /**
+     * A platform thread for each channel's sender and each channel's
+     * receiver, the lowest latency while there are cores to spare.
+     */
+    THREADS {
+        @Override
+        Thread[] startSenders(UdpChannel[] channels, ChunkSource source, BufferPool pool, boolean steal) {
+            UdpChannel[] peers = steal ? channels : null;
+            return startEach(channels, "rapidtransfer-sender-", channel -> channel.send(source, peers));
+        }
+
+        @Override
+        Thread[] startReceivers(UdpChannel[] channels, ChunkSink sink, BufferPool pool) {
+            return startEach(channels, "rapidtransfer-receiver-", channel -> channel.receive(sink));
+        }
+    },
+
+    /**
+     * One thread sends for every channel, a datagram from each in turn, and
+     * one thread receives for every channel from a single {@link Selector},
+     * so the thread count stays at two however many channels there are.
+     */
+    EVENT_LOOP {
+        @Override
+        Thread[] startSenders(UdpChannel[] channels, ChunkSource source, BufferPool pool, boolean steal) {
+            return new Thread[]{start("rapidtransfer-sender", () -> sendAll(channels, source, pool))};
+        }
+
+        @Override
+        Thread[] startReceivers(UdpChannel[] channels, ChunkSink sink, BufferPool pool) {
+            return new Thread[]{start("rapidtransfer-receiver", () -> receiveAll(channels, sink, pool))};
+        }
+    },
+
+    /**
+     * A virtual thread for each channel's sender and receiver, blocking code
+     * without a carrier thread per channel. Needs Java 21 or later, see
+     * {@link #isAvailable()}.
+     */
+    VIRTUAL_THREADS {
+        @Override
+        public boolean isAvailable() {
+            return START_VIRTUAL != null;
+        }
+
+        @Override
+        Thread start(String name, Runnable task) {
+            try {
+                return (Thread) START_VIRTUAL.invokeExact(task);
+            } catch (Throwable t) {
+                throw new IllegalStateException("Could not start a virtual thread", t);
+            }
+        }
+
+        @Override
+        Thread[] startSenders(UdpChannel[] channels, ChunkSource source, BufferPool pool, boolean steal) {
+            UdpChannel[] peers = steal ? channels : null;
+            return startEach(channels, "rapidtransfer-sender-", channel -> channel.send(source, peers));
+        }
+
+        @Override
+        Thread[] startReceivers(UdpChannel[] channels, ChunkSink sink, BufferPool pool) {
+            return startEach(channels, "rapidtransfer-receiver-", channel -> channel.receive(sink));
+        }
+    };
+
+    // how long the receiving event loop waits for a datagram before it checks timers
+    private static final long POLL_MILLIS = 5;
+
+    // datagrams read from one channel before the event loop moves on, so one busy channel cannot starve the rest
+    private static final int MAX_READS_PER_TURN = 16;
+
+    // Thread.startVirtualThread(Runnable), null before Java 21
+    private static final MethodHandle START_VIRTUAL;
+
+    static {
+        MethodHandle start = null;
+        // a preview API on Java 19 and 20, which refuses to run without --enable-preview,
+        // so those are told apart by release rather than by starting a thread at class load
+        if (featureRelease() >= 21) {
+            try {
+                start = MethodHandles.publicLookup().findStatic(Thread.class, "startVirtualThread",
+                        MethodType.methodType(Thread.class, Runnable.class));
+            } catch (ReflectiveOperationException e) {
+                start = null;
+            }
+        }
+        START_VIRTUAL = start;
+    }
+
+    /**
+     * The running Java release: 8 for "1.8", the feature number from Java 9 on.
+     */
+    private static int featureRelease() {
+        String version = System.getProperty("java.specification.version", "1.8");
+        try {
+            return Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version);
+        } catch (NumberFormatException e) {
+            return 8;
+        }
+    }
+
+    /**
+     * @return true if the running JVM can run this backend
+     */
+    public boolean isAvailable() {
+        return true;
+    }
+
+    /**
+     * Starts {@code task} on a thread of this backend's kind; virtual threads are left unnamed.
+     */
+    Thread start(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Starts the first pass of every channel. With {@code steal}, senders
+     * that finish their own stripe help the stripes furthest behind; a single
+     * sender thread that takes turns is never behind on one stripe and ignores it.
+     *
+     * @return the threads to join on, which end once every first pass is done
+     */
+    abstract Thread[] startSenders(UdpChannel[] channels, ChunkSource source, BufferPool pool, boolean steal);
+
+    /**
+     * Starts receiving on every channel.
+     *
+     * @return the threads to join on, which end once every channel is complete or closed
+     */
+    abstract Thread[] startReceivers(UdpChannel[] channels, ChunkSink sink, BufferPool pool);
+
+    /**
+     * Starts a thread for each channel.
+     */
+    Thread[] startEach(UdpChannel[] channels, String prefix, Consumer<UdpChannel> loop) {
+        Thread[] threads = new Thread[channels.length];
+        for (int i = 0; i < channels.length; ++i) {
+            UdpChannel channel = channels[i];
+            threads[i] = start(prefix + i, () -> loop.accept(channel));
+        }
+        return threads;
+    }
+
+    private static void sendAll(UdpChannel[] channels, ChunkSource source, BufferPool pool) {
+        ByteBuffer buffer;
+        try {
+            buffer = pool.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        boolean[] done = new boolean[channels.length];
+        int remaining = channels.length;
+        try {
+            while (remaining > 0) {
+                for (int i = 0; i < channels.length; ++i) {
+                    if (done[i])
+                        continue;
+                    try {
+                        if (channels[i].sendNext(buffer, source) > 0)
+                            continue;
+                    } catch (IOException e) {
+                        channels[i].failSend(e);
+                    }
+                    done[i] = true;
+                    --remaining;
+                }
+            }
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    private static void receiveAll(UdpChannel[] channels, ChunkSink sink, BufferPool pool) {
+        ByteBuffer buffer;
+        try {
+            buffer = pool.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        boolean[] done = new boolean[channels.length], read = new boolean[channels.length];
+        boolean[] broken = new boolean[channels.length];
+        int remaining = channels.length;
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < channels.length; ++i) {
+                try {
+                    channels[i].register(selector);
+                } catch (IOException e) {
+                    channels[i].failReceive(e);
+                    channels[i].finishReceive();
+                    done[i] = true;
+                    --remaining;
+                }
+            }
+            while (remaining > 0) {
+                if (selector.select(POLL_MILLIS) > 0) {
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        UdpChannel channel = (UdpChannel) key.attachment();
+                        int id = channel.getId();
+                        try {
+                            int reads = 0;
+                            while (reads < MAX_READS_PER_TURN && channel.isReceiving() &&
+                                    channel.receiveNext(buffer, sink))
+                                ++reads;
+                            // a full turn means more may be waiting, so the channel is not idle yet
+                            read[id] = reads == MAX_READS_PER_TURN;
+                        } catch (IOException e) {
+                            channel.failReceive(e);
+                            broken[id] = true;
+                            key.cancel();
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                }
+                long now = System.nanoTime();
+                for (int i = 0; i < channels.length; ++i) {
+                    if (done[i])
+                        continue;
+                    UdpChannel channel = channels[i];
+                    try {
+                        if (!broken[i] && channel.isReceiving()) {
+                            if (!read[i])
+                                channel.onIdle();
+                            read[i] = false;
+                            channel.onTick(now);
+                            continue;
+                        }
+                    } catch (IOException e) {
+                        channel.failReceive(e);
+                    }
+                    channel.finishReceive();
+                    done[i] = true;
+                    --remaining;
+                }
+            }
+        } catch (IOException e) {
+            for (int i = 0; i < channels.length; ++i) {
+                if (!done[i]) {
+                    channels[i].failReceive(e);
+                    channels[i].finishReceive();
+                }
+            }
+        } finally {
+            pool.release(buffer);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.czifrotech.rapidtransfer.net;
+
+import com.czifrotech.rapidtransfer.diagnostics.LatencyHistogram;
+import com.czifrotech.rapidtransfer.diagnostics.TransferMetrics;
+import com.czifrotech.rapidtransfer.diagnostics.TransferStats;
+import com.czifrotech.rapidtransfer.io.BufferPool;
+
+/**
+ * The {@link TransferMetrics} of one run of the {@link TransferEngine}, read
+ * straight from the counters, pool and pacer the channels are using.
+ *
+ * @author Will Czifro
+ */
+class LiveTransferMetrics implements TransferMetrics {
+
+    private final TransferStats stats;
+    // filled in by the engine once the metrics are registered, so entries may still be null
+    private final UdpChannel[] channels;
+    private final BufferPool pool;
+    private final Pacer pacer;
+    private final LatencyHistogram rtt, pacingDelay;
+    private final long start;
+
+    LiveTransferMetrics(TransferStats stats, UdpChannel[] channels, BufferPool pool, Pacer pacer,
+                        LatencyHistogram rtt, LatencyHistogram pacingDelay, long start) {
+        this.stats = stats;
+        this.channels = channels;
+        this.pool = pool;
+        this.pacer = pacer;
+        this.rtt = rtt;
+        this.pacingDelay = pacingDelay;
+        this.start = start;
+    }
+
+    @Override
+    public int getChannels() {
+        return stats.getChannels();
+    }
+
+    @Override
+    public long getElapsedNanos() {
+        return System.nanoTime() - start;
+    }
+
+    @Override
+    public long getPacketsSent(int channel) {
+        return stats.getSenderCounter(channel);
+    }
+
+    @Override
+    public long getBytesSent(int channel) {
+        return stats.getBytesSent(channel);
+    }
+
+    @Override
+    public long getPacketsReceived(int channel) {
+        return stats.getReceiverCounter(channel);
+    }
+
+    @Override
+    public long getBytesReceived(int channel) {
+        return stats.getBytesReceived(channel);
+    }
+
+    @Override
+    public double[] getPacketRates() {
+        double[] rates = new double[channels.length];
+        for (int i = 0; i < channels.length; ++i)
+            rates[i] = channels[i] == null ? 0 : channels[i].getPacketRate();
+        return rates;
+    }
+
+    @Override
+    public double[] getByteRates() {
+        double[] rates = new double[channels.length];
+        for (int i = 0; i < channels.length; ++i)
+            rates[i] = channels[i] == null ? 0 : channels[i].getByteRate();
+        return rates;
+    }
+
+    @Override
+    public long getRetransmitted() {
+        return stats.getRetransmittedCounter();
+    }
+
+    @Override
+    public long getCorrupted() {
+        return stats.getCorruptedCounter();
+    }
+
+    @Override
+    public long getReordered() {
+        return stats.getReorderedCounter();
+    }
+
+    @Override
+    public double getLossRate() {
+        long sent = stats.getSenderCounter();
+        return sent == 0 ? 0 : (double) stats.getRetransmittedCounter() / sent;
+    }
+
+    @Override
+    public long getParitySent() {
+        return stats.getParityCounter();
+    }
+
+    @Override
+    public double getFecOverhead() {
+        long sent = stats.getSenderCounter();
+        return sent == 0 ? 0 : (double) stats.getParityCounter() / sent;
+    }
+
+    @Override
+    public long getRecovered() {
+        return stats.getRecoveredCounter();
+    }
+
+    @Override
+    public double getRecoveryRate() {
+        long recovered = stats.getRecoveredCounter(), repaired = recovered + stats.getRetransmittedCounter();
+        return repaired == 0 ? 0 : (double) recovered / repaired;
+    }
+
+    @Override
+    public long getMissing() {
+        return stats.getMissingCount();
+    }
+
+    @Override
+    public double getSendRate() {
+        return pacer == null ? 0 : pacer.getController().getRate();
+    }
+
+    @Override
+    public long getPacerBacklogNanos() {
+        return pacer == null ? 0 : pacer.getBacklogNanos();
+    }
+
+    @Override
+    public int getFreeBuffers() {
+        return pool.available();
+    }
+
+    @Override
+    public LatencyHistogram getRtt() {
+        return rtt;
+    }
+
+    @Override
+    public LatencyHistogram getPacingDelay() {
+        return pacingDelay;
+    }
+}
@@ -0,0 +1,113 @@
+package com.czifrotech.rapidtransfer.net;
+
+import com.czifrotech.rapidtransfer.collections.SequenceSet;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the ranges asked for in each recent round, so a range is not
+ * NACKed, or retransmitted, again while the copy already asked for may still
+ * be on its way. Ranges are held in rounds, one per call time. A round only
+ * holds its ranges back for the hold time the caller passes in, which can
+ * follow its round trip estimate as that changes, but is remembered until
+ * {@link #expire} lets go of it, so a range asked for again can be told
+ * apart from one asked for once.
+ * <p>
+ * Not thread safe; each receiving thread and the sender's control thread have their own.
+ *
+ * @author Will Czifro
+ */
+public class NackHoldback {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    // ring of rounds with the time each was held, oldest at head
+    private SequenceSet[] rounds = new SequenceSet[INITIAL_CAPACITY];
+    private long[] times = new long[INITIAL_CAPACITY];
+    private int head, size;
+
+    /**
+     * Holds [start, end) as part of the round at {@code now}, which must not
+     * be earlier than any round held before.
+     */
+    public void hold(long start, long end, long now) {
+        if (end <= start)
+            return;
+        int last = (head + size - 1) % rounds.length;
+        if (size == 0 || times[last] != now) {
+            if (size == rounds.length)
+                grow();
+            last = (head + size) % rounds.length;
+            rounds[last] = new SequenceSet();
+            times[last] = now;
+            ++size;
+        }
+        rounds[last].add(start, end);
+    }
+
+    /**
+     * Forgets every round held {@code keepNanos} or longer.
+     */
+    public void expire(long now, long keepNanos) {
+        while (size > 0 && now - times[head] >= keepNanos) {
+            rounds[head] = null;
+            head = (head + 1) % rounds.length;
+            --size;
+        }
+    }
+
+    /**
+     * Removes from {@code set} every sequence held less than {@code holdNanos} before {@code now}.
+     */
+    public void removeFrom(SequenceSet set, long now, long holdNanos) {
+        for (int i = size - 1; i >= 0 && !set.isEmpty(); --i) {
+            int round = (head + i) % rounds.length;
+            if (now - times[round] >= holdNanos)
+                break;
+            rounds[round].forEachRange(set::remove);
+        }
+    }
+
+    /**
+     * @return true if a remembered round holds {@code seq}
+     */
+    public boolean isHeld(long seq) {
+        for (int i = 0; i < size; ++i) {
+            if (rounds[(head + i) % rounds.length].contains(seq))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the time of the one remembered round holding {@code seq}, or -1
+     * if none or several do, when it is not clear which round its repair answers
+     */
+    public long heldSince(long seq) {
+        long since = -1;
+        for (int i = 0; i < size; ++i) {
+            int round = (head + i) % rounds.length;
+            if (!rounds[round].contains(seq))
+                continue;
+            if (since >= 0)
+                return -1;
+            since = times[round];
+        }
+        return since;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void grow() {
+        int capacity = rounds.length * 2;
+        SequenceSet[] grownRounds = Arrays.copyOf(Arrays.copyOfRange(rounds, head, rounds.length), capacity);
+        System.arraycopy(rounds, 0, grownRounds, rounds.length - head, head);
+        long[] grownTimes = Arrays.copyOf(Arrays.copyOfRange(times, head, times.length), capacity);
+        System.arraycopy(times, 0, grownTimes, times.length - head, head);
+        rounds = grownRounds;
+        times = grownTimes;
+        head = 0;
+    }
+}
@@ -0,0 +1,61 @@
+package com.czifrotech.rapidtransfer.net;
+
+import com.czifrotech.rapidtransfer.diagnostics.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Spreads datagrams out in time so the channels together never exceed the
+ * {@link RateController}'s rate. Every write reserves its slot on one shared
+ * timeline and waits for it, which leaves an even gap between datagrams
+ * instead of bursts followed by silence. An idle timeline does not bank
+ * credit, so a sender that falls behind cannot burst to catch up.
+ *
+ * @author Will Czifro
+ */
+class Pacer {
+
+    // parking overshoots by tens of microseconds, shorter waits are spun
+    private static final long SPIN_NANOS = 50000;
+
+    private final RateController controller;
+    private final LatencyHistogram delays;
+    private final AtomicLong next = new AtomicLong(System.nanoTime());
+
+    Pacer(RateController controller, LatencyHistogram delays) {
+        this.controller = controller;
+        this.delays = delays;
+    }
+
+    RateController getController() {
+        return controller;
+    }
+
+    /**
+     * How far past now slots have been handed out, 0 if the timeline is idle.
+     */
+    long getBacklogNanos() {
+        return Math.max(0, next.get() - System.nanoTime());
+    }
+
+    /**
+     * Blocks until {@code packets} more packets may be sent.
+     */
+    void acquire(int packets) {
+        long gap = (long) (packets * 1e9 / controller.getRate());
+        long now = System.nanoTime(), slot;
+        while (true) {
+            long current = next.get();
+            slot = Math.max(current, now);
+            if (next.compareAndSet(current, slot + gap))
+                break;
+        }
+        delays.recordValue(slot - now);
+        long remaining;
+        while ((remaining = slot - System.nanoTime()) > 0) {
+            if (remaining > SPIN_NANOS)
+                LockSupport.parkNanos(remaining - SPIN_NANOS);
+        }
+    }
+}
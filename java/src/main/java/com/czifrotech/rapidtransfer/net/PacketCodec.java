@@ -0,0 +1,137 @@
+package com.czifrotech.rapidtransfer.net;
+
+import com.czifrotech.rapidtransfer.cryptography.Crc32c;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes and decodes the records carried by a data datagram. Each record is
+ * a SEG packet from Protocol.v1 with a CRC32C of the rest of the record:
+ * <pre>
+ *  ------------------------------------
+ * |    8     |   4    |   4   |  dLen  |
+ *  ------------------------------------
+ * |  seqNum  |  dLen  |  crc  |  data  |
+ *  ------------------------------------
+ * </pre>
+ * A datagram holds one or more back to back records, so several packets can
+ * go out in a single write. Values are written to and read from the caller's
+ * buffer in place. UDP's own 16 bit checksum is optional over IPv4 and too
+ * weak for jumbo payloads, so a record whose CRC does not match is dropped
+ * and recovered like a lost one.
+ * <p>
+ * A seqNum with {@link #PARITY_FLAG} set is a parity record for forward error
+ * correction, the rest of it names the record it protects, see {@link ParityBlock}.
+ * With {@link #COMPRESSED_FLAG} set, the data is the chunk deflated on its own.
+ *
+ * @author Will Czifro
+ */
+public final class PacketCodec {
+
+    public static final int SEQ_SIZE = 8;
+    public static final int LENGTH_SIZE = 4;
+    public static final int CRC_SIZE = 4;
+    public static final int HEADER_SIZE = SEQ_SIZE + LENGTH_SIZE + CRC_SIZE;
+
+    // largest UDP payload over IPv4: 65535 - 8 byte UDP header - 20 byte IP header
+    public static final int MAX_DATAGRAM_SIZE = 65507;
+
+    public static final int MAX_PAYLOAD_SIZE = MAX_DATAGRAM_SIZE - HEADER_SIZE;
+
+    public static final int MAX_RECORDS_PER_DATAGRAM = MAX_DATAGRAM_SIZE / HEADER_SIZE;
+
+    public static final long PARITY_FLAG = Long.MIN_VALUE;
+    public static final long COMPRESSED_FLAG = 1L << 62;
+
+    private static final ThreadLocal<Crc32c> CRCS = ThreadLocal.withInitial(Crc32c::new);
+
+    private PacketCodec() {
+    }
+
+    /**
+     * How many records of {@code payloadSize} bytes go into one datagram when
+     * up to {@code batchSize} are allowed.
+     */
+    public static int recordsPerDatagram(int payloadSize, int batchSize) {
+        if (payloadSize < 0 || payloadSize > MAX_PAYLOAD_SIZE)
+            throw new IllegalArgumentException("Payload of " + payloadSize + " bytes does not fit a datagram");
+        return Math.max(1, Math.min(batchSize, MAX_DATAGRAM_SIZE / (HEADER_SIZE + payloadSize)));
+    }
+
+    /**
+     * Writes a record header at the buffer's position and advances past it.
+     * The CRC is left blank until {@link #seal} is called.
+     */
+    public static void encodeHeader(ByteBuffer dst, long seq, int length) {
+        dst.putLong(seq);
+        dst.putInt(length);
+        dst.putInt(0);
+    }
+
+    /**
+     * Overwrites the length of the record starting at {@code offset}.
+     */
+    public static void encodeLength(ByteBuffer dst, int offset, int length) {
+        dst.putInt(offset + SEQ_SIZE, length);
+    }
+
+    /**
+     * Reads the sequence number of the record at {@code offset} without moving the buffer's position.
+     */
+    public static long decodeSeq(ByteBuffer src, int offset) {
+        return src.getLong(offset);
+    }
+
+    /**
+     * Reads the payload length of the record at {@code offset} without moving the buffer's position.
+     */
+    public static int decodeLength(ByteBuffer src, int offset) {
+        return src.getInt(offset + SEQ_SIZE);
+    }
+
+    /**
+     * Reads the CRC of the record at {@code offset} without moving the buffer's position.
+     */
+    public static int decodeCrc(ByteBuffer src, int offset) {
+        return src.getInt(offset + SEQ_SIZE + LENGTH_SIZE);
+    }
+
+    /**
+     * Fills in the CRC of the complete record at {@code offset}, once its
+     * length and data are final.
+     */
+    public static void seal(ByteBuffer buffer, int offset) {
+        buffer.putInt(offset + SEQ_SIZE + LENGTH_SIZE, crc(buffer, offset));
+    }
+
+    /**
+     * @return true if the record at {@code offset} ends within the buffer's
+     * limit and still matches its CRC
+     */
+    public static boolean verify(ByteBuffer buffer, int offset) {
+        int payload = offset + HEADER_SIZE, length = decodeLength(buffer, offset);
+        if (length < 0 || length > buffer.limit() - payload)
+            return false;
+        return decodeCrc(buffer, offset) == crc(buffer, offset);
+    }
+
+    /**
+     * CRC32C of the seqNum, dLen and data of the record at {@code offset};
+     * the buffer's position and limit are left as they were.
+     */
+    private static int crc(ByteBuffer buffer, int offset) {
+        int position = buffer.position(), limit = buffer.limit();
+        int payload = offset + HEADER_SIZE;
+        Crc32c crc = CRCS.get();
+        crc.reset();
+        try {
+            buffer.limit(offset + SEQ_SIZE + LENGTH_SIZE).position(offset);
+            crc.update(buffer);
+            buffer.limit(payload + decodeLength(buffer, offset)).position(payload);
+            crc.update(buffer);
+        } finally {
+            buffer.limit(limit).position(position);
+        }
+        return crc.getValue();
+    }
+}
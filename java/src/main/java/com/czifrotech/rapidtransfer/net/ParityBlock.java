@@ -0,0 +1,188 @@
+package com.czifrotech.rapidtransfer.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One FEC block of a stripe: {@code slots} consecutive first pass datagrams
+ * of up to {@code perDatagram} records each, protected by one parity
+ * datagram. Parity is taken per position, so parity record {@code r} is the
+ * XOR of record {@code r} of every datagram in the block. UDP loses whole
+ * datagrams, and a lost datagram costs each position exactly one record,
+ * which is all XOR can rebuild.
+ * <p>
+ * Chunks shorter than the chunk size count as zero padded, and the XOR of
+ * their lengths travels at the end of the parity record, so a rebuilt chunk
+ * gets its length back too, along with whether it was compressed, in the
+ * length's top bit. XOR is done a long at a time.
+ * <p>
+ * Not thread safe; senders that share a block lock it, and each receiving
+ * thread has its own blocks.
+ *
+ * @author Will Czifro
+ */
+public final class ParityBlock {
+
+    public static final int LENGTH_SIZE = 4;
+
+    // the parity member's bit in a position's arrival mask; data slots use the bits below
+    public static final long PARITY_BIT = 1L << 63;
+
+    public static final int MAX_SLOTS = 63;
+
+    // marks a compressed record in the folded length
+    public static final int COMPRESSED_LENGTH = 1 << 31;
+
+    private final long first;
+    private final int length, slots, positions, perDatagram, chunkSize, words;
+    private final long[] data;
+    private final int[] lengths;
+
+    // encoder: datagrams folded in so far
+    private int added;
+
+    // decoder: members seen at each position, and positions not yet whole
+    private final long[] arrived;
+    private int open;
+
+    /**
+     * The block of {@code stripe} starting at {@code first}, when blocks are
+     * {@code blockSize} datagrams of {@code perDatagram} records from the stripe's start.
+     */
+    public ParityBlock(SequenceRange stripe, long first, int blockSize, int perDatagram, int chunkSize) {
+        this.first = first;
+        this.length = (int) Math.min((long) blockSize * perDatagram, stripe.getEnd() - first);
+        this.slots = (length + perDatagram - 1) / perDatagram;
+        this.positions = Math.min(perDatagram, length);
+        this.perDatagram = perDatagram;
+        this.chunkSize = chunkSize;
+        this.words = (chunkSize + 7) / 8;
+        this.data = new long[positions * words];
+        this.lengths = new int[positions];
+        this.arrived = new long[positions];
+        this.open = positions;
+    }
+
+    /**
+     * The first sequence of the block {@code seq} belongs to.
+     */
+    public static long firstOf(SequenceRange stripe, long seq, int blockSize, int perDatagram) {
+        long span = (long) blockSize * perDatagram;
+        return stripe.getStart() + (seq - stripe.getStart()) / span * span;
+    }
+
+    public long getFirst() {
+        return first;
+    }
+
+    public int getPositions() {
+        return positions;
+    }
+
+    public long seqOf(int slot, int position) {
+        return first + (long) slot * perDatagram + position;
+    }
+
+    public int slotOf(long seq) {
+        return (int) ((seq - first) / perDatagram);
+    }
+
+    public int positionOf(long seq) {
+        return (int) ((seq - first) % perDatagram);
+    }
+
+    /**
+     * Folds one data record into the block.
+     */
+    public void xor(int position, ByteBuffer src, int offset, int length, boolean compressed) {
+        xor(position, src, offset, length);
+        if (compressed)
+            lengths[position] ^= COMPRESSED_LENGTH;
+    }
+
+    /**
+     * Folds one uncompressed data record into the block.
+     */
+    public void xor(int position, ByteBuffer src, int offset, int length) {
+        int base = position * words, full = length / 8;
+        for (int i = 0; i < full; ++i)
+            data[base + i] ^= src.getLong(offset + 8 * i);
+        long tail = 0;
+        for (int i = full * 8; i < length; ++i)
+            tail |= (src.get(offset + i) & 0xFFL) << (56 - 8 * (i % 8));
+        if (length % 8 != 0)
+            data[base + full] ^= tail;
+        lengths[position] ^= length;
+    }
+
+    /**
+     * Folds in a parity record, whose length sits after its chunk sized data.
+     */
+    public void xorParity(int position, ByteBuffer src, int offset) {
+        xor(position, src, offset, chunkSize);
+        lengths[position] ^= chunkSize ^ src.getInt(offset + chunkSize);
+    }
+
+    /**
+     * Writes what has been folded in at {@code position} as a chunk: the
+     * parity record's payload, or the one missing member once all others are in.
+     *
+     * @param parity true to write the chunk sized parity payload with its length, false for just the chunk
+     * @return the number of bytes written
+     */
+    public int write(int position, ByteBuffer dst, boolean parity) {
+        int length = parity ? chunkSize : lengths[position] & ~COMPRESSED_LENGTH;
+        int base = position * words, full = length / 8, start = dst.position();
+        for (int i = 0; i < full; ++i)
+            dst.putLong(data[base + i]);
+        for (int i = full * 8; i < length; ++i)
+            dst.put((byte) (data[base + full] >>> (56 - 8 * (i % 8))));
+        if (parity)
+            dst.putInt(lengths[position]);
+        return dst.position() - start;
+    }
+
+    /**
+     * @return true if the member rebuilt at {@code position} went on the wire compressed
+     */
+    public boolean isCompressed(int position) {
+        return (lengths[position] & COMPRESSED_LENGTH) != 0;
+    }
+
+    /**
+     * Counts one more datagram in on the sending side.
+     *
+     * @return true once every datagram of the block is in
+     */
+    public boolean addDatagram() {
+        return ++added == slots;
+    }
+
+    /**
+     * Records the arrival of a member at a position on the receiving side.
+     *
+     * @return the slot of the data member to rebuild once it is the only one
+     * missing at the position, otherwise -1
+     */
+    public int arrive(int position, long bit) {
+        long all = PARITY_BIT | (1L << members(position)) - 1;
+        if (arrived[position] == all)
+            return -1;
+        long mask = arrived[position] |= bit;
+        long missing = all & ~mask;
+        if (missing != 0 && (Long.bitCount(missing) != 1 || missing == PARITY_BIT))
+            return -1;
+        // complete, or the one missing member is about to be rebuilt
+        arrived[position] = all;
+        --open;
+        return missing == 0 ? -1 : Long.numberOfTrailingZeros(missing);
+    }
+
+    public boolean isWhole() {
+        return open == 0;
+    }
+
+    // data slots with a record at the position, only the stripe's last datagram can be short
+    private int members(int position) {
+        return (length - position + perDatagram - 1) / perDatagram;
+    }
+}
@@ -0,0 +1,89 @@
+package com.czifrotech.rapidtransfer.net;
+
+/**
+ * Decides how many packets per second the sending side may put on the wire,
+ * from the loss and RTT reports that come back over the control channel.
+ * <p>
+ * Starts in slow start, doubling the rate every interval until the first loss.
+ * After that every interval without loss raises the rate by a sixteenth, and a
+ * new loss cuts it by an eighth, at most once per round trip. When the
+ * smoothed RTT climbs well above the smallest one seen, queues are building up
+ * somewhere along the path and the rate is held instead of raised.
+ * <p>
+ * Only the control thread updates the controller; senders just read the rate.
+ *
+ * @author Will Czifro
+ */
+class RateController {
+
+    // RTT headroom over the minimum before increases stop, covers scheduling jitter on fast links
+    private static final long QUEUE_SLACK_NANOS = 1000000;
+
+    private final double minRate, maxRate;
+    private final long intervalNanos;
+
+    private volatile double rate;
+    private boolean slowStart = true;
+    private long minRttNanos = Long.MAX_VALUE;
+    private volatile long smoothedRttNanos;
+    private long lastIncrease, lastDecrease;
+
+    RateController(double initialRate, double minRate, double maxRate, long intervalNanos) {
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.intervalNanos = intervalNanos;
+        this.rate = clamp(initialRate);
+        this.lastIncrease = this.lastDecrease = System.nanoTime();
+    }
+
+    /**
+     * Packets per second.
+     */
+    double getRate() {
+        return rate;
+    }
+
+    boolean isSlowStart() {
+        return slowStart;
+    }
+
+    long getSmoothedRttNanos() {
+        return smoothedRttNanos;
+    }
+
+    long getMinRttNanos() {
+        return minRttNanos == Long.MAX_VALUE ? 0 : minRttNanos;
+    }
+
+    void onRtt(long rttNanos) {
+        if (rttNanos <= 0)
+            return;
+        minRttNanos = Math.min(minRttNanos, rttNanos);
+        smoothedRttNanos = smoothedRttNanos == 0 ? rttNanos : (7 * smoothedRttNanos + rttNanos) / 8;
+    }
+
+    /**
+     * Reports loss the controller has not been told about before.
+     */
+    void onLoss(long now) {
+        slowStart = false;
+        // one cut per round trip, the NACKs of a single burst all describe the same congestion
+        if (now - lastDecrease < Math.max(smoothedRttNanos, intervalNanos))
+            return;
+        rate = clamp(rate * 7 / 8);
+        lastDecrease = lastIncrease = now;
+    }
+
+    void onTick(long now) {
+        if (now - lastIncrease < intervalNanos)
+            return;
+        lastIncrease = now;
+        if (smoothedRttNanos > 2 * getMinRttNanos() + QUEUE_SLACK_NANOS)
+            return;
+        rate = clamp(slowStart ? rate * 2 : rate + rate / 16);
+    }
+
+    private double clamp(double rate) {
+        return Math.max(minRate, Math.min(maxRate, rate));
+    }
+}
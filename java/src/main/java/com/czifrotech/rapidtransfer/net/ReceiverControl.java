@@ -0,0 +1,66 @@
+package com.czifrotech.rapidtransfer.net;
+
+import java.io.IOException;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+
+/**
+ * The receiving side of the control channel. A FIN tells a channel's
+ * receiver that everything still missing from its stripe is lost; channels
+ * that are already complete answer it with another completion, in case the
+ * first one was dropped. PINGs are echoed straight back.
+ *
+ * @author Will Czifro
+ */
+class ReceiverControl implements Runnable {
+
+    private final UdpChannel[] channels;
+    private final ControlChannel control;
+
+    private volatile IOException failure;
+
+    ReceiverControl(UdpChannel[] channels, ControlChannel control) {
+        this.channels = channels;
+        this.control = control;
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer message = ByteBuffer.allocateDirect(PacketCodec.MAX_DATAGRAM_SIZE);
+        try {
+            while (true) {
+                message.clear();
+                try {
+                    if (control.getReceiverEnd().read(message) <= 0)
+                        continue;
+                } catch (PortUnreachableException e) {
+                    continue; // the sending side already closed its end
+                }
+                byte type = ControlCodec.decodeType(message);
+                if (type == ControlCodec.PING) {
+                    message.flip();
+                    control.sendToSender(message);
+                    continue;
+                }
+                if (type != ControlCodec.FIN)
+                    continue;
+                int id = ControlCodec.decodeChannel(message);
+                if (id < 0 || id >= channels.length)
+                    continue;
+                if (channels[id].isComplete())
+                    channels[id].sendComplete();
+                else
+                    channels[id].markSenderFinished();
+            }
+        } catch (IOException e) {
+            // the engine closes the control channel once the transfer is over
+            if (control.getReceiverEnd().isOpen())
+                failure = e;
+        }
+    }
+
+    void rethrowFailure() throws IOException {
+        if (failure != null)
+            throw failure;
+    }
+}
@@ -0,0 +1,126 @@
+package com.czifrotech.rapidtransfer.net;
+
+import com.czifrotech.rapidtransfer.collections.SequenceSet;
+
+import java.util.Arrays;
+
+/**
+ * Holds the gaps a receiver sees open up until they are overdue, so packets
+ * that arrive out of order are not mistaken for lost ones. A gap is declared
+ * lost once a packet at least {@code threshold} sequences past its end has
+ * arrived, or once it has been open for {@code timeoutNanos}, whichever
+ * comes first. Late packets that fill a gap before then are just reordered.
+ * <p>
+ * Only gaps are held, not payloads: every chunk is written to its own offset
+ * as it arrives. Gaps open at the receiver's highest sequence, so they are
+ * kept in a FIFO in both sequence and time order.
+ * <p>
+ * Not thread safe; each receiving thread has its own.
+ *
+ * @author Will Czifro
+ */
+public class ReorderWindow {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final long threshold, timeoutNanos;
+
+    // sequences of open gaps that have not arrived yet
+    private final SequenceSet pending = new SequenceSet();
+
+    // ring of open gaps [start, end) with the time each opened, oldest at head
+    private long[] starts = new long[INITIAL_CAPACITY], ends = new long[INITIAL_CAPACITY];
+    private long[] opened = new long[INITIAL_CAPACITY];
+    private int head, size;
+
+    public ReorderWindow(long threshold, long timeoutNanos) {
+        if (threshold < 1)
+            throw new IllegalArgumentException("threshold must be positive");
+        if (timeoutNanos < 0)
+            throw new IllegalArgumentException("timeoutNanos must not be negative");
+        this.threshold = threshold;
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    /**
+     * Opens a gap of [start, end), which must lie past every gap opened before.
+     */
+    public void open(long start, long end, long now) {
+        if (end <= start)
+            return;
+        if (size == starts.length)
+            grow();
+        int tail = (head + size) % starts.length;
+        starts[tail] = start;
+        ends[tail] = end;
+        opened[tail] = now;
+        ++size;
+        pending.add(start, end);
+    }
+
+    /**
+     * Fills a late arrival into its gap.
+     *
+     * @return true if {@code seq} was pending, false if it is outside every open gap
+     */
+    public boolean fill(long seq) {
+        return pending.remove(seq);
+    }
+
+    /**
+     * Declares every gap that {@code highest} or the clock has made overdue
+     * lost, handing whatever part of it is still pending to {@code lost}.
+     */
+    public void expire(long highest, long now, SequenceSet.RangeConsumer lost) {
+        while (size > 0 && (highest - ends[head] + 1 >= threshold || now - opened[head] >= timeoutNanos))
+            declareHead(lost);
+    }
+
+    /**
+     * Declares every open gap lost, for when no more packets are coming.
+     */
+    public void flush(SequenceSet.RangeConsumer lost) {
+        while (size > 0)
+            declareHead(lost);
+    }
+
+    /**
+     * @return true if {@code seq} lies in a gap that is still open
+     */
+    public boolean isPending(long seq) {
+        return pending.contains(seq);
+    }
+
+    /**
+     * Number of sequences still pending.
+     */
+    public long pending() {
+        return pending.cardinality();
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void declareHead(SequenceSet.RangeConsumer lost) {
+        long start = starts[head], end = ends[head];
+        head = (head + 1) % starts.length;
+        --size;
+        pending.forEachRange(start, end, lost);
+        pending.remove(start, end);
+    }
+
+    private void grow() {
+        int capacity = starts.length * 2;
+        starts = unwrap(starts, capacity);
+        ends = unwrap(ends, capacity);
+        opened = unwrap(opened, capacity);
+        head = 0;
+    }
+
+    private long[] unwrap(long[] ring, int capacity) {
+        long[] grown = Arrays.copyOf(Arrays.copyOfRange(ring, head, ring.length), capacity);
+        System.arraycopy(ring, 0, grown, ring.length - head, head);
+        return grown;
+    }
+}
@@ -0,0 +1,200 @@
+package com.czifrotech.rapidtransfer.net;
+
+import com.czifrotech.rapidtransfer.collections.SequenceSet;
+import com.czifrotech.rapidtransfer.diagnostics.LatencyHistogram;
+import com.czifrotech.rapidtransfer.diagnostics.TransferStats;
+import com.czifrotech.rapidtransfer.io.ChunkSource;
+
+import java.io.IOException;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The sending side of the control channel. Retransmits whatever the
+ * receivers NACK, repeats FIN for every channel whose first pass is done
+ * until the receiver reports it complete, and gives up if the receiving side
+ * goes quiet for too long.
+ * <p>
+ * NACKed ranges are queued per channel and retransmitted a batch at a time
+ * whenever no control message is waiting, so a NACK that repeats a range
+ * still queued adds nothing. Ranges retransmitted within the last smoothed
+ * RTT are dropped from new NACKs too, the receiver asked before they arrived.
+ * <p>
+ * It also PINGs the receiver every interval and records the round trip times.
+ * With a {@link RateController} it feeds them and every newly NACKed range
+ * into the controller. Sequences NACKed for the first time are counted as
+ * the receivers' declared loss.
+ *
+ * @author Will Czifro
+ */
+class SenderControl implements Runnable {
+
+    private static final long POLL_MILLIS = 5;
+
+    // sequences of one channel retransmitted before the control thread reads again
+    static final int RETRANSMIT_BATCH = 256;
+
+    private final UdpChannel[] channels;
+    private final ControlChannel control;
+    private final ChunkSource source;
+    private final TransferStats stats;
+    private final ByteBuffer buffer;
+    private final long finIntervalNanos, stallTimeoutNanos;
+    private final RateController rateController;
+    private final LatencyHistogram rtt;
+
+    private volatile IOException failure;
+
+    SenderControl(UdpChannel[] channels, ControlChannel control, ChunkSource source, TransferStats stats,
+                  ByteBuffer buffer, long finIntervalMillis, long stallTimeoutMillis, RateController rateController,
+                  LatencyHistogram rtt) {
+        this.channels = channels;
+        this.control = control;
+        this.source = source;
+        this.stats = stats;
+        this.buffer = buffer;
+        this.finIntervalNanos = TimeUnit.MILLISECONDS.toNanos(finIntervalMillis);
+        this.stallTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(stallTimeoutMillis);
+        this.rateController = rateController;
+        this.rtt = rtt;
+    }
+
+    @Override
+    public void run() {
+        DatagramChannel end = control.getSenderEnd();
+        ByteBuffer message = ByteBuffer.allocateDirect(PacketCodec.MAX_DATAGRAM_SIZE);
+        ByteBuffer outgoing = ByteBuffer.allocateDirect(16);
+        boolean[] completed = new boolean[channels.length];
+        // the highest sequence NACKed so far on each channel; repeats of older gaps are not new loss
+        long[] lossHighWater = new long[channels.length];
+        SequenceSet[] queued = new SequenceSet[channels.length];
+        NackHoldback[] resent = new NackHoldback[channels.length];
+        for (int i = 0; i < channels.length; ++i) {
+            queued[i] = new SequenceSet();
+            resent[i] = new NackHoldback();
+        }
+        long smoothedRtt = 0;
+        int remaining = channels.length;
+        boolean allFirstPassesDone = false;
+        long lastActivity = System.nanoTime(), lastFin = lastActivity;
+
+        try (Selector selector = Selector.open()) {
+            end.configureBlocking(false);
+            end.register(selector, SelectionKey.OP_READ);
+            while (remaining > 0) {
+                message.clear();
+                int length;
+                try {
+                    length = end.read(message);
+                } catch (PortUnreachableException e) {
+                    length = 0; // a receiver end that already closed, the stall timeout covers it
+                }
+                long now = System.nanoTime();
+                if (length > 0) {
+                    byte type = ControlCodec.decodeType(message);
+                    if (type == ControlCodec.PING) {
+                        // echoed by the control thread alone, so it says nothing about the receivers
+                        long sample = now - ControlCodec.decodeTimestamp(message);
+                        smoothedRtt = smoothedRtt == 0 ? sample : (7 * smoothedRtt + sample) / 8;
+                        rtt.recordValue(sample);
+                        if (rateController != null)
+                            rateController.onRtt(sample);
+                        continue;
+                    }
+                    lastActivity = now;
+                    int id = ControlCodec.decodeChannel(message);
+                    if (id < 0 || id >= channels.length)
+                        continue;
+                    if (type == ControlCodec.NACK) {
+                        if (!ControlCodec.isWholeNack(message, length))
+                            continue;
+                        int ranges = ControlCodec.decodeNackRangeCount(message);
+                        SequenceRange stripe = channels[id].getRange();
+                        long declared = 0;
+                        for (int r = 0; r < ranges; ++r) {
+                            long from = Math.max(ControlCodec.decodeNackStart(message, r), stripe.getStart());
+                            long to = Math.min(ControlCodec.decodeNackEnd(message, r), stripe.getEnd());
+                            if (to <= from)
+                                continue;
+                            declared += Math.max(0, to - Math.max(from, lossHighWater[id]));
+                            lossHighWater[id] = Math.max(lossHighWater[id], to);
+                            queued[id].add(from, to);
+                        }
+                        if (declared > 0) {
+                            stats.addDeclaredLostValue(id, declared);
+                            if (rateController != null)
+                                rateController.onLoss(now);
+                        }
+                        long hold = Math.max(finIntervalNanos, smoothedRtt);
+                        resent[id].expire(now, hold);
+                        resent[id].removeFrom(queued[id], now, hold);
+                    } else if (type == ControlCodec.ACT && ControlCodec.decodeAction(message) ==
+                            ControlCodec.ACTION_COMPLETE && !completed[id]) {
+                        completed[id] = true;
+                        --remaining;
+                    }
+                    continue;
+                }
+
+                boolean backlog = false;
+                for (int i = 0; i < channels.length; ++i) {
+                    if (queued[i].isEmpty())
+                        continue;
+                    long first = queued[i].first();
+                    long last = Math.min(queued[i].nextClear(first), first + RETRANSMIT_BATCH);
+                    queued[i].remove(first, last);
+                    channels[i].retransmit(first, last, source, buffer);
+                    resent[i].hold(first, last, System.nanoTime());
+                    backlog |= !queued[i].isEmpty();
+                }
+
+                if (!allFirstPassesDone) {
+                    allFirstPassesDone = true;
+                    for (UdpChannel channel : channels) {
+                        if (channel.hasFailed())
+                            return; // the engine reports the channel's own failure
+                        allFirstPassesDone &= channel.isFirstPassDone();
+                    }
+                    if (allFirstPassesDone)
+                        lastActivity = now; // the stall clock only runs once there is nothing left to send
+                }
+                if (rateController != null)
+                    rateController.onTick(now);
+                if (now - lastFin >= finIntervalNanos) {
+                    outgoing.clear();
+                    ControlCodec.encodePing(outgoing, now);
+                    outgoing.flip();
+                    control.sendToReceiver(outgoing);
+                    for (int i = 0; i < channels.length; ++i) {
+                        if (completed[i] || !channels[i].isFirstPassDone())
+                            continue;
+                        outgoing.clear();
+                        ControlCodec.encodeFin(outgoing, i);
+                        outgoing.flip();
+                        control.sendToReceiver(outgoing);
+                    }
+                    lastFin = now;
+                }
+                if (allFirstPassesDone && now - lastActivity > stallTimeoutNanos) {
+                    failure = new IOException("Receiver stopped responding with " + remaining +
+                            " channels incomplete");
+                    return;
+                }
+                if (!backlog && selector.select(POLL_MILLIS) > 0)
+                    selector.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            if (end.isOpen())
+                failure = e;
+        }
+    }
+
+    void rethrowFailure() throws IOException {
+        if (failure != null)
+            throw failure;
+    }
+}
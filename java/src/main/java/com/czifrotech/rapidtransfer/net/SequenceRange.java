@@ -0,0 +1,71 @@
+package com.czifrotech.rapidtransfer.net;
+
+/**
+ * A half-open range [start, end) of packet sequence numbers.
+ *
+ * @author Will Czifro
+ */
+public final class SequenceRange {
+
+    private final long start, end;
+
+    public SequenceRange(long start, long end) {
+        if (start < 0 || end < start)
+            throw new IllegalArgumentException("Invalid range [" + start + ", " + end + ")");
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Splits [0, total) into {@code parts} contiguous stripes. The first
+     * {@code total % parts} stripes get one extra sequence so nothing is dropped.
+     */
+    public static SequenceRange[] stripe(long total, int parts) {
+        if (parts < 1)
+            throw new IllegalArgumentException("parts must be positive");
+        SequenceRange[] stripes = new SequenceRange[parts];
+        long base = total / parts, extra = total % parts, start = 0;
+        for (int i = 0; i < parts; ++i) {
+            long len = base + (i < extra ? 1 : 0);
+            stripes[i] = new SequenceRange(start, start + len);
+            start += len;
+        }
+        return stripes;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long length() {
+        return end - start;
+    }
+
+    public boolean contains(long seq) {
+        return seq >= start && seq < end;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof SequenceRange))
+            return false;
+        SequenceRange other = (SequenceRange) o;
+        return start == other.start && end == other.end;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(start) + Long.hashCode(end);
+    }
+
+    @Override
+    public String toString() {
+        return "[" + start + ", " + end + ")";
+    }
+}
@@ -0,0 +1,740 @@
+package com.czifrotech.rapidtransfer.net;
+
+import com.czifrotech.rapidtransfer.collections.SequenceSet;
+import com.czifrotech.rapidtransfer.cryptography.Checksum;
+import com.czifrotech.rapidtransfer.cryptography.MerkleHasher;
+import com.czifrotech.rapidtransfer.diagnostics.LatencyHistogram;
+import com.czifrotech.rapidtransfer.diagnostics.MetricsReporter;
+import com.czifrotech.rapidtransfer.diagnostics.TransferMetrics;
+import com.czifrotech.rapidtransfer.diagnostics.TransferStats;
+import com.czifrotech.rapidtransfer.io.BatchChunkSink;
+import com.czifrotech.rapidtransfer.io.BatchChunkSource;
+import com.czifrotech.rapidtransfer.io.BatchManifest;
+import com.czifrotech.rapidtransfer.io.BufferPool;
+import com.czifrotech.rapidtransfer.io.ChunkSink;
+import com.czifrotech.rapidtransfer.io.ChunkSource;
+import com.czifrotech.rapidtransfer.io.FileChunkSource;
+import com.czifrotech.rapidtransfer.io.MappedFileChunkSource;
+import com.czifrotech.rapidtransfer.io.MappedFileChunkSink;
+import com.czifrotech.rapidtransfer.io.ReceiveCheckpoint;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongPredicate;
+
+/**
+ * Moves a sequence space of packets, optionally carrying file chunks, over any number of parallel UDP channels.
+ * The sequence space is striped into contiguous ranges, one per channel, and
+ * each channel gets its own sender and receiver thread. Packets are written
+ * and read in place in pooled direct buffers over {@link java.nio.channels.DatagramChannel}s,
+ * {@link #getBatchSize()} packets per datagram. The {@link ExecutionBackend}
+ * decides which threads run those loops.
+ * <p>
+ * With {@link #isAdaptive()} on, the channel count is an upper bound: the
+ * transfer starts with {@link #getInitialChannels()} channels sending and adds
+ * or retires them as the measured goodput and loss show what pays off. A
+ * retired channel's unsent chunks are handed to the next free sender.
+ * <p>
+ * With {@link #isWorkStealing()} on (the default), each stripe's first pass
+ * is handed out a datagram at a time from a shared cursor, and a sender that
+ * has finished its own stripe helps the one furthest behind. A transfer then
+ * ends with the average channel rather than the slowest.
+ * <p>
+ * A reliable transfer (the default) adds a control channel on top: receivers
+ * NACK the gaps in their stripe, the sender retransmits them and keeps sending
+ * FIN until every receiver reports its stripe complete. An unreliable transfer
+ * sends each packet once and reports whatever was lost.
+ * <p>
+ * Reliable transfers are paced: a {@link RateController} adapts the send rate
+ * to the loss and RTT the receivers report, and every datagram waits for its
+ * slot. Without feedback the sender runs at {@link #getMaxRate()}, unpaced if
+ * that is {@link #UNLIMITED}.
+ * <p>
+ * Receivers hold each gap in their stripe for up to {@link #getReorderThreshold()}
+ * later packets or {@link #getReorderTimeoutMillis()} before they NACK it, so
+ * reordering across channels or on the wire is neither retransmitted nor
+ * reported as loss.
+ * <p>
+ * Records carry a CRC32C, so corrupted packets are dropped and recovered like
+ * lost ones. On top of that, with {@link #isDigest()} on, both ends build a
+ * Merkle root per stripe as chunks go out and come in, in whatever order, and
+ * the {@link TransferResult} tells whether every stripe arrived intact.
+ * <p>
+ * With a {@link #getFecBlockSize()} set, chunked transfers add forward error
+ * correction: an XOR parity datagram after every block of that many first
+ * pass datagrams, from which a receiver rebuilds one datagram lost from the
+ * block without a retransmission round trip. Like digests, it is off for
+ * resumed transfers.
+ * <p>
+ * With {@link #isCompression()} on, a pool of {@link #getCompressionThreads()}
+ * workers compresses each first pass chunk on its own before the senders
+ * take it, and chunks that do not shrink go out as they are. It pays off
+ * when the link, not the CPU, is the bottleneck, and the data is text such as logs.
+ * <p>
+ * A resumable file transfer keeps a {@link ReceiveCheckpoint} next to the
+ * destination, saved every {@link #getCheckpointIntervalMillis()}. Running the
+ * same transfer again after a failure sends only the chunks the checkpoint
+ * does not hold, and the checkpoint is removed once the file is complete.
+ * Chunks of an earlier run are not hashed again, so a resumed transfer has no
+ * digests.
+ * <p>
+ * {@link #transferBatch} moves a whole directory tree as one sequence space,
+ * with small files packed into shared chunks and large ones chunk aligned.
+ * <p>
+ * While a transfer runs its {@link TransferMetrics} are published through the
+ * {@link #getMetricsReporter()}, as an MXBean by default: per channel rates,
+ * loss, queue depths and histograms of the control channel's RTT and of how
+ * long datagrams waited for the pacer.
+ *
+ * @author Will Czifro
+ */
+public class TransferEngine {
+
+    public static final int MIN_CHANNELS = 1;
+    public static final int MAX_CHANNELS = 64;
+
+    // 64 records = 512 byte datagrams, the SEG packet size from Protocol.v1
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    // packets per second; slow start doubles this every NACK interval until the first loss
+    public static final long DEFAULT_INITIAL_RATE = 20000;
+    public static final long MIN_RATE = 100;
+
+    public static final int DEFAULT_INITIAL_CHANNELS = 2;
+
+    // one default batch: packets of the same datagram never overtake each other
+    public static final int DEFAULT_REORDER_THRESHOLD = DEFAULT_BATCH_SIZE;
+
+    public static final int MAX_FEC_BLOCK_SIZE = ParityBlock.MAX_SLOTS;
+    // parity records carry the length of every chunk they cover on top of the chunk
+    public static final int MAX_FEC_CHUNK_SIZE = PacketCodec.MAX_PAYLOAD_SIZE - ParityBlock.LENGTH_SIZE;
+
+    private final int channelCount;
+    private final InetAddress address;
+
+    // how long receivers may keep draining in-flight packets once every sender is done
+    private long drainTimeoutMillis = 200;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private boolean reliable = true;
+
+    // how often receivers NACK their gaps and the sender repeats FIN
+    private long nackIntervalMillis = 20;
+
+    // how long the sender waits on a silent receiver before it gives up
+    private long stallTimeoutMillis = 5000;
+
+    private boolean pacing = true;
+    private long initialRate = DEFAULT_INITIAL_RATE;
+    private long maxRate = UNLIMITED;
+
+    private int reorderThreshold = DEFAULT_REORDER_THRESHOLD;
+    private long reorderTimeoutMillis = 10;
+
+    private boolean digest = true;
+
+    // first pass datagrams per parity datagram, 0 for no forward error correction
+    private int fecBlockSize;
+
+    private boolean compression;
+    private int compressionThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    private boolean resumable;
+    private long checkpointIntervalMillis = 1000;
+
+    private ExecutionBackend backend = ExecutionBackend.THREADS;
+
+    private boolean workStealing = true;
+
+    private boolean adaptive;
+    private int initialChannels = DEFAULT_INITIAL_CHANNELS;
+    private long adaptIntervalMillis = 100;
+
+    private MetricsReporter metricsReporter = MetricsReporter.jmx();
+
+    // first pass datagrams to drop on the way out, by first sequence, to simulate loss
+    private LongPredicate lossFilter;
+
+    public TransferEngine(int channelCount) {
+        this(channelCount, InetAddress.getLoopbackAddress());
+    }
+
+    public TransferEngine(int channelCount, InetAddress address) {
+        if (channelCount < MIN_CHANNELS || channelCount > MAX_CHANNELS)
+            throw new IllegalArgumentException("channelCount must be between " + MIN_CHANNELS +
+                    " and " + MAX_CHANNELS + ", was " + channelCount);
+        this.channelCount = channelCount;
+        this.address = address;
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    public long getDrainTimeoutMillis() {
+        return drainTimeoutMillis;
+    }
+
+    public void setDrainTimeoutMillis(long drainTimeoutMillis) {
+        if (drainTimeoutMillis < 0)
+            throw new IllegalArgumentException("drainTimeoutMillis must not be negative");
+        this.drainTimeoutMillis = drainTimeoutMillis;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets how many packets are packed into each datagram write, between 1 and
+     * {@link PacketCodec#MAX_RECORDS_PER_DATAGRAM}.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1 || batchSize > PacketCodec.MAX_RECORDS_PER_DATAGRAM)
+            throw new IllegalArgumentException("batchSize must be between 1 and " +
+                    PacketCodec.MAX_RECORDS_PER_DATAGRAM + ", was " + batchSize);
+        this.batchSize = batchSize;
+    }
+
+    public boolean isReliable() {
+        return reliable;
+    }
+
+    public void setReliable(boolean reliable) {
+        this.reliable = reliable;
+    }
+
+    public long getNackIntervalMillis() {
+        return nackIntervalMillis;
+    }
+
+    public void setNackIntervalMillis(long nackIntervalMillis) {
+        if (nackIntervalMillis < 1)
+            throw new IllegalArgumentException("nackIntervalMillis must be positive");
+        this.nackIntervalMillis = nackIntervalMillis;
+    }
+
+    public long getStallTimeoutMillis() {
+        return stallTimeoutMillis;
+    }
+
+    public void setStallTimeoutMillis(long stallTimeoutMillis) {
+        if (stallTimeoutMillis < 1)
+            throw new IllegalArgumentException("stallTimeoutMillis must be positive");
+        this.stallTimeoutMillis = stallTimeoutMillis;
+    }
+
+    public boolean isPacing() {
+        return pacing;
+    }
+
+    /**
+     * Turns rate control of reliable transfers on or off.
+     */
+    public void setPacing(boolean pacing) {
+        this.pacing = pacing;
+    }
+
+    public long getInitialRate() {
+        return initialRate;
+    }
+
+    public void setInitialRate(long initialRate) {
+        if (initialRate < MIN_RATE)
+            throw new IllegalArgumentException("initialRate must be at least " + MIN_RATE + ", was " + initialRate);
+        this.initialRate = initialRate;
+    }
+
+    public long getMaxRate() {
+        return maxRate;
+    }
+
+    /**
+     * Caps the send rate in packets per second across all channels.
+     */
+    public void setMaxRate(long maxRate) {
+        if (maxRate < MIN_RATE)
+            throw new IllegalArgumentException("maxRate must be at least " + MIN_RATE + ", was " + maxRate);
+        this.maxRate = maxRate;
+    }
+
+    public int getReorderThreshold() {
+        return reorderThreshold;
+    }
+
+    /**
+     * Sets how many packets past a gap must arrive before it is declared
+     * lost; 1 declares every gap lost as soon as it opens.
+     */
+    public void setReorderThreshold(int reorderThreshold) {
+        if (reorderThreshold < 1)
+            throw new IllegalArgumentException("reorderThreshold must be positive");
+        this.reorderThreshold = reorderThreshold;
+    }
+
+    public long getReorderTimeoutMillis() {
+        return reorderTimeoutMillis;
+    }
+
+    /**
+     * Sets how long a gap may stay open before it is declared lost, however few packets followed it.
+     */
+    public void setReorderTimeoutMillis(long reorderTimeoutMillis) {
+        if (reorderTimeoutMillis < 0)
+            throw new IllegalArgumentException("reorderTimeoutMillis must not be negative");
+        this.reorderTimeoutMillis = reorderTimeoutMillis;
+    }
+
+    public boolean isDigest() {
+        return digest;
+    }
+
+    /**
+     * Turns the per-stripe Merkle digests of chunked transfers on or off.
+     */
+    public void setDigest(boolean digest) {
+        this.digest = digest;
+    }
+
+    public int getFecBlockSize() {
+        return fecBlockSize;
+    }
+
+    /**
+     * Sends a parity datagram after every {@code fecBlockSize} first pass
+     * datagrams, which costs 1 / {@code fecBlockSize} more bandwidth; 0 turns
+     * forward error correction off. Chunks must then be at most
+     * {@link #MAX_FEC_CHUNK_SIZE}, a little under the jumbo size.
+     */
+    public void setFecBlockSize(int fecBlockSize) {
+        if (fecBlockSize < 0 || fecBlockSize > MAX_FEC_BLOCK_SIZE)
+            throw new IllegalArgumentException("fecBlockSize must be between 0 and " + MAX_FEC_BLOCK_SIZE);
+        this.fecBlockSize = fecBlockSize;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * Turns compression of the first pass of chunked transfers on or off.
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    public int getCompressionThreads() {
+        return compressionThreads;
+    }
+
+    /**
+     * Sets how many worker threads compress chunks, apart from the sender threads.
+     */
+    public void setCompressionThreads(int compressionThreads) {
+        if (compressionThreads < 1)
+            throw new IllegalArgumentException("compressionThreads must be positive");
+        this.compressionThreads = compressionThreads;
+    }
+
+    public boolean isResumable() {
+        return resumable;
+    }
+
+    /**
+     * Makes {@link #transferFile} checkpoint what it received and resume from an earlier checkpoint.
+     */
+    public void setResumable(boolean resumable) {
+        this.resumable = resumable;
+    }
+
+    public long getCheckpointIntervalMillis() {
+        return checkpointIntervalMillis;
+    }
+
+    public void setCheckpointIntervalMillis(long checkpointIntervalMillis) {
+        if (checkpointIntervalMillis < 1)
+            throw new IllegalArgumentException("checkpointIntervalMillis must be positive");
+        this.checkpointIntervalMillis = checkpointIntervalMillis;
+    }
+
+    public ExecutionBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Sets what runs the channels' sending and receiving loops.
+     */
+    public void setBackend(ExecutionBackend backend) {
+        if (backend == null)
+            throw new IllegalArgumentException("backend must not be null");
+        if (!backend.isAvailable())
+            throw new IllegalArgumentException(backend + " is not available on Java " +
+                    System.getProperty("java.specification.version"));
+        this.backend = backend;
+    }
+
+    public boolean isWorkStealing() {
+        return workStealing;
+    }
+
+    /**
+     * Lets senders that are done with their own stripe send for the stripes furthest behind.
+     */
+    public void setWorkStealing(boolean workStealing) {
+        this.workStealing = workStealing;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Lets the number of channels sending at once follow the measured goodput, up to {@link #getChannelCount()}.
+     */
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    public int getInitialChannels() {
+        return initialChannels;
+    }
+
+    /**
+     * Sets how many channels an adaptive transfer starts with, capped at {@link #getChannelCount()}.
+     */
+    public void setInitialChannels(int initialChannels) {
+        if (initialChannels < MIN_CHANNELS)
+            throw new IllegalArgumentException("initialChannels must be positive");
+        this.initialChannels = initialChannels;
+    }
+
+    public long getAdaptIntervalMillis() {
+        return adaptIntervalMillis;
+    }
+
+    /**
+     * Sets how often an adaptive transfer measures goodput and loss and reconsiders its channel count.
+     */
+    public void setAdaptIntervalMillis(long adaptIntervalMillis) {
+        if (adaptIntervalMillis < 1)
+            throw new IllegalArgumentException("adaptIntervalMillis must be positive");
+        this.adaptIntervalMillis = adaptIntervalMillis;
+    }
+
+    public MetricsReporter getMetricsReporter() {
+        return metricsReporter;
+    }
+
+    /**
+     * Sets where running transfers publish their metrics, {@link MetricsReporter#none()} to keep them private.
+     */
+    public void setMetricsReporter(MetricsReporter metricsReporter) {
+        if (metricsReporter == null)
+            throw new IllegalArgumentException("metricsReporter must not be null");
+        this.metricsReporter = metricsReporter;
+    }
+
+    public LongPredicate getLossFilter() {
+        return lossFilter;
+    }
+
+    /**
+     * Simulates loss on the wire: every first pass datagram whose first
+     * sequence {@code lossFilter} accepts is counted as sent but never
+     * written. Meant for tests and benchmarks; null, the default, drops nothing.
+     */
+    public void setLossFilter(LongPredicate lossFilter) {
+        this.lossFilter = lossFilter;
+    }
+
+    public TransferResult transfer(long packets) throws IOException, InterruptedException {
+        if (packets < 0)
+            throw new IllegalArgumentException("packets must not be negative");
+        return transfer(ChunkSource.empty(packets), ChunkSink.discard());
+    }
+
+    /**
+     * Sends {@code source} to {@code destination} in chunks of {@code chunkSize}
+     * bytes. The source is memory mapped one region per channel and read
+     * ahead of the senders. The destination is memory mapped and each chunk is
+     * copied to its own offset as it arrives, so no reordering pass is needed afterwards.
+     * When {@link #isResumable()}, the transfer resumes from the destination's checkpoint.
+     */
+    public TransferResult transferFile(Path source, Path destination, int chunkSize)
+            throws IOException, InterruptedException {
+        checkChunkSize(chunkSize);
+        try (MappedFileChunkSource src = new MappedFileChunkSource(source, chunkSize, channelCount)) {
+            // opened before the sink, which creates the destination
+            ReceiveCheckpoint checkpoint = resumable ?
+                    ReceiveCheckpoint.open(destination, src.size(), chunkSize, channelCount) : null;
+            TransferResult result;
+            try (MappedFileChunkSink sink = new MappedFileChunkSink(destination, chunkSize, src.size())) {
+                result = transfer(src, sink, checkpoint);
+            }
+            if (checkpoint != null && checkpoint.isComplete())
+                checkpoint.delete();
+            return result;
+        }
+    }
+
+    /**
+     * Sends every file under {@code sourceDirectory} to the same relative
+     * path under {@code destinationDirectory} as one transfer over the same
+     * channels. Small files are packed together into shared chunks as laid
+     * out by a {@link BatchManifest}, so the per-file cost is a table entry
+     * rather than a transfer of its own.
+     */
+    public TransferResult transferBatch(Path sourceDirectory, Path destinationDirectory, int chunkSize)
+            throws IOException, InterruptedException {
+        checkChunkSize(chunkSize);
+        BatchManifest manifest = BatchManifest.scan(sourceDirectory, chunkSize);
+        try (BatchChunkSource src = new BatchChunkSource(sourceDirectory, manifest);
+             BatchChunkSink sink = new BatchChunkSink(destinationDirectory, manifest)) {
+            return transfer(src, sink);
+        }
+    }
+
+    public TransferResult transfer(ChunkSource source, ChunkSink sink) throws IOException, InterruptedException {
+        return transfer(source, sink, null);
+    }
+
+    /**
+     * Skips the chunks {@code checkpoint} restored and saves the ones received
+     * into it as the transfer goes, a last time when it ends, failed or not.
+     */
+    public TransferResult transfer(ChunkSource source, ChunkSink sink, ReceiveCheckpoint checkpoint)
+            throws IOException, InterruptedException {
+        long packets = source.getChunkCount();
+        if (checkpoint != null && checkpoint.getChunkCount() != packets)
+            throw new IllegalArgumentException("Checkpoint of " + checkpoint.getChunkCount() +
+                    " chunks does not fit a transfer of " + packets);
+        SequenceSet restored = checkpoint == null ? new SequenceSet() : checkpoint.getRestored();
+        SequenceRange[] stripes = SequenceRange.stripe(packets, channelCount);
+        TransferStats stats = new TransferStats(channelCount);
+        int parityBlockSize = source.getChunkSize() > 0 && restored.isEmpty() ? fecBlockSize : 0;
+        if (parityBlockSize > 0)
+            checkFecChunkSize(source.getChunkSize());
+        int datagramSize = UdpChannel.recordsPerDatagram(source.getChunkSize(), parityBlockSize, batchSize) *
+                (PacketCodec.HEADER_SIZE + source.getChunkSize() +
+                        (parityBlockSize == 0 ? 0 : ParityBlock.LENGTH_SIZE));
+        // one buffer for each sender and receiver loop, plus one for retransmissions
+        BufferPool pool = new BufferPool(2 * channelCount + 1, datagramSize);
+        UdpChannel[] channels = new UdpChannel[channelCount];
+        Thread[] senders = new Thread[0], receivers = new Thread[0];
+        // every thread started so far, joined however the transfer ends
+        List<Thread> started = new ArrayList<>();
+        ByteBuffer controlBuffer = null;
+        boolean finished = false;
+        ControlChannel control = null;
+        SenderControl senderControl = null;
+        ReceiverControl receiverControl = null;
+        CheckpointWriter checkpointWriter = null;
+        Thread senderControlThread = null, receiverControlThread = null, checkpointThread = null;
+        AdaptiveSender adaptiveSender = null;
+        ChunkCompressor compressor = null;
+
+        RateController rateController = null;
+        if (reliable && pacing)
+            rateController = new RateController(Math.min(initialRate, maxRate), MIN_RATE, maxRate,
+                    TimeUnit.MILLISECONDS.toNanos(nackIntervalMillis));
+        else if (maxRate != UNLIMITED)
+            rateController = new RateController(maxRate, maxRate, maxRate, 0);
+        LatencyHistogram rtt = new LatencyHistogram(), pacingDelay = new LatencyHistogram();
+        Pacer pacer = rateController == null ? null : new Pacer(rateController, pacingDelay);
+
+        MerkleHasher[] sent = null, received = null;
+        if (digest && source.getChunkSize() > 0 && restored.isEmpty()) {
+            sent = new MerkleHasher[channelCount];
+            received = new MerkleHasher[channelCount];
+            for (int i = 0; i < channelCount; ++i) {
+                sent[i] = new MerkleHasher(stripes[i].getStart(), stripes[i].length());
+                received[i] = new MerkleHasher(stripes[i].getStart(), stripes[i].length());
+            }
+        }
+
+        long start = System.nanoTime();
+        TransferMetrics metrics = new LiveTransferMetrics(stats, channels, pool, pacer, rtt, pacingDelay, start);
+        metricsReporter.register(metrics);
+        try {
+            for (int i = 0; i < channelCount; ++i) {
+                channels[i] = new UdpChannel(i, stripes[i], address, stats, pool, batchSize);
+                channels[i].enableReorderWindow(reorderThreshold, reorderTimeoutMillis);
+                if (pacer != null)
+                    channels[i].enablePacing(pacer);
+                if (lossFilter != null)
+                    channels[i].enableLossFilter(lossFilter);
+                if (sent != null)
+                    channels[i].enableDigest(sent[i], received[i]);
+                if (checkpoint != null)
+                    channels[i].enableCheckpoint(checkpoint, restored);
+                if (parityBlockSize > 0)
+                    channels[i].enableParity(parityBlockSize, source.getChunkSize());
+            }
+            if (compression && source.getChunkSize() > 0) {
+                compressor = new ChunkCompressor(source, stripes, restored, sent, stats, compressionThreads,
+                        UdpChannel.recordsPerDatagram(source.getChunkSize(), parityBlockSize, batchSize));
+                for (UdpChannel channel : channels)
+                    channel.enableCompression(compressor, source.getChunkSize());
+            }
+            if (reliable) {
+                control = new ControlChannel(address);
+                for (UdpChannel channel : channels)
+                    channel.enableRetransmission(control, nackIntervalMillis);
+                receiverControl = new ReceiverControl(channels, control);
+                receiverControlThread = new Thread(receiverControl, "rapidtransfer-receiver-control");
+                receiverControlThread.start();
+                started.add(receiverControlThread);
+            }
+            receivers = backend.startReceivers(channels, sink, pool);
+            started.addAll(Arrays.asList(receivers));
+            if (checkpoint != null) {
+                checkpointWriter = new CheckpointWriter(checkpoint, sink, checkpointIntervalMillis);
+                checkpointThread = new Thread(checkpointWriter, "rapidtransfer-checkpoint");
+                checkpointThread.start();
+                started.add(checkpointThread);
+            }
+            if (adaptive) {
+                adaptiveSender = new AdaptiveSender(channels, source, pool, stats, backend,
+                        Math.min(initialChannels, channelCount), adaptIntervalMillis, workStealing);
+                senders = new Thread[]{new Thread(adaptiveSender, "rapidtransfer-channel-scaler")};
+                senders[0].start();
+            } else {
+                senders = backend.startSenders(channels, source, pool, workStealing);
+            }
+            started.addAll(Arrays.asList(senders));
+            if (reliable) {
+                controlBuffer = pool.acquire();
+                senderControl = new SenderControl(channels, control, source, stats, controlBuffer,
+                        nackIntervalMillis, stallTimeoutMillis, reliable && pacing ? rateController : null, rtt);
+                senderControlThread = new Thread(senderControl, "rapidtransfer-sender-control");
+                senderControlThread.start();
+                started.add(senderControlThread);
+            }
+
+            for (Thread sender : senders)
+                sender.join();
+            if (senderControlThread != null)
+                senderControlThread.join();
+            long deadline = System.currentTimeMillis() + drainTimeoutMillis;
+            for (Thread receiver : receivers)
+                receiver.join(Math.max(1, deadline - System.currentTimeMillis()));
+            finished = true;
+        } finally {
+            if (checkpointWriter != null)
+                checkpointWriter.stop();
+            if (compressor != null)
+                compressor.close();
+            try {
+                closeAll(channels);
+            } finally {
+                if (control != null)
+                    control.close();
+                metricsReporter.unregister(metrics);
+                try {
+                    // a failed transfer interrupts whatever it started, so nothing outlives it holding the pool
+                    joinAll(started, !finished);
+                    for (UdpChannel channel : channels) {
+                        if (channel != null)
+                            channel.release();
+                    }
+                    if (controlBuffer != null)
+                        pool.release(controlBuffer);
+                } finally {
+                    if (checkpoint != null)
+                        saveLastCheckpoint(checkpoint, sink, finished);
+                }
+            }
+        }
+        long end = System.nanoTime();
+
+        for (UdpChannel channel : channels)
+            channel.rethrowFailure();
+        if (senderControl != null)
+            senderControl.rethrowFailure();
+        if (receiverControl != null)
+            receiverControl.rethrowFailure();
+        if (checkpointWriter != null)
+            checkpointWriter.rethrowFailure();
+        return new TransferResult(packets, channelCount, end - start, stats,
+                rateController == null ? 0 : rateController.getRate(),
+                rateController == null ? 0 : rateController.getSmoothedRttNanos(),
+                checksums(sent, stripes, source.getChunkSize()), checksums(received, stripes, source.getChunkSize()),
+                restored.cardinality(), rtt, pacingDelay,
+                adaptiveSender == null ? channelCount : adaptiveSender.getPeakChannels());
+    }
+
+    /**
+     * One checksum per stripe, positioned at the stripe's first byte.
+     */
+    private static Checksum[] checksums(MerkleHasher[] hashers, SequenceRange[] stripes, int chunkSize) {
+        if (hashers == null)
+            return null;
+        Checksum[] checksums = new Checksum[hashers.length];
+        for (int i = 0; i < hashers.length; ++i)
+            checksums[i] = new Checksum(hashers[i].getRoot(), stripes[i].getStart() * chunkSize);
+        return checksums;
+    }
+
+    private void checkChunkSize(int chunkSize) {
+        if (chunkSize < FileChunkSource.MIN_CHUNK_SIZE || chunkSize > FileChunkSource.JUMBO_CHUNK_SIZE)
+            throw new IllegalArgumentException("chunkSize must be between " + FileChunkSource.MIN_CHUNK_SIZE +
+                    " and " + FileChunkSource.JUMBO_CHUNK_SIZE + ", was " + chunkSize);
+        if (fecBlockSize > 0)
+            checkFecChunkSize(chunkSize);
+    }
+
+    private static void checkFecChunkSize(int chunkSize) {
+        if (chunkSize > MAX_FEC_CHUNK_SIZE)
+            throw new IllegalArgumentException("chunkSize must be at most " + MAX_FEC_CHUNK_SIZE +
+                    " with forward error correction on, was " + chunkSize);
+    }
+
+    /**
+     * Saves {@code checkpoint} once more after the receivers stop. A transfer
+     * that already failed keeps its own exception; the checkpoint then holds
+     * what the last periodic save wrote.
+     */
+    private static void saveLastCheckpoint(ReceiveCheckpoint checkpoint, ChunkSink sink, boolean finished)
+            throws IOException {
+        try {
+            checkpoint.save(sink);
+        } catch (IOException e) {
+            if (finished)
+                throw e;
+        }
+    }
+
+    private static void joinAll(List<Thread> threads, boolean interrupt) throws InterruptedException {
+        if (interrupt) {
+            for (Thread thread : threads)
+                thread.interrupt();
+        }
+        for (Thread thread : threads)
+            thread.join();
+    }
+
+    private static void closeAll(UdpChannel[] channels) throws IOException {
+        IOException failure = null;
+        for (UdpChannel channel : channels) {
+            if (channel == null)
+                continue;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                if (failure == null)
+                    failure = e;
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+}
@@ -0,0 +1,242 @@
+package com.czifrotech.rapidtransfer.net;
+
+import com.czifrotech.rapidtransfer.collections.SequenceSet;
+import com.czifrotech.rapidtransfer.cryptography.Checksum;
+import com.czifrotech.rapidtransfer.diagnostics.LatencyHistogram;
+import com.czifrotech.rapidtransfer.diagnostics.TransferStats;
+
+/**
+ * Outcome of a single {@link TransferEngine#transfer(long)} run.
+ *
+ * @author Will Czifro
+ */
+public class TransferResult {
+
+    private final long packets;
+    private final int channels;
+    private final long elapsedNanos;
+    private final TransferStats stats;
+    private final double sendRate;
+    private final long smoothedRttNanos;
+    private final Checksum[] sourceDigest, receivedDigest;
+    private final long resumed;
+    private final LatencyHistogram rtt, pacingDelay;
+    private final int peakChannels;
+
+    TransferResult(long packets, int channels, long elapsedNanos, TransferStats stats, double sendRate,
+                   long smoothedRttNanos, Checksum[] sourceDigest, Checksum[] receivedDigest, long resumed,
+                   LatencyHistogram rtt, LatencyHistogram pacingDelay, int peakChannels) {
+        this.packets = packets;
+        this.channels = channels;
+        this.elapsedNanos = elapsedNanos;
+        this.stats = stats;
+        this.sendRate = sendRate;
+        this.smoothedRttNanos = smoothedRttNanos;
+        this.sourceDigest = sourceDigest;
+        this.receivedDigest = receivedDigest;
+        this.resumed = resumed;
+        this.rtt = rtt;
+        this.pacingDelay = pacingDelay;
+        this.peakChannels = peakChannels;
+    }
+
+    public long getPackets() {
+        return packets;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * The most channels that were sending at once; below {@link #getChannels()}
+     * only when an adaptive transfer found more did not pay off.
+     */
+    public int getPeakChannels() {
+        return peakChannels;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public long getSenderCounter() {
+        return stats.getSenderCounter();
+    }
+
+    public long getReceiverCounter() {
+        return stats.getReceiverCounter();
+    }
+
+    public long getBytesSent() {
+        return stats.getBytesSent();
+    }
+
+    public long getBytesReceived() {
+        return stats.getBytesReceived();
+    }
+
+    /**
+     * Payload goodput in MB/s over the whole run.
+     */
+    public double getThroughput() {
+        if (elapsedNanos == 0)
+            return 0;
+        return (getBytesReceived() / (1024.0 * 1024.0)) / (elapsedNanos / 1e9);
+    }
+
+    /**
+     * Packets sent again after a receiver NACKed them.
+     */
+    public long getRetransmitted() {
+        return stats.getRetransmittedCounter();
+    }
+
+    /**
+     * Packets the receivers declared lost and NACKed, each counted once however often it was NACKed.
+     */
+    public long getDeclaredLost() {
+        return stats.getDeclaredLostCounter();
+    }
+
+    /**
+     * Packets per second the sender was paced at when the transfer ended, 0 if it was not paced.
+     */
+    public double getSendRate() {
+        return sendRate;
+    }
+
+    /**
+     * Smoothed round trip time of the control channel, 0 if it was never measured.
+     */
+    public long getSmoothedRttNanos() {
+        return smoothedRttNanos;
+    }
+
+    /**
+     * Every round trip the control channel measured; empty for an unreliable transfer.
+     */
+    public LatencyHistogram getRttHistogram() {
+        return rtt;
+    }
+
+    /**
+     * How long each datagram waited for its pacing slot; empty for an unpaced transfer.
+     */
+    public LatencyHistogram getPacingDelayHistogram() {
+        return pacingDelay;
+    }
+
+    /**
+     * Chunks a checkpoint showed an earlier run had delivered, which this run skipped.
+     */
+    public long getResumed() {
+        return resumed;
+    }
+
+    /**
+     * Records dropped on arrival because their CRC did not match.
+     */
+    public long getCorrupted() {
+        return stats.getCorruptedCounter();
+    }
+
+    /**
+     * Packets that arrived after a later one but before their gap was declared lost.
+     */
+    public long getReordered() {
+        return stats.getReorderedCounter();
+    }
+
+    /**
+     * First pass packets a sender sent for another channel's stripe once its own was done.
+     */
+    public long getStolen() {
+        return stats.getStolenCounter();
+    }
+
+    /**
+     * Parity records sent for forward error correction, 0 if it was off.
+     */
+    public long getParitySent() {
+        return stats.getParityCounter();
+    }
+
+    /**
+     * Parity records sent per first pass packet.
+     */
+    public double getFecOverhead() {
+        long sent = getSenderCounter();
+        return sent == 0 ? 0 : (double) getParitySent() / sent;
+    }
+
+    /**
+     * Packets the receivers rebuilt from parity, without a retransmission.
+     */
+    public long getRecovered() {
+        return stats.getRecoveredCounter();
+    }
+
+    /**
+     * First pass chunks that went on the wire compressed.
+     */
+    public long getCompressed() {
+        return stats.getCompressedCounter();
+    }
+
+    /**
+     * Payload bytes compression kept off the wire.
+     */
+    public long getBytesSaved() {
+        return stats.getBytesSaved();
+    }
+
+    /**
+     * The Merkle root of every stripe as it was sent, null if digests were off.
+     */
+    public Checksum[] getSourceDigest() {
+        return sourceDigest == null ? null : sourceDigest.clone();
+    }
+
+    /**
+     * The Merkle root of every stripe as it was received, null if digests
+     * were off. A stripe that never arrived in full has an empty checksum.
+     */
+    public Checksum[] getReceivedDigest() {
+        return receivedDigest == null ? null : receivedDigest.clone();
+    }
+
+    /**
+     * @return the source checksums of the stripes that did not arrive intact,
+     * empty if digests were off
+     */
+    public Checksum[] getMismatchedStripes() {
+        if (sourceDigest == null)
+            return new Checksum[0];
+        return Checksum.compare(sourceDigest, receivedDigest);
+    }
+
+    /**
+     * True if digests were on and every stripe arrived matching its source.
+     */
+    public boolean isVerified() {
+        return sourceDigest != null && getMismatchedStripes().length == 0;
+    }
+
+    public long getLost() {
+        return getSenderCounter() - getReceiverCounter();
+    }
+
+    public SequenceSet getMissingPackets() {
+        return stats.getMissingPackets();
+    }
+
+    @Override
+    public String toString() {
+        return "TransferResult{packets=" + packets + ", channels=" + channels +
+                ", sent=" + getSenderCounter() + ", received=" + getReceiverCounter() +
+                ", retransmitted=" + getRetransmitted() +
+                ", declaredLost=" + getDeclaredLost() + ", corrupted=" + getCorrupted() +
+                ", elapsedMs=" + elapsedNanos / 1000000.0 + "}";
+    }
+}
@@ -0,0 +1,852 @@
+package com.czifrotech.rapidtransfer.net;
+
+import com.czifrotech.rapidtransfer.collections.SequenceSet;
+import com.czifrotech.rapidtransfer.cryptography.MerkleHasher;
+import com.czifrotech.rapidtransfer.diagnostics.TransferStats;
+import com.czifrotech.rapidtransfer.io.BufferPool;
+import com.czifrotech.rapidtransfer.io.ChunkSink;
+import com.czifrotech.rapidtransfer.io.ChunkSource;
+import com.czifrotech.rapidtransfer.io.ReceiveCheckpoint;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongPredicate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * One sender/receiver channel pair of a {@link TransferEngine}. The receiving
+ * channel is bound to an ephemeral port so any number of channels can coexist.
+ * <p>
+ * Both ends are connected to each other, so the loops use read/write instead of
+ * receive/send and never allocate a socket address. Each loop borrows a single
+ * direct buffer from the engine's {@link BufferPool} and reuses it for every
+ * datagram, which keeps the steady state free of allocations. The sender fills
+ * the buffer with up to {@code batchSize} records before each write, so one
+ * system call carries a whole batch. The first pass is claimed a datagram at
+ * a time from a shared cursor, so other senders can help a channel that falls
+ * behind.
+ * <p>
+ * When a {@link ControlChannel} is given, the receiver periodically NACKs the
+ * gaps of its stripe and reports completion, and the sending side retransmits
+ * the NACKed ranges through {@link #retransmit}. A gap is not NACKed again
+ * until the time a repair has been taking to arrive has passed, kept in a
+ * {@link NackHoldback}. With a {@link Pacer} every
+ * datagram waits for its slot, so the channels share one send rate.
+ * <p>
+ * Gaps in the arriving sequence are held in a {@link ReorderWindow} and only
+ * recorded as missing, to be NACKed, once they are overdue, so packets that
+ * merely arrive out of order are not retransmitted or counted as lost.
+ * <p>
+ * Every record is sealed with a CRC32C and a record that fails it on arrival
+ * is dropped, to be NACKed like a lost one. With digests enabled, each side
+ * also feeds its stripe's chunks to a {@link MerkleHasher}: the sender on the
+ * first pass, the receiver as each new chunk is written.
+ * <p>
+ * With forward error correction, the sender follows every block of first
+ * pass datagrams with a parity datagram, see {@link ParityBlock}, and the
+ * receiver rebuilds a datagram lost from a block as soon as the rest of it
+ * and the parity are in, without waiting a round trip for the NACK.
+ * <p>
+ * With a {@link ChunkCompressor}, first pass chunks are taken from its
+ * workers already compressed, and the receiver inflates each compressed
+ * record on its own before it goes on like any other.
+ * <p>
+ * A channel resuming from a {@link ReceiveCheckpoint} never sends the chunks
+ * an earlier run delivered and never counts them as missing; every chunk it
+ * does write is marked in the checkpoint.
+ *
+ * @author Will Czifro
+ */
+class UdpChannel implements Closeable {
+
+    // how long an idle receiver sleeps before it re-checks its state
+    private static final long POLL_MILLIS = 5;
+
+    // a single NACK round never floods the control channel with more than this
+    private static final int MAX_NACK_DATAGRAMS = 4;
+
+    // NACK rounds are remembered this many hold times, to tell gaps NACKed again from gaps NACKed once
+    private static final int NACK_ROUNDS_KEPT = 4;
+
+    // a gap NACKed again doubles the hold until a repair is timed, at most this many times
+    private static final int MAX_NACK_BACKOFF = 3;
+
+    // parity blocks a receiver keeps open at once, a block the size of a datagram each
+    private static final int MAX_OPEN_BLOCKS = 16;
+
+    // the window receive rates are measured over
+    static final long RATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final int id;
+    private final SequenceRange range;
+    private final TransferStats stats;
+    private final BufferPool pool;
+    private final int batchSize;
+    private final DatagramChannel server, client;
+
+    private Pacer pacer;
+    private LongPredicate lossFilter;
+    private ControlChannel control;
+    private ByteBuffer controlBuffer;
+    private long nackIntervalNanos;
+    private MerkleHasher sentDigest, receivedDigest;
+    private ReceiveCheckpoint checkpoint;
+
+    // without a window every gap is lost as soon as it opens
+    private ReorderWindow window = new ReorderWindow(1, 0);
+
+    // chunks an earlier run delivered, read only once the threads start
+    private SequenceSet restored = new SequenceSet();
+
+    // forward error correction, off while parityBlockSize is 0
+    private int parityBlockSize, parityChunkSize, parityPerDatagram;
+    private final Map<Long, ParityBlock> encoding = new ConcurrentHashMap<>();
+
+    // receiver side, oldest block first, along with the buffer rebuilt chunks are written to
+    private final Map<Long, ParityBlock> decoding = new LinkedHashMap<>();
+    private ByteBuffer rebuilt;
+
+    // compression, the sender's stage and the receiver's inflater with its buffers
+    private ChunkCompressor compressor;
+    private Inflater inflater;
+    private byte[] deflated;
+    private ByteBuffer inflated;
+
+    // the first chunk of the first pass no sender has claimed yet
+    private final AtomicLong cursor;
+
+    // first pass datagrams claimed and not yet written
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // receiver state, only touched by the receiving thread
+    private long expected, received, lastNack;
+    private boolean tailMarked;
+
+    // counters at the start of the current rate window, and the rates of the last whole window
+    private long rateSampledAt, packetsAtSample, bytesAtSample;
+    private volatile double packetRate, byteRate;
+
+    // recent NACK rounds, and the smoothed time from a NACK to its repair
+    private final NackHoldback nacked = new NackHoldback();
+    private long repairNanos;
+    private int nackBackoff;
+
+    private volatile boolean firstPassDone, senderFinished, complete;
+    private volatile IOException failure;
+
+    UdpChannel(int id, SequenceRange range, InetAddress address, TransferStats stats, BufferPool pool,
+               int batchSize) throws IOException {
+        this.id = id;
+        this.range = range;
+        this.stats = stats;
+        this.pool = pool;
+        this.batchSize = batchSize;
+        this.expected = range.getStart();
+        this.cursor = new AtomicLong(range.getStart());
+        this.server = DatagramChannel.open();
+        DatagramChannel client = null;
+        try {
+            server.bind(new InetSocketAddress(address, 0));
+            client = DatagramChannel.open();
+            client.bind(new InetSocketAddress(address, 0));
+            client.connect(server.getLocalAddress());
+            server.connect(client.getLocalAddress());
+        } catch (IOException e) {
+            server.close();
+            if (client != null)
+                client.close();
+            throw e;
+        }
+        this.client = client;
+    }
+
+    /**
+     * Turns on NACK based recovery for this channel.
+     */
+    void enableRetransmission(ControlChannel control, long nackIntervalMillis) {
+        this.control = control;
+        this.controlBuffer = ByteBuffer.allocateDirect(PacketCodec.MAX_DATAGRAM_SIZE);
+        this.nackIntervalNanos = TimeUnit.MILLISECONDS.toNanos(nackIntervalMillis);
+    }
+
+    /**
+     * Makes every datagram, first pass or retransmission, wait for its slot on {@code pacer}.
+     */
+    void enablePacing(Pacer pacer) {
+        this.pacer = pacer;
+    }
+
+    /**
+     * Counts every first pass datagram whose first sequence {@code lost} accepts as sent, but never writes it.
+     */
+    void enableLossFilter(LongPredicate lost) {
+        this.lossFilter = lost;
+    }
+
+    /**
+     * Waits until a gap is {@code threshold} sequences behind the newest
+     * arrival, or {@code timeoutMillis} old, before recording it as missing.
+     */
+    void enableReorderWindow(long threshold, long timeoutMillis) {
+        this.window = new ReorderWindow(threshold, TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+    }
+
+    /**
+     * Hashes the stripe on both ends, into {@code sent} as it is first sent
+     * and into {@code received} as it arrives.
+     */
+    void enableDigest(MerkleHasher sent, MerkleHasher received) {
+        this.sentDigest = sent;
+        this.receivedDigest = received;
+    }
+
+    /**
+     * Skips the chunks of the stripe in {@code restored} and marks every
+     * chunk written from now on in {@code checkpoint}.
+     */
+    void enableCheckpoint(ReceiveCheckpoint checkpoint, SequenceSet restored) {
+        this.checkpoint = checkpoint;
+        this.restored = restored;
+        this.received = restored.count(range.getStart(), range.getEnd());
+    }
+
+    /**
+     * Follows every {@code blockSize} first pass datagrams with a parity
+     * datagram, and rebuilds a datagram lost from a block out of the rest. Datagrams
+     * carry a few records less, so a parity datagram fits the same buffer.
+     */
+    void enableParity(int blockSize, int chunkSize) {
+        this.parityBlockSize = blockSize;
+        this.parityChunkSize = chunkSize;
+        this.parityPerDatagram = recordsPerDatagram(chunkSize, blockSize, batchSize);
+        this.rebuilt = ByteBuffer.allocateDirect(chunkSize);
+    }
+
+    /**
+     * Sends first pass chunks as {@code compressor} hands them out and inflates compressed chunks on arrival.
+     */
+    void enableCompression(ChunkCompressor compressor, int chunkSize) {
+        this.compressor = compressor;
+        this.inflater = new Inflater(true);
+        this.deflated = new byte[chunkSize];
+        this.inflated = ByteBuffer.allocate(chunkSize);
+    }
+
+    /**
+     * How many records go into a datagram, with room left for parity if {@code blockSize} is not 0.
+     */
+    static int recordsPerDatagram(int chunkSize, int blockSize, int batchSize) {
+        return PacketCodec.recordsPerDatagram(blockSize == 0 ? chunkSize : chunkSize + ParityBlock.LENGTH_SIZE,
+                batchSize);
+    }
+
+    int getId() {
+        return id;
+    }
+
+    SequenceRange getRange() {
+        return range;
+    }
+
+    int getPort() throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    boolean isFirstPassDone() {
+        return firstPassDone;
+    }
+
+    boolean isComplete() {
+        return complete;
+    }
+
+    boolean hasFailed() {
+        return failure != null;
+    }
+
+    void markSenderFinished() {
+        senderFinished = true;
+    }
+
+    /**
+     * Sends this channel's first pass, then, if {@code peers} is not null,
+     * helps whichever of them has the most of its first pass left until none has any.
+     */
+    void send(ChunkSource source, UdpChannel[] peers) {
+        ByteBuffer buffer;
+        try {
+            buffer = pool.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            try {
+                while (sendNext(buffer, source) > 0) {
+                    // one datagram at a time until the first pass is done
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+            UdpChannel peer;
+            while (peers != null && (peer = furthestBehind(peers)) != null)
+                peer.help(buffer, source, id);
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * Sends datagrams of this channel's first pass on behalf of channel {@code helper} until all are claimed.
+     */
+    void help(ByteBuffer buffer, ChunkSource source, int helper) {
+        try {
+            long sent;
+            while ((sent = sendNext(buffer, source)) > 0)
+                stats.addStolenValue(helper, sent);
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * @return the channel with the most of its first pass unclaimed, null if every first pass is claimed
+     */
+    static UdpChannel furthestBehind(UdpChannel[] channels) {
+        UdpChannel furthest = null;
+        long most = 0;
+        for (UdpChannel channel : channels) {
+            long left = channel.range.getEnd() - channel.cursor.get();
+            if (left > most && !channel.hasFailed()) {
+                furthest = channel;
+                most = left;
+            }
+        }
+        return furthest;
+    }
+
+    /**
+     * Claims the next datagram of the first pass, skipping whatever an
+     * earlier run delivered, and sends it. Any number of threads may send
+     * the same first pass; it is done once every claimed datagram is written.
+     *
+     * @return the number of packets sent, 0 once every datagram is claimed
+     */
+    long sendNext(ByteBuffer buffer, ChunkSource source) throws IOException {
+        long end = range.getEnd();
+        int perDatagram = recordsPerDatagram(source.getChunkSize(), parityBlockSize, batchSize);
+        inFlight.incrementAndGet();
+        boolean written = false;
+        try {
+            long sent = 0;
+            while (true) {
+                long from = cursor.get(), seq = restored.nextClear(from);
+                if (seq >= end) {
+                    // whatever is left was delivered by an earlier run, nothing for helpers to find
+                    cursor.compareAndSet(from, end);
+                    break;
+                }
+                long next = restored.nextSet(seq), to = next < 0 ? end : Math.min(next, end);
+                long batchEnd = Math.min(to, seq + perDatagram);
+                if (!cursor.compareAndSet(from, batchEnd))
+                    continue; // another sender claimed it first
+                sendDatagram(buffer, source, seq, batchEnd, true);
+                sent = batchEnd - seq;
+                break;
+            }
+            written = true;
+            return sent;
+        } finally {
+            // checked before letting go, so no claim can slip in between
+            boolean claimedAll = restored.nextClear(cursor.get()) >= end;
+            if (inFlight.decrementAndGet() == 0 && claimedAll && written)
+                firstPassDone = true;
+        }
+    }
+
+    /**
+     * Records a failure of this channel's sending side.
+     */
+    void failSend(IOException e) {
+        failure = e;
+    }
+
+    /**
+     * Sends [start, end) again, clipped to this channel's stripe.
+     */
+    void retransmit(long start, long end, ChunkSource source, ByteBuffer buffer) throws IOException {
+        start = Math.max(start, range.getStart());
+        end = Math.min(end, range.getEnd());
+        if (start < end)
+            stats.addRetransmittedValue(id, sendRange(buffer, source, start, end));
+    }
+
+    private long sendRange(ByteBuffer buffer, ChunkSource source, long start, long end) throws IOException {
+        int perDatagram = recordsPerDatagram(source.getChunkSize(), parityBlockSize, batchSize);
+        for (long seq = start; seq < end; seq += perDatagram)
+            sendDatagram(buffer, source, seq, Math.min(end, seq + perDatagram), false);
+        return end - start;
+    }
+
+    /**
+     * Packs [start, end) into one datagram and writes it once the pacer allows.
+     */
+    private void sendDatagram(ByteBuffer buffer, ChunkSource source, long start, long end, boolean firstPass)
+            throws IOException {
+        long bytes = 0;
+        boolean compress = firstPass && compressor != null;
+        buffer.clear();
+        for (long s = start; s < end; ++s) {
+            int record = buffer.position(), payload = record + PacketCodec.HEADER_SIZE;
+            PacketCodec.encodeHeader(buffer, s, 0);
+            // the compressor's workers hash what they read, only raw reads are hashed here
+            int length = compress ? compressor.take(id, s, buffer) : source.read(s, buffer);
+            if (buffer.position() - payload < length)
+                buffer.putLong(record, s | PacketCodec.COMPRESSED_FLAG);
+            PacketCodec.encodeLength(buffer, record, buffer.position() - payload);
+            PacketCodec.seal(buffer, record);
+            if (firstPass && !compress && sentDigest != null)
+                addChunk(sentDigest, s, buffer, payload);
+            bytes += length;
+        }
+        buffer.flip();
+        if (pacer != null)
+            pacer.acquire((int) (end - start));
+        if (!firstPass || lossFilter == null || !lossFilter.test(start))
+            client.write(buffer);
+        if (firstPass) {
+            stats.addSenderValue(id, end - start);
+            stats.addBytesSent(id, bytes);
+            if (parityBlockSize > 0)
+                addParity(buffer, start, end);
+        }
+    }
+
+    /**
+     * Folds the datagram just written into its block, and sends the block's
+     * parity once the last of its datagrams is in. First pass datagrams are
+     * claimed on datagram boundaries, so every one lies within a single block.
+     */
+    private void addParity(ByteBuffer buffer, long start, long end) throws IOException {
+        long first = ParityBlock.firstOf(range, start, parityBlockSize, parityPerDatagram);
+        ParityBlock block = encoding.computeIfAbsent(first,
+                f -> new ParityBlock(range, f, parityBlockSize, parityPerDatagram, parityChunkSize));
+        boolean full;
+        synchronized (block) {
+            int offset = 0;
+            for (long s = start; s < end; ++s) {
+                int payload = offset + PacketCodec.HEADER_SIZE, length = PacketCodec.decodeLength(buffer, offset);
+                boolean compressed = (PacketCodec.decodeSeq(buffer, offset) & PacketCodec.COMPRESSED_FLAG) != 0;
+                block.xor(block.positionOf(s), buffer, payload, length, compressed);
+                offset = payload + length;
+            }
+            full = block.addDatagram();
+        }
+        if (!full)
+            return;
+        encoding.remove(first);
+        buffer.clear();
+        for (int position = 0; position < block.getPositions(); ++position) {
+            int record = buffer.position();
+            PacketCodec.encodeHeader(buffer, PacketCodec.PARITY_FLAG | (first + position), 0);
+            PacketCodec.encodeLength(buffer, record, block.write(position, buffer, true));
+            PacketCodec.seal(buffer, record);
+        }
+        buffer.flip();
+        if (pacer != null)
+            pacer.acquire(block.getPositions());
+        client.write(buffer);
+        stats.addParityValue(id, block.getPositions());
+    }
+
+    void receive(ChunkSink sink) {
+        ByteBuffer buffer;
+        try {
+            buffer = pool.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        // non-blocking with a selector so an idle receiver still wakes up to NACK and to notice a close
+        try (Selector selector = Selector.open()) {
+            register(selector);
+            while (isReceiving()) {
+                if (!receiveNext(buffer, sink)) {
+                    onIdle();
+                    if (selector.select(POLL_MILLIS) > 0)
+                        selector.selectedKeys().clear();
+                }
+                onTick(System.nanoTime());
+            }
+        } catch (IOException e) {
+            failReceive(e);
+        } finally {
+            pool.release(buffer);
+        }
+        finishReceive();
+    }
+
+    /**
+     * Switches the receiving end to non-blocking and registers it for reads, with this channel attached.
+     */
+    SelectionKey register(Selector selector) throws IOException {
+        server.configureBlocking(false);
+        lastNack = rateSampledAt = System.nanoTime();
+        packetsAtSample = stats.getReceiverCounter(id);
+        bytesAtSample = stats.getBytesReceived(id);
+        return server.register(selector, SelectionKey.OP_READ, this);
+    }
+
+    /**
+     * True until every chunk of the stripe has arrived or the channel is closed.
+     */
+    boolean isReceiving() {
+        return received < range.length() && server.isOpen();
+    }
+
+    /**
+     * Reads and processes one datagram if one is waiting.
+     *
+     * @return false if there was nothing to read
+     */
+    boolean receiveNext(ByteBuffer buffer, ChunkSink sink) throws IOException {
+        buffer.clear();
+        int length = server.read(buffer);
+        if (length <= 0)
+            return false;
+        process(buffer, length, sink);
+        window.expire(expected - 1, System.nanoTime(), this::markMissing);
+        return true;
+    }
+
+    /**
+     * Called whenever nothing is waiting to be read.
+     */
+    void onIdle() {
+        window.expire(expected - 1, System.nanoTime(), this::markMissing);
+        if (control != null && senderFinished && !tailMarked) {
+            // the sender is done, whatever never showed up at the end of the stripe is lost
+            window.flush(this::markMissing);
+            markMissing(expected, range.getEnd());
+            expected = range.getEnd();
+            tailMarked = true;
+            lastNack = System.nanoTime() - nackIntervalNanos;
+        }
+    }
+
+    /**
+     * NACKs the stripe's gaps whenever the NACK interval has passed, and
+     * measures the receive rates whenever a rate window has.
+     */
+    void onTick(long now) throws IOException {
+        if (now - rateSampledAt >= RATE_INTERVAL_NANOS)
+            sampleRates(now);
+        if (control != null && now - lastNack >= nackIntervalNanos) {
+            sendNack(now);
+            lastNack = now;
+        }
+    }
+
+    private void sampleRates(long now) {
+        long packets = stats.getReceiverCounter(id), bytes = stats.getBytesReceived(id);
+        double seconds = (now - rateSampledAt) / 1e9;
+        packetRate = (packets - packetsAtSample) / seconds;
+        byteRate = (bytes - bytesAtSample) / seconds;
+        rateSampledAt = now;
+        packetsAtSample = packets;
+        bytesAtSample = bytes;
+    }
+
+    /**
+     * Packets per second received over the last whole rate window, 0 before the first and once receiving ended.
+     */
+    double getPacketRate() {
+        return packetRate;
+    }
+
+    /**
+     * Payload bytes per second received over the last whole rate window, 0 before the first and once receiving ended.
+     */
+    double getByteRate() {
+        return byteRate;
+    }
+
+    /**
+     * Records a failure of the receiving side, unless it is the engine closing the channel.
+     */
+    void failReceive(IOException e) {
+        // closing the channel is how the engine stops a receiver that is still waiting
+        if (server.isOpen())
+            failure = e;
+    }
+
+    /**
+     * Reports the stripe complete if it is, and whatever never arrived as missing.
+     */
+    void finishReceive() {
+        packetRate = byteRate = 0;
+        if (received == range.length()) {
+            complete = true;
+            if (control != null) {
+                try {
+                    sendComplete();
+                } catch (IOException e) {
+                    failReceive(e);
+                }
+            }
+        }
+        window.flush(this::markMissing);
+        markMissing(expected, range.getEnd());
+    }
+
+    private void process(ByteBuffer buffer, int length, ChunkSink sink) throws IOException {
+        long now = System.nanoTime();
+        int offset = 0;
+        while (offset + PacketCodec.HEADER_SIZE <= length) {
+            long seq = PacketCodec.decodeSeq(buffer, offset);
+            boolean parity = (seq & PacketCodec.PARITY_FLAG) != 0;
+            boolean compressed = (seq & PacketCodec.COMPRESSED_FLAG) != 0;
+            seq &= ~(PacketCodec.PARITY_FLAG | PacketCodec.COMPRESSED_FLAG);
+            int payload = offset + PacketCodec.HEADER_SIZE;
+            int next = payload + PacketCodec.decodeLength(buffer, offset);
+            if (next < payload || next > length || !range.contains(seq))
+                break; // malformed record, drop the rest of the datagram
+            int record = offset;
+            offset = next;
+            if (!PacketCodec.verify(buffer, record)) {
+                stats.addCorruptedValue(id, 1);
+                continue; // the gap it leaves is NACKed like any other
+            }
+
+            if (parity) {
+                if (parityBlockSize > 0 && next - payload == parityChunkSize + ParityBlock.LENGTH_SIZE) {
+                    ParityBlock block = openBlock(seq);
+                    int position = block.positionOf(seq);
+                    block.xorParity(position, buffer, payload);
+                    rebuild(block, position, block.arrive(position, ParityBlock.PARITY_BIT), sink, now);
+                }
+                continue;
+            }
+            // retransmissions only fill gaps already declared lost, and go out
+            // uncompressed, so only first pass records are folded into parity
+            boolean fresh = seq >= expected, firstPass = fresh || window.isPending(seq);
+            boolean accepted = accept(seq, compressed, buffer, payload, next, sink, now);
+            buffer.limit(length);
+            if (!accepted || !firstPass)
+                continue;
+            ParityBlock block = parityBlockSize == 0 ? null : fresh ? openBlock(seq) :
+                    decoding.get(ParityBlock.firstOf(range, seq, parityBlockSize, parityPerDatagram));
+            if (block != null) {
+                int position = block.positionOf(seq);
+                block.xor(position, buffer, payload, next - payload, compressed);
+                rebuild(block, position, block.arrive(position, 1L << block.slotOf(seq)), sink, now);
+            }
+        }
+    }
+
+    /**
+     * Inflates the chunk between {@code payload} and {@code next} if it is
+     * compressed and takes it in; a chunk that does not inflate is dropped
+     * like a corrupted one. The buffer's limit is left at {@code next}.
+     *
+     * @return false if the chunk was dropped, a duplicate or delivered by an earlier run
+     */
+    private boolean accept(long seq, boolean compressed, ByteBuffer buffer, int payload, int next, ChunkSink sink,
+                           long now) throws IOException {
+        if (!compressed)
+            return accept(seq, buffer, payload, next, sink, now);
+        int length = -1;
+        if (inflater != null && next - payload <= deflated.length) {
+            buffer.limit(next).position(payload);
+            buffer.get(deflated, 0, next - payload);
+            inflater.reset();
+            inflater.setInput(deflated, 0, next - payload);
+            try {
+                length = inflater.inflate(inflated.array());
+                if (!inflater.finished())
+                    length = -1; // more than a chunk
+            } catch (DataFormatException e) {
+                length = -1;
+            }
+        }
+        if (length < 0) {
+            stats.addCorruptedValue(id, 1);
+            return false;
+        }
+        return accept(seq, inflated, 0, length, sink, now);
+    }
+
+    /**
+     * Takes in the chunk between {@code payload} and {@code next} unless it
+     * is a duplicate, leaving the buffer's limit at {@code next}.
+     *
+     * @return false if the chunk was a duplicate or delivered by an earlier run
+     */
+    private boolean accept(long seq, ByteBuffer buffer, int payload, int next, ChunkSink sink, long now)
+            throws IOException {
+        if (!restored.isEmpty() && restored.contains(seq))
+            return false; // delivered by an earlier run
+        if (seq >= expected) {
+            window.open(expected, seq, now);
+            expected = seq + 1;
+        } else if (window.fill(seq)) {
+            stats.addReorderedValue(id, 1);
+        } else if (stats.recoverMissingPacket(id, seq)) {
+            sampleRepair(seq, now);
+        } else {
+            return false; // duplicate
+        }
+        if (receivedDigest != null) {
+            buffer.limit(next).position(payload);
+            receivedDigest.addChunk(seq, buffer);
+        }
+        if (next > payload) {
+            buffer.limit(next).position(payload);
+            sink.write(seq, buffer);
+        }
+        if (checkpoint != null)
+            checkpoint.markReceived(id, seq);
+        stats.addReceiverValue(id, 1);
+        stats.addBytesReceived(id, next - payload);
+        ++received;
+        return true;
+    }
+
+    /**
+     * The receiver's block for {@code seq}, opened if need be; past
+     * {@link #MAX_OPEN_BLOCKS} the oldest is given up, its losses are left to NACKs.
+     */
+    private ParityBlock openBlock(long seq) {
+        long first = ParityBlock.firstOf(range, seq, parityBlockSize, parityPerDatagram);
+        ParityBlock block = decoding.get(first);
+        if (block == null) {
+            if (decoding.size() == MAX_OPEN_BLOCKS) {
+                Iterator<ParityBlock> oldest = decoding.values().iterator();
+                oldest.next();
+                oldest.remove();
+            }
+            block = new ParityBlock(range, first, parityBlockSize, parityPerDatagram, parityChunkSize);
+            decoding.put(first, block);
+        }
+        return block;
+    }
+
+    /**
+     * Takes in the chunk of {@code slot} at {@code position} from the block's
+     * parity if {@code slot} is not -1, and closes the block once it is whole.
+     */
+    private void rebuild(ParityBlock block, int position, int slot, ChunkSink sink, long now) throws IOException {
+        if (slot >= 0) {
+            rebuilt.clear();
+            block.write(position, rebuilt, false);
+            rebuilt.flip();
+            long seq = block.seqOf(slot, position);
+            if (accept(seq, block.isCompressed(position), rebuilt, 0, rebuilt.limit(), sink, now))
+                stats.addRecoveredValue(id, 1);
+        }
+        if (block.isWhole())
+            decoding.remove(block.getFirst());
+    }
+
+    /**
+     * Records whatever part of [start, end) no earlier run delivered as missing.
+     */
+    private void markMissing(long start, long end) {
+        while ((start = restored.nextClear(start)) < end) {
+            long next = restored.nextSet(start), to = next < 0 ? end : Math.min(next, end);
+            stats.addMissingPackets(id, start, to);
+            start = to;
+        }
+    }
+
+    /**
+     * Hashes the chunk from {@code payload} to the buffer's position, which is left where it was.
+     */
+    private static void addChunk(MerkleHasher digest, long seq, ByteBuffer buffer, int payload) {
+        int end = buffer.position(), limit = buffer.limit();
+        buffer.limit(end).position(payload);
+        digest.addChunk(seq, buffer);
+        buffer.limit(limit).position(end);
+    }
+
+    /**
+     * NACKs the gaps that were not NACKed within the last repair time, whose
+     * repair may still be queued at the sender or on its way. Like a
+     * retransmission timeout, the hold doubles whenever a gap has to be
+     * NACKed again, and only repairs of gaps NACKed once are timed.
+     */
+    private void sendNack(long now) throws IOException {
+        long hold = Math.max(nackIntervalNanos, repairNanos) << nackBackoff;
+        nacked.expire(now, NACK_ROUNDS_KEPT * hold);
+        SequenceSet due = stats.getMissingPackets(id);
+        if (due.isEmpty())
+            return;
+        nacked.removeFrom(due, now, hold);
+        if (!due.isEmpty() && nacked.isHeld(due.first()))
+            nackBackoff = Math.min(MAX_NACK_BACKOFF, nackBackoff + 1);
+        // with every gap held, an empty NACK still tells the sender the receiver is waiting
+        long from = 0;
+        for (int i = 0; i < MAX_NACK_DATAGRAMS && from >= 0; ++i) {
+            controlBuffer.clear();
+            long next = ControlCodec.encodeNack(controlBuffer, id, due, from);
+            controlBuffer.flip();
+            control.sendToSender(controlBuffer);
+            due.forEachRange(from, next < 0 ? Long.MAX_VALUE : next, (start, end) -> nacked.hold(start, end, now));
+            from = next;
+        }
+    }
+
+    /**
+     * Smooths the time from the NACK of {@code seq} to its arrival, as the RTT is smoothed.
+     */
+    private void sampleRepair(long seq, long now) {
+        long since = nacked.heldSince(seq);
+        if (since < 0)
+            return;
+        repairNanos = repairNanos == 0 ? now - since : (7 * repairNanos + now - since) / 8;
+        nackBackoff = 0;
+    }
+
+    void sendComplete() throws IOException {
+        ByteBuffer message = ByteBuffer.allocate(8);
+        ControlCodec.encodeComplete(message, id);
+        message.flip();
+        control.sendToSender(message);
+    }
+
+    void rethrowFailure() throws IOException {
+        if (failure != null)
+            throw new IOException("Channel " + id + " failed", failure);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            client.close();
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Frees the inflater, once the receiving side is done with it.
+     */
+    void release() {
+        if (inflater != null)
+            inflater.end();
+    }
+}
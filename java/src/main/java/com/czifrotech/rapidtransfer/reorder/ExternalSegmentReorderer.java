@@ -0,0 +1,260 @@
+package com.czifrotech.rapidtransfer.reorder;
+
+import com.czifrotech.rapidtransfer.io.FileChannels;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reorders segment files whose index does not fit in memory, using roughly
+ * {@code memoryLimit} bytes of direct memory whatever the file size.
+ * <p>
+ * The index is a file of big endian longs, entry {@code i} being the slot the
+ * segment currently at slot {@code i} belongs in. The file is cut into
+ * destination windows that each fit the memory limit. One sequential pass
+ * over the file and the index spills every segment, keyed by its
+ * destination, into the run of its window. A second pass loads one run at a
+ * time, drops each segment at its offset in the window and writes the window
+ * back with one sequential write. The file is rewritten in place, the runs
+ * need about as much free space as the file itself.
+ * <p>
+ * Before anything is written back each run is checked to hold exactly its
+ * window's destinations, by count, sum and sum of squares, so a bad index is
+ * rejected without holding a bit per segment.
+ *
+ * @author Will Czifro
+ */
+public class ExternalSegmentReorderer {
+
+    public static final long DEFAULT_MEMORY_LIMIT = 64L * 1024 * 1024;
+
+    public static final int INDEX_ENTRY_SIZE = 8;
+
+    // per-pass read buffer, the rest of the memory limit goes to the runs and the window
+    private static final int IO_BUFFER_SIZE = 1024 * 1024;
+
+    private final long memoryLimit;
+    private final Path tempDirectory;
+
+    public ExternalSegmentReorderer() {
+        this(DEFAULT_MEMORY_LIMIT, null);
+    }
+
+    /**
+     * @param tempDirectory where runs are spilled, the file's own directory if null
+     */
+    public ExternalSegmentReorderer(long memoryLimit, Path tempDirectory) {
+        if (memoryLimit < 1)
+            throw new IllegalArgumentException("memoryLimit must be positive");
+        this.memoryLimit = memoryLimit;
+        this.tempDirectory = tempDirectory;
+    }
+
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    /**
+     * Writes an in-memory permutation in the index format, mostly for files
+     * small enough that {@link SegmentReorderer} would do.
+     */
+    public static void writeIndex(Path index, int[] destinations) throws IOException {
+        try (FileChannel channel = FileChannel.open(index, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(IO_BUFFER_SIZE);
+            long position = 0;
+            for (int destination : destinations) {
+                if (buffer.remaining() < INDEX_ENTRY_SIZE) {
+                    buffer.flip();
+                    int length = buffer.remaining();
+                    FileChannels.writeFully(channel, buffer, position);
+                    position += length;
+                    buffer.clear();
+                }
+                buffer.putLong(destination);
+            }
+            buffer.flip();
+            FileChannels.writeFully(channel, buffer, position);
+        }
+    }
+
+    public void reorder(Path file, int segmentSize, Path index) throws IOException {
+        Path runDirectory = tempDirectory != null ? tempDirectory : file.toAbsolutePath().getParent();
+        try (FileChannel data = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileChannel keys = FileChannel.open(index, StandardOpenOption.READ)) {
+            if (keys.size() % INDEX_ENTRY_SIZE != 0)
+                throw new IllegalArgumentException("Index of " + keys.size() + " bytes is not a list of longs");
+            long count = keys.size() / INDEX_ENTRY_SIZE;
+            SegmentReorderer.checkLayout(data.size(), segmentSize, count);
+            if (count == 0)
+                return;
+            new Pass(data, keys, segmentSize, count, runDirectory).run();
+        }
+    }
+
+    /**
+     * The state of one reorder, sized from the memory limit.
+     */
+    private class Pass {
+
+        private final FileChannel data, keys;
+        private final int segmentSize, recordSize;
+        private final long count, windowSegments;
+        private final int runCount;
+        private final Path runDirectory;
+        private final ByteBuffer io, slab;
+
+        private final Path[] runs;
+        private final FileChannel[] runChannels;
+        private final long[] runRecords, runSums, runSquares;
+
+        Pass(FileChannel data, FileChannel keys, int segmentSize, long count, Path runDirectory) {
+            this.data = data;
+            this.keys = keys;
+            this.segmentSize = segmentSize;
+            this.recordSize = INDEX_ENTRY_SIZE + segmentSize;
+            this.count = count;
+            this.runDirectory = runDirectory;
+
+            int ioRecords = (int) Math.max(1, Math.min(IO_BUFFER_SIZE, memoryLimit / 8) / recordSize);
+            long slabSize = Math.min(Integer.MAX_VALUE, memoryLimit - (long) ioRecords * recordSize);
+            long windowSegments = Math.min(count, slabSize / segmentSize);
+            if (windowSegments < 1)
+                throw new IllegalArgumentException("memoryLimit of " + memoryLimit +
+                        " bytes cannot hold a window of " + segmentSize + " byte segments");
+            int runCount = (int) Math.min(Integer.MAX_VALUE, (count + windowSegments - 1) / windowSegments);
+            if (slabSize / runCount < recordSize)
+                throw new IllegalArgumentException("memoryLimit of " + memoryLimit + " bytes is too small to spill " +
+                        count + " segments into " + runCount + " runs");
+            this.windowSegments = windowSegments;
+            this.runCount = runCount;
+            this.io = ByteBuffer.allocateDirect(ioRecords * recordSize);
+            this.slab = ByteBuffer.allocateDirect((int) Math.max(slabSize / runCount / recordSize * recordSize * runCount,
+                    windowSegments * segmentSize));
+            this.runs = new Path[runCount];
+            this.runChannels = new FileChannel[runCount];
+            this.runRecords = new long[runCount];
+            this.runSums = new long[runCount];
+            this.runSquares = new long[runCount];
+        }
+
+        void run() throws IOException {
+            try {
+                for (int r = 0; r < runCount; ++r) {
+                    runs[r] = Files.createTempFile(runDirectory, "rapidtransfer", ".run");
+                    runChannels[r] = FileChannel.open(runs[r], StandardOpenOption.READ, StandardOpenOption.WRITE);
+                }
+                spill();
+                for (int r = 0; r < runCount; ++r)
+                    checkRun(r);
+                for (int r = 0; r < runCount; ++r)
+                    writeWindow(r);
+            } finally {
+                for (int r = 0; r < runCount; ++r) {
+                    if (runChannels[r] != null)
+                        runChannels[r].close();
+                    if (runs[r] != null)
+                        Files.deleteIfExists(runs[r]);
+                }
+            }
+        }
+
+        /**
+         * Pass one: every segment, prefixed with its destination, goes to its window's run.
+         */
+        private void spill() throws IOException {
+            int ioRecords = io.capacity() / recordSize;
+            io.clear().limit(ioRecords * segmentSize);
+            ByteBuffer segments = io.slice();
+            io.clear().position(ioRecords * segmentSize);
+            ByteBuffer destinations = io.slice();
+
+            int runBufferSize = slab.capacity() / runCount / recordSize * recordSize;
+            ByteBuffer[] buffers = new ByteBuffer[runCount];
+            long[] written = new long[runCount];
+            for (int r = 0; r < runCount; ++r) {
+                slab.clear().position(r * runBufferSize).limit((r + 1) * runBufferSize);
+                buffers[r] = slab.slice();
+            }
+
+            for (long first = 0; first < count; first += ioRecords) {
+                int n = (int) Math.min(ioRecords, count - first);
+                segments.clear().limit(n * segmentSize);
+                FileChannels.readFully(data, segments, first * segmentSize);
+                destinations.clear().limit(n * INDEX_ENTRY_SIZE);
+                FileChannels.readFully(keys, destinations, first * INDEX_ENTRY_SIZE);
+                for (int i = 0; i < n; ++i) {
+                    long destination = destinations.getLong(i * INDEX_ENTRY_SIZE);
+                    if (destination < 0 || destination >= count)
+                        throw new IllegalArgumentException("Index entry " + (first + i) + " points at slot " +
+                                destination + " of " + count);
+                    int r = (int) (destination / windowSegments);
+                    ByteBuffer buffer = buffers[r];
+                    if (buffer.remaining() < recordSize)
+                        written[r] += flush(buffer, runChannels[r], written[r]);
+                    buffer.putLong(destination);
+                    segments.limit((i + 1) * segmentSize).position(i * segmentSize);
+                    buffer.put(segments);
+                    ++runRecords[r];
+                    runSums[r] += destination;
+                    runSquares[r] += destination * destination;
+                }
+            }
+            for (int r = 0; r < runCount; ++r)
+                flush(buffers[r], runChannels[r], written[r]);
+        }
+
+        private int flush(ByteBuffer buffer, FileChannel channel, long position) throws IOException {
+            buffer.flip();
+            int length = buffer.remaining();
+            FileChannels.writeFully(channel, buffer, position);
+            buffer.clear();
+            return length;
+        }
+
+        /**
+         * A run must hold each destination of its window exactly once. Matching
+         * count, sum and sum of squares (mod 2^64) rule out any single
+         * duplicate, which is what a bad index almost always comes down to.
+         */
+        private void checkRun(int r) {
+            long start = r * windowSegments, end = Math.min(count, start + windowSegments);
+            long sum = 0, squares = 0;
+            for (long d = start; d < end; ++d) {
+                sum += d;
+                squares += d * d;
+            }
+            if (runRecords[r] != end - start || runSums[r] != sum || runSquares[r] != squares)
+                throw new IllegalArgumentException("Index is not a permutation, slots [" + start + ", " + end +
+                        ") are not each claimed once");
+        }
+
+        /**
+         * Pass two: one run at a time becomes one window, written back sequentially.
+         */
+        private void writeWindow(int r) throws IOException {
+            long start = r * windowSegments;
+            int segments = (int) Math.min(windowSegments, count - start);
+            int ioRecords = io.capacity() / recordSize;
+            ByteBuffer segment = io.duplicate();
+            for (long first = 0; first < segments; first += ioRecords) {
+                int n = (int) Math.min(ioRecords, segments - first);
+                io.clear().limit(n * recordSize);
+                FileChannels.readFully(runChannels[r], io, first * recordSize);
+                for (int i = 0; i < n; ++i) {
+                    int offset = i * recordSize;
+                    long destination = io.getLong(offset);
+                    segment.limit(offset + recordSize).position(offset + INDEX_ENTRY_SIZE);
+                    slab.clear().position((int) (destination - start) * segmentSize);
+                    slab.put(segment);
+                }
+            }
+            slab.clear().limit(segments * segmentSize);
+            FileChannels.writeFully(data, slab, start * segmentSize);
+        }
+    }
+}
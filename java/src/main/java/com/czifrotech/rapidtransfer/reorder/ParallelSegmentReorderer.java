@@ -0,0 +1,291 @@
+package com.czifrotech.rapidtransfer.reorder;
+
+import com.czifrotech.rapidtransfer.io.FileChannels;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Reorders a segment file in place with many positional reads and writes in
+ * flight at once, so fast SSDs see a deep queue instead of one request at a
+ * time. Takes the same destination slots as {@link SegmentReorderer}.
+ * <p>
+ * The permutation is split into cycles. Short cycles are grouped into units of
+ * about {@code pieceLength} segments. Long cycles, and a random permutation
+ * nearly always has one spanning most of the file, are cut into pieces of
+ * {@code pieceLength}. Each piece first saves the segment at its head; once
+ * every head is saved, each piece can shift its stretch of the cycle along on
+ * its own, since the only slot it writes outside itself is the next piece's
+ * head. Units run on a {@link ForkJoinPool} and every worker thread has its
+ * own {@link FileChannel}.
+ *
+ * @author Will Czifro
+ */
+public class ParallelSegmentReorderer {
+
+    public static final int DEFAULT_PIECE_LENGTH = 4096;
+
+    private final int parallelism, pieceLength;
+
+    public ParallelSegmentReorderer() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_PIECE_LENGTH);
+    }
+
+    public ParallelSegmentReorderer(int parallelism, int pieceLength) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive");
+        if (pieceLength < 1)
+            throw new IllegalArgumentException("pieceLength must be positive");
+        this.parallelism = parallelism;
+        this.pieceLength = pieceLength;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public int getPieceLength() {
+        return pieceLength;
+    }
+
+    public void reorder(Path file, int segmentSize, int[] destinations) throws IOException {
+        SegmentReorderer.checkLayout(Files.size(file), segmentSize, destinations.length);
+        Plan plan = new Plan(destinations);
+        if ((long) plan.pieces * segmentSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Too many pieces to save their heads, raise pieceLength");
+
+        ByteBuffer heads = ByteBuffer.allocateDirect(plan.pieces * segmentSize);
+        List<FileChannel> channels = new ArrayList<>();
+        ThreadLocal<Worker> workers = ThreadLocal.withInitial(() -> {
+            try {
+                FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                synchronized (channels) {
+                    channels.add(channel);
+                }
+                return new Worker(channel, segmentSize);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new Units(0, plan.pieces, piece -> {
+                ByteBuffer head = slice(heads, piece, segmentSize);
+                FileChannels.readFully(workers.get().channel, head, (long) plan.pieceStarts[piece] * segmentSize);
+            }));
+            pool.invoke(new Units(0, plan.pieces + plan.groups, unit -> {
+                Worker worker = workers.get();
+                if (unit < plan.pieces)
+                    worker.shiftPiece(destinations, plan.pieceStarts[unit], plan.pieceLengths[unit],
+                            slice(heads, unit, segmentSize));
+                else
+                    worker.rotateCycles(destinations, plan.cycleStarts, plan.groupEnd(unit - plan.pieces - 1),
+                            plan.groupEnd(unit - plan.pieces));
+            }));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+            for (FileChannel channel : channels)
+                channel.close();
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer slab, int index, int segmentSize) {
+        ByteBuffer view = slab.duplicate();
+        view.limit((index + 1) * segmentSize).position(index * segmentSize);
+        return view.slice();
+    }
+
+    /**
+     * The permutation cut into units of work.
+     */
+    private class Plan {
+
+        int pieces, groups;
+        int[] pieceStarts = new int[16], pieceLengths = new int[16];
+        int[] cycleStarts = new int[16], groupEnds = new int[16];
+        int cycles;
+
+        Plan(int[] destinations) {
+            BitSet visited = new BitSet(destinations.length);
+            int grouped = 0;
+            for (int start = 0; start < destinations.length; ++start) {
+                if (visited.get(start))
+                    continue;
+                int length = walk(destinations, start, visited);
+                if (length == 1)
+                    continue;
+                if (length > pieceLength) {
+                    cut(destinations, start, length);
+                    continue;
+                }
+                cycleStarts = grow(cycleStarts, cycles);
+                cycleStarts[cycles++] = start;
+                grouped += length;
+                if (grouped >= pieceLength) {
+                    closeGroup();
+                    grouped = 0;
+                }
+            }
+            if (grouped > 0)
+                closeGroup();
+        }
+
+        /**
+         * @return the cycle's length
+         * @throws IllegalArgumentException if {@code destinations} is not a permutation
+         */
+        private int walk(int[] destinations, int start, BitSet visited) {
+            int length = 0, slot = start;
+            do {
+                if (slot < 0 || slot >= destinations.length || visited.get(slot))
+                    throw new IllegalArgumentException("destinations is not a permutation, slot " + slot +
+                            " is reached twice");
+                visited.set(slot);
+                ++length;
+                slot = destinations[slot];
+            } while (slot != start);
+            return length;
+        }
+
+        private void cut(int[] destinations, int start, int length) {
+            int slot = start;
+            for (int offset = 0; offset < length; offset += pieceLength) {
+                pieceStarts = grow(pieceStarts, pieces);
+                pieceLengths = grow(pieceLengths, pieces);
+                pieceStarts[pieces] = slot;
+                pieceLengths[pieces] = Math.min(pieceLength, length - offset);
+                for (int i = 0; i < pieceLengths[pieces]; ++i)
+                    slot = destinations[slot];
+                ++pieces;
+            }
+        }
+
+        private void closeGroup() {
+            groupEnds = grow(groupEnds, groups);
+            groupEnds[groups++] = cycles;
+        }
+
+        int groupEnd(int group) {
+            return group < 0 ? 0 : groupEnds[group];
+        }
+
+        private int[] grow(int[] array, int size) {
+            return size < array.length ? array : Arrays.copyOf(array, array.length * 2);
+        }
+    }
+
+    /**
+     * One worker thread's channel and segment buffers.
+     */
+    private static class Worker {
+
+        final FileChannel channel;
+        ByteBuffer carry, next;
+
+        Worker(FileChannel channel, int segmentSize) {
+            this.channel = channel;
+            this.carry = ByteBuffer.allocateDirect(segmentSize);
+            this.next = ByteBuffer.allocateDirect(segmentSize);
+        }
+
+        /**
+         * Moves each segment of the piece one step along its cycle, the last
+         * one onto the next piece's head, which was saved before any piece ran.
+         */
+        void shiftPiece(int[] destinations, int start, int length, ByteBuffer head) throws IOException {
+            int segmentSize = carry.capacity();
+            carry.clear();
+            carry.put(head.duplicate());
+            int slot = start;
+            for (int i = 0; i < length; ++i) {
+                int target = destinations[slot];
+                if (i < length - 1) {
+                    next.clear();
+                    FileChannels.readFully(channel, next, (long) target * segmentSize);
+                }
+                carry.flip();
+                FileChannels.writeFully(channel, carry, (long) target * segmentSize);
+                swap();
+                slot = target;
+            }
+        }
+
+        void rotateCycles(int[] destinations, int[] cycleStarts, int from, int to) throws IOException {
+            int segmentSize = carry.capacity();
+            for (int c = from; c < to; ++c) {
+                int start = cycleStarts[c];
+                carry.clear();
+                FileChannels.readFully(channel, carry, (long) start * segmentSize);
+                int slot = destinations[start];
+                while (slot != start) {
+                    next.clear();
+                    FileChannels.readFully(channel, next, (long) slot * segmentSize);
+                    carry.flip();
+                    FileChannels.writeFully(channel, carry, (long) slot * segmentSize);
+                    swap();
+                    slot = destinations[slot];
+                }
+                carry.flip();
+                FileChannels.writeFully(channel, carry, (long) start * segmentSize);
+            }
+        }
+
+        private void swap() {
+            ByteBuffer t = carry;
+            carry = next;
+            next = t;
+        }
+    }
+
+    @FunctionalInterface
+    private interface UnitTask {
+        void run(int unit) throws IOException;
+    }
+
+    /**
+     * Runs units [from, to), halving until a single unit is left.
+     */
+    private static class Units extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to;
+        private final UnitTask task;
+
+        Units(int from, int to, UnitTask task) {
+            this.from = from;
+            this.to = to;
+            this.task = task;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Units(from, mid, task), new Units(mid, to, task));
+                return;
+            }
+            if (to > from) {
+                try {
+                    task.run(from);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.czifrotech.rapidtransfer.reorder;
+
+import com.czifrotech.rapidtransfer.io.FileChannels;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Puts the fixed size segments of an out of order file back in order, in
+ * place. {@code destinations[i]} is the slot the segment currently at slot
+ * {@code i} belongs in.
+ * <p>
+ * A file that fits the memory limit is read into one reusable direct buffer
+ * with large sequential reads, and written back in destination order through
+ * a staging buffer with large sequential writes, so the cost is two passes
+ * over the file instead of a seek per segment. Bigger files fall back to
+ * following each cycle of the permutation on disk, one positional read and
+ * one positional write per displaced segment; when even the permutation is
+ * too big for the heap, use {@link ExternalSegmentReorderer}.
+ * <p>
+ * Not thread safe, the buffers are reused from one call to the next.
+ *
+ * @author Will Czifro
+ */
+public class SegmentReorderer {
+
+    public static final long DEFAULT_MEMORY_LIMIT = 256L * 1024 * 1024;
+
+    // big enough that every write is a long sequential run
+    private static final int STAGING_SIZE = 4 * 1024 * 1024;
+
+    private final long memoryLimit;
+
+    private ByteBuffer segments, staging;
+
+    public SegmentReorderer() {
+        this(DEFAULT_MEMORY_LIMIT);
+    }
+
+    /**
+     * @param memoryLimit the largest file, in bytes, that is reordered in memory
+     */
+    public SegmentReorderer(long memoryLimit) {
+        if (memoryLimit < 0)
+            throw new IllegalArgumentException("memoryLimit must not be negative");
+        this.memoryLimit = Math.min(memoryLimit, Integer.MAX_VALUE);
+    }
+
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    public void reorder(Path file, int segmentSize, int[] destinations) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            reorder(channel, segmentSize, destinations);
+        }
+    }
+
+    public void reorder(FileChannel channel, int segmentSize, int[] destinations) throws IOException {
+        long size = channel.size();
+        checkLayout(size, segmentSize, destinations.length);
+        int[] sources = invert(destinations);
+        if (size <= memoryLimit)
+            reorderInMemory(channel, segmentSize, sources);
+        else
+            followCycles(channel, segmentSize, destinations);
+    }
+
+    static void checkLayout(long size, int segmentSize, long segmentCount) {
+        if (segmentSize < 1)
+            throw new IllegalArgumentException("segmentSize must be positive");
+        if (size != segmentCount * segmentSize)
+            throw new IllegalArgumentException("File of " + size + " bytes does not hold " + segmentCount +
+                    " segments of " + segmentSize + " bytes");
+    }
+
+    /**
+     * @return for every slot, the slot its segment currently sits in
+     * @throws IllegalArgumentException if {@code destinations} is not a permutation
+     */
+    static int[] invert(int[] destinations) {
+        int[] sources = new int[destinations.length];
+        Arrays.fill(sources, -1);
+        for (int i = 0; i < destinations.length; ++i) {
+            int d = destinations[i];
+            if (d < 0 || d >= destinations.length || sources[d] >= 0)
+                throw new IllegalArgumentException("destinations is not a permutation, slot " + d +
+                        " at index " + i);
+            sources[d] = i;
+        }
+        return sources;
+    }
+
+    private void reorderInMemory(FileChannel channel, int segmentSize, int[] sources) throws IOException {
+        int size = sources.length * segmentSize;
+        if (segments == null || segments.capacity() < size)
+            segments = ByteBuffer.allocateDirect(size);
+        if (staging == null)
+            staging = ByteBuffer.allocateDirect(Math.max(STAGING_SIZE, segmentSize));
+
+        segments.clear().limit(size);
+        FileChannels.readFully(channel, segments, 0);
+
+        ByteBuffer segment = segments.duplicate();
+        long position = 0;
+        staging.clear();
+        for (int source : sources) {
+            if (staging.remaining() < segmentSize)
+                position += flushStaging(channel, position);
+            segment.limit(source * segmentSize + segmentSize).position(source * segmentSize);
+            staging.put(segment);
+        }
+        flushStaging(channel, position);
+    }
+
+    private int flushStaging(FileChannel channel, long position) throws IOException {
+        staging.flip();
+        int length = staging.remaining();
+        FileChannels.writeFully(channel, staging, position);
+        staging.clear();
+        return length;
+    }
+
+    private void followCycles(FileChannel channel, int segmentSize, int[] destinations) throws IOException {
+        ByteBuffer carry = ByteBuffer.allocateDirect(segmentSize), next = ByteBuffer.allocateDirect(segmentSize);
+        BitSet placed = new BitSet(destinations.length);
+        for (int start = 0; start < destinations.length; ++start) {
+            if (placed.get(start) || destinations[start] == start)
+                continue;
+            carry.clear();
+            FileChannels.readFully(channel, carry, (long) start * segmentSize);
+            int slot = destinations[start];
+            while (slot != start) {
+                next.clear();
+                FileChannels.readFully(channel, next, (long) slot * segmentSize);
+                carry.flip();
+                FileChannels.writeFully(channel, carry, (long) slot * segmentSize);
+                placed.set(slot);
+                ByteBuffer t = carry;
+                carry = next;
+                next = t;
+                slot = destinations[slot];
+            }
+            carry.flip();
+            FileChannels.writeFully(channel, carry, (long) start * segmentSize);
+            placed.set(start);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.czifrotech.rapidtransfer.cryptography;
+
+/**
+ * Reaches the table implementation of {@link Crc32c}, which runtimes with
+ * {@code java.util.zip.CRC32C} never pick on their own.
+ *
+ * @author Will Czifro
+ */
+public class Crc32cTables {
+
+    public static Crc32c create() {
+        return new Crc32c(false);
+    }
+}
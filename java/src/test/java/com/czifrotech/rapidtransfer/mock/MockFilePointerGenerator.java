@@ -1,5 +1,8 @@
 package com.czifrotech.rapidtransfer.mock;
 
+import com.czifrotech.rapidtransfer.io.FileHandlePool;
+import com.czifrotech.rapidtransfer.io.FilePointerArray;
+
 import java.io.*;
 import java.util.Random;
 
@@ -8,6 +11,14 @@ import java.util.Random;
  */
 public class MockFilePointerGenerator {
 
+    /**
+     * One pointer per record like {@link #wrap}, but all sharing the pool's
+     * few descriptors instead of opening one each.
+     */
+    public static FilePointerArray wrap(FileHandlePool pool, int len, int size) {
+        return FilePointerArray.strided(pool, size, len);
+    }
+
     public static RandomAccessFile[] wrap(File file, int len, int size) {
         try {
             RandomAccessFile[] rafs = new RandomAccessFile[size];
@@ -1,13 +1,23 @@
 package com.czifrotech.rapidtransfer.simulators;
 
+import com.czifrotech.rapidtransfer.io.FileHandlePool;
+import com.czifrotech.rapidtransfer.io.FilePointerArray;
+import com.czifrotech.rapidtransfer.io.MappedFileChunkSink;
 import com.czifrotech.rapidtransfer.mock.MockFileGenerator;
 import com.czifrotech.rapidtransfer.mock.MockFilePointerGenerator;
+import com.czifrotech.rapidtransfer.reorder.ExternalSegmentReorderer;
+import com.czifrotech.rapidtransfer.reorder.ParallelSegmentReorderer;
+import com.czifrotech.rapidtransfer.reorder.SegmentReorderer;
 import com.czifrotech.rapidtransfer.util.FileUtil;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
@@ -44,7 +54,7 @@ public class FileSortingSimulator {
     @Test
     public void runMultiplePointerSimulator() throws IOException {
         Map<Integer, ArrayList<Result>> allResults = new HashMap<>();
-        for (size = 0; size < 4; ++size) {
+        for (size = 0; size < 7; ++size) {
             ArrayList<Result> results = new ArrayList<>();
             for (int i = 0; i < 100; ++i) {
                 results.add(testMultipleFilePointers());
@@ -63,6 +73,98 @@ public class FileSortingSimulator {
         FileUtil.writeToFile(output, "./src/test/java/out/MultipleFilePointers.dat");
     }
 
+    @Test
+    public void runMappedPlacementSimulator() throws IOException {
+        Map<Integer, ArrayList<Result>> allResults = new HashMap<>();
+        for (size = 0; size < 6; ++size) {
+            ArrayList<Result> results = new ArrayList<>();
+            for (int i = 0; i < 100; ++i) {
+                results.add(testMappedPlacement());
+                System.gc();
+            }
+            allResults.put(size, results);
+        }
+
+        ArrayList<String> output = new ArrayList<>();
+        for (int key : allResults.keySet()) {
+            ArrayList<Result> results = allResults.get(key);
+            double mean = Calculations.mean(results);
+            double stDev = Calculations.stDev(results, mean);
+            output.add(key + " " + mean + " " + (mean+stDev));
+        }
+        FileUtil.writeToFile(output, "./src/test/java/out/MappedPlacement.dat");
+    }
+
+    @Test
+    public void runSegmentReorderSimulator() throws IOException {
+        Map<Integer, ArrayList<Result>> allResults = new HashMap<>();
+        SegmentReorderer reorderer = new SegmentReorderer();
+        for (size = 0; size < 7; ++size) {
+            ArrayList<Result> results = new ArrayList<>();
+            for (int i = 0; i < 100; ++i) {
+                results.add(testSegmentReorder(reorderer));
+                System.gc();
+            }
+            allResults.put(size, results);
+        }
+
+        ArrayList<String> output = new ArrayList<>();
+        for (int key : allResults.keySet()) {
+            ArrayList<Result> results = allResults.get(key);
+            double mean = Calculations.mean(results);
+            double stDev = Calculations.stDev(results, mean);
+            output.add(key + " " + mean + " " + (mean+stDev));
+        }
+        FileUtil.writeToFile(output, "./src/test/java/out/SegmentReorder.dat");
+    }
+
+    @Test
+    public void runExternalReorderSimulator() throws IOException {
+        Map<Integer, ArrayList<Result>> allResults = new HashMap<>();
+        // 1MB of memory, so from 10^5 segments on the file no longer fits
+        ExternalSegmentReorderer reorderer = new ExternalSegmentReorderer(1024 * 1024, null);
+        for (size = 0; size < 7; ++size) {
+            ArrayList<Result> results = new ArrayList<>();
+            for (int i = 0; i < 100; ++i) {
+                results.add(testExternalReorder(reorderer));
+                System.gc();
+            }
+            allResults.put(size, results);
+        }
+
+        ArrayList<String> output = new ArrayList<>();
+        for (int key : allResults.keySet()) {
+            ArrayList<Result> results = allResults.get(key);
+            double mean = Calculations.mean(results);
+            double stDev = Calculations.stDev(results, mean);
+            output.add(key + " " + mean + " " + (mean+stDev));
+        }
+        FileUtil.writeToFile(output, "./src/test/java/out/ExternalReorder.dat");
+    }
+
+    @Test
+    public void runParallelReorderSimulator() throws IOException {
+        Map<Integer, ArrayList<Result>> allResults = new HashMap<>();
+        ParallelSegmentReorderer reorderer = new ParallelSegmentReorderer();
+        for (size = 0; size < 7; ++size) {
+            ArrayList<Result> results = new ArrayList<>();
+            for (int i = 0; i < 100; ++i) {
+                results.add(testParallelReorder(reorderer));
+                System.gc();
+            }
+            allResults.put(size, results);
+        }
+
+        ArrayList<String> output = new ArrayList<>();
+        for (int key : allResults.keySet()) {
+            ArrayList<Result> results = allResults.get(key);
+            double mean = Calculations.mean(results);
+            double stDev = Calculations.stDev(results, mean);
+            output.add(key + " " + mean + " " + (mean+stDev));
+        }
+        FileUtil.writeToFile(output, "./src/test/java/out/ParallelReorder.dat");
+    }
+
     public Result testSortingAFile() throws IOException {
         Runtime curRuntime = Runtime.getRuntime();
         long freeMem = curRuntime.freeMemory();
@@ -132,8 +234,12 @@ public class FileSortingSimulator {
         int[] unsortedSegmentIds =
                 MockFileGenerator.createFileAndReturnContentsAsIntegers(MockFileGenerator.outOfOrderFileSorted, size);
         File file = new File(MockFileGenerator.outOfOrderFileSorted);
-        RandomAccessFile[] r_rafs = MockFilePointerGenerator.wrap(file, size+2, unsortedSegmentIds.length);
-        RandomAccessFile[] w_rafs = MockFilePointerGenerator.wrap(file, size+2, unsortedSegmentIds.length);
+        // the pointers share a few pooled handles, one descriptor per segment ran out past 10^3 segments
+        FileHandlePool pool = new FileHandlePool(file.toPath());
+        FilePointerArray r_ptrs = MockFilePointerGenerator.wrap(pool, size+2, unsortedSegmentIds.length);
+        FilePointerArray w_ptrs = MockFilePointerGenerator.wrap(pool, size+2, unsortedSegmentIds.length);
+        ByteBuffer curBytes = ByteBuffer.allocateDirect(size+1);
+        ByteBuffer swapBytes = ByteBuffer.allocateDirect(size+1);
 
         long start = System.nanoTime();
         int i = 0;
@@ -146,39 +252,32 @@ public class FileSortingSimulator {
                     break;
                 continue;
             }
-            long curPos = r_rafs[i].getFilePointer();
-            byte[] curBytes = new byte[size+1];
-            r_rafs[i].read(curBytes);
+            long curPos = r_ptrs.getFilePointer(i);
+            curBytes.clear();
+            r_ptrs.read(i, curBytes);
 
-            byte[] swapBytes = new byte[size+1];
-            r_rafs[j].read(swapBytes);
-
-            //String cur = new String(curBytes);
-            //String swap = new String(swapBytes);
-
-            //System.out.println(cur);
-            //System.out.println(swap);
+            swapBytes.clear();
+            r_ptrs.read(j, swapBytes);
 
             unsortedSegmentIds[i] = unsortedSegmentIds[j];
             unsortedSegmentIds[j] = j+1;
 
-            w_rafs[i].write(swapBytes);
+            swapBytes.flip();
+            w_ptrs.write(i, swapBytes);
 
-            w_rafs[j].write(curBytes);
+            curBytes.flip();
+            w_ptrs.write(j, curBytes);
 
-            r_rafs[i].seek(curPos);
-            w_rafs[i].seek(curPos);
+            r_ptrs.seek(i, curPos);
+            w_ptrs.seek(i, curPos);
         }
         long end = System.nanoTime();
         long newFreeMem = curRuntime.freeMemory();
 
-        // closing streams outside of timed scope
+        // closing the pool outside of timed scope
         // because we want to compare File I/O with many seeks
         // to File I/O with a few seeks.
-        for (i = 0; i < r_rafs.length; ++i) {
-            r_rafs[i].close();
-            w_rafs[i].close();
-        }
+        pool.close();
 
 //        System.out.println("Free Mem: " + (freeMem - newFreeMem) + " bytes");
 //        System.out.println(((double)(end-start))/1000000 + "ms");
@@ -188,6 +287,109 @@ public class FileSortingSimulator {
         return ret;
     }
 
+    /**
+     * Treats the out of order file as segments arriving in file order and
+     * places each one at its final offset in a mapped file, the way the
+     * receiver does, instead of sorting the file afterwards.
+     */
+    public Result testMappedPlacement() throws IOException {
+        Runtime curRuntime = Runtime.getRuntime();
+        long freeMem = curRuntime.freeMemory();
+        int[] unsortedSegmentIds =
+                MockFileGenerator.createFileAndReturnContentsAsIntegers(MockFileGenerator.outOfOrderFileSorted, size);
+        int segmentSize = size+2;
+        byte[] segments = Files.readAllBytes(Paths.get(MockFileGenerator.outOfOrderFileSorted));
+        Path placed = Paths.get(MockFileGenerator.outOfOrderFileSorted + ".placed");
+        ByteBuffer buffer = ByteBuffer.wrap(segments);
+
+        long start = System.nanoTime();
+        try (MappedFileChunkSink sink = new MappedFileChunkSink(placed, segmentSize, segments.length)) {
+            for (int i = 0; i < unsortedSegmentIds.length; ++i) {
+                buffer.limit((i+1) * segmentSize).position(i * segmentSize);
+                sink.write(unsortedSegmentIds[i]-1, buffer);
+            }
+        }
+        long end = System.nanoTime();
+
+        long newFreeMem = curRuntime.freeMemory();
+        Files.deleteIfExists(placed);
+        Result ret = new Result();
+        ret.memoryUsed = (freeMem - newFreeMem);
+        ret.timeTaken = ((double)(end-start))/1000000;
+        return ret;
+    }
+
+    /**
+     * Sorts the out of order file with the reorder engine: one sequential read,
+     * the permutation applied in memory, one sequential write.
+     */
+    public Result testSegmentReorder(SegmentReorderer reorderer) throws IOException {
+        Runtime curRuntime = Runtime.getRuntime();
+        long freeMem = curRuntime.freeMemory();
+        int[] unsortedSegmentIds =
+                MockFileGenerator.createFileAndReturnContentsAsIntegers(MockFileGenerator.outOfOrderFileSorted, size);
+        int[] destinations = new int[unsortedSegmentIds.length];
+        for (int i = 0; i < destinations.length; ++i)
+            destinations[i] = unsortedSegmentIds[i]-1;
+
+        long start = System.nanoTime();
+        reorderer.reorder(Paths.get(MockFileGenerator.outOfOrderFileSorted), size+2, destinations);
+        long end = System.nanoTime();
+
+        long newFreeMem = curRuntime.freeMemory();
+        Result ret = new Result();
+        ret.memoryUsed = (freeMem - newFreeMem);
+        ret.timeTaken = ((double)(end-start))/1000000;
+        return ret;
+    }
+
+    /**
+     * Sorts the out of order file with the index on disk instead of on the heap.
+     */
+    public Result testExternalReorder(ExternalSegmentReorderer reorderer) throws IOException {
+        Runtime curRuntime = Runtime.getRuntime();
+        long freeMem = curRuntime.freeMemory();
+        int[] unsortedSegmentIds =
+                MockFileGenerator.createFileAndReturnContentsAsIntegers(MockFileGenerator.outOfOrderFileSorted, size);
+        for (int i = 0; i < unsortedSegmentIds.length; ++i)
+            --unsortedSegmentIds[i];
+        Path index = Paths.get(MockFileGenerator.outOfOrderFileSorted + ".index");
+        ExternalSegmentReorderer.writeIndex(index, unsortedSegmentIds);
+
+        long start = System.nanoTime();
+        reorderer.reorder(Paths.get(MockFileGenerator.outOfOrderFileSorted), size+2, index);
+        long end = System.nanoTime();
+
+        long newFreeMem = curRuntime.freeMemory();
+        Files.deleteIfExists(index);
+        Result ret = new Result();
+        ret.memoryUsed = (freeMem - newFreeMem);
+        ret.timeTaken = ((double)(end-start))/1000000;
+        return ret;
+    }
+
+    /**
+     * Sorts the out of order file with positional I/O from every core at once.
+     */
+    public Result testParallelReorder(ParallelSegmentReorderer reorderer) throws IOException {
+        Runtime curRuntime = Runtime.getRuntime();
+        long freeMem = curRuntime.freeMemory();
+        int[] unsortedSegmentIds =
+                MockFileGenerator.createFileAndReturnContentsAsIntegers(MockFileGenerator.outOfOrderFileSorted, size);
+        for (int i = 0; i < unsortedSegmentIds.length; ++i)
+            --unsortedSegmentIds[i];
+
+        long start = System.nanoTime();
+        reorderer.reorder(Paths.get(MockFileGenerator.outOfOrderFileSorted), size+2, unsortedSegmentIds);
+        long end = System.nanoTime();
+
+        long newFreeMem = curRuntime.freeMemory();
+        Result ret = new Result();
+        ret.memoryUsed = (freeMem - newFreeMem);
+        ret.timeTaken = ((double)(end-start))/1000000;
+        return ret;
+    }
+
     private class Result {
         public long memoryUsed = 0;
         public double timeTaken = 0;
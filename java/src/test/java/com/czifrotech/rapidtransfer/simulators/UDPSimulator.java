@@ -1,14 +1,19 @@
 package com.czifrotech.rapidtransfer.simulators;
 
+import com.czifrotech.rapidtransfer.io.FileChunkSource;
+import com.czifrotech.rapidtransfer.net.TransferEngine;
+import com.czifrotech.rapidtransfer.net.TransferResult;
 import com.czifrotech.rapidtransfer.util.FileUtil;
 import org.junit.Test;
 
 import java.io.IOException;
-import java.net.*;
-import java.nio.ByteBuffer;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 
 /**
  * @author Will Czifro
@@ -155,7 +160,7 @@ public class UDPSimulator {
     }
 
     @Test
-    public void runUDPDualChannelTest() throws InterruptedException, SocketException, UnknownHostException {
+    public void runUDPDualChannelTest() throws IOException, InterruptedException {
         Map<Long, ArrayList<Long>> allResults = new HashMap<>();
         for (int i = 0; i < 6; ++i) {
             ArrayList<Long> results = new ArrayList<>();
@@ -179,7 +184,7 @@ public class UDPSimulator {
     }
 
     @Test
-    public void runUDPQuadChannelTest() throws InterruptedException, SocketException, UnknownHostException {
+    public void runUDPQuadChannelTest() throws IOException, InterruptedException {
         Map<Long, ArrayList<Long>> allResults = new HashMap<>();
         for (int i = 0; i < 6; ++i) {
             ArrayList<Long> results = new ArrayList<>();
@@ -202,421 +207,125 @@ public class UDPSimulator {
         FileUtil.writeToFile(output, "./src/test/java/out/UDPQuadChannel_errorData_maxPow6.dat");
     }
 
-    public long singleChannel(int base10Pow) throws IOException, InterruptedException {
-        final long limit = (int) Math.pow(10, base10Pow);
-        DataStore store = new DataStore();
-        DatagramSocket server = new DatagramSocket(1255);
-        DatagramSocket client = new DatagramSocket();
-        InetAddress IPAddress = InetAddress.getByName("localhost");
-        Thread serverThread = new Thread(() -> {
-            long prev = 0;
-            for (long i = 0; i < limit; ++i) {
-                DatagramPacket packet = new DatagramPacket(new byte[8], 8);
-                try {
-                    server.receive(packet);
-                } catch (IOException e) {
-                    long remaining = limit - i;
-                    store.addMissingPacket(remaining);
-                    return;
-                    //e.printStackTrace();
-                }
-                long v = ByteTool.unwrap(packet.getData());
-                if (prev == 0 && v == 0 && i == 0) {
-                    store.addReceiverValue(1);
-                    prev = v;
-                    continue;
-                }
-                if (v-1 == prev)
-                    store.addReceiverValue(1);
-                else
-                    store.addMissingPacket(prev+1);
-                prev = v;
+    @Test
+    public void channelSweepSpeedTest() throws IOException, InterruptedException {
+        ArrayList<String> output = new ArrayList<>();
+        int maxChannels = Math.min(TransferEngine.MAX_CHANNELS, Runtime.getRuntime().availableProcessors() * 2);
+        for (int channels = 1; channels <= maxChannels; channels *= 2) {
+            ArrayList<Long> times = new ArrayList<>();
+            for (int i = 0; i < 100; ++i) {
+                long start = System.currentTimeMillis();
+                channels(channels, 5);
+                long end = System.currentTimeMillis();
+                times.add(end-start);
             }
-        });
-
-        serverThread.start();
-
-        for (long i = 0; i < limit; ++i) {
-            byte[] data = ByteTool.wrap(i, 8);
-
-            DatagramPacket packet = new DatagramPacket(data, data.length, IPAddress, 1255);
-            client.send(packet);
-            store.addSenderValue(1);
+            double mean = Calculations.mean(times);
+            double stDev = Calculations.stDev(times, mean);
+            output.add(channels + " " + mean + " " + (mean+stDev));
+            System.out.println("Finished " + channels + " channels");
         }
-
-        server.close();
-        client.close();
-        serverThread.join();
-
-        long senderCounter = store.getSenderCounter();
-        long receiverCounter = store.getReceiverCounter();
-        ArrayList<Long> missingPackets = store.getMissingPackets();
-
-        return senderCounter - receiverCounter;
+        FileUtil.writeToFile(output, "./src/test/java/out/UDPChannelSweep_speedTest.dat");
     }
 
-    public long dualChannel(int base10Pow) throws SocketException, UnknownHostException, InterruptedException {
-        final long limit = (int) Math.pow(10, base10Pow);
-        int port1 = 1256, port2 = 1257;
-        DataStore store = new DataStore();
-        DatagramSocket[] servers = {new DatagramSocket(port1),new DatagramSocket(port2)};
-        DatagramSocket[] clients = {new DatagramSocket(),new DatagramSocket()};
-        InetAddress IPAddress = InetAddress.getByName("localhost");
-
-        Thread serverThread0 = new Thread(() -> {
-            long prev = 0;
-            for (long i = 0; i < limit/2; ++i) {
-                DatagramPacket packet = new DatagramPacket(new byte[8], 8);
-                try {
-                    servers[0].receive(packet);
-                } catch (IOException e) {
-                    long remaining = (limit/2) - i;
-                    store.addMissingPacket(remaining);
-                    return;
-                    //e.printStackTrace();
-                }
-                long v = ByteTool.unwrap(packet.getData());
-                if (prev == 0 && v == 0 && i == 0) {
-                    store.addReceiverValue(1);
-                    prev = v;
-                    continue;
-                }
-                if (v-1 == prev)
-                    store.addReceiverValue(1);
-                else
-                    store.addMissingPacket(prev+1);
-                prev = v;
-            }
-        });
-
-        Thread serverThread1 = new Thread(() -> {
-            long prev = 0;
-            for (long i = 0; i < limit/2; ++i) {
-                DatagramPacket packet = new DatagramPacket(new byte[8], 8);
-                try {
-                    servers[1].receive(packet);
-                } catch (IOException e) {
-                    long remaining = (limit/2) - i;
-                    store.addMissingPacket(remaining);
-                    return;
-                    //e.printStackTrace();
-                }
-                long v = ByteTool.unwrap(packet.getData());
-                if (prev == 0 && v == 0 && i == 0) {
-                    store.addReceiverValue(1);
-                    prev = v;
-                    continue;
-                }
-                if (v-1 == prev)
-                    store.addReceiverValue(1);
-                else
-                    store.addMissingPacket(prev+1);
-                prev = v;
-            }
-        });
-
-        Thread clientThread0 = new Thread(() -> {
-            for (long i = 0; i < limit/2; ++i) {
-                try {
-                    byte[] data = ByteTool.wrap(i, 8);
-
-                    DatagramPacket packet = new DatagramPacket(data, data.length, IPAddress, port1);
-                    clients[0].send(packet);
-                    store.addSenderValue(1);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        });
-
-        Thread clientThread1 = new Thread(() -> {
-            for (long i = 0; i < limit/2; ++i) {
-                try {
-                    byte[] data = ByteTool.wrap(i, 8);
-
-                    DatagramPacket packet = new DatagramPacket(data, data.length, IPAddress, port2);
-                    clients[1].send(packet);
-                    store.addSenderValue(1);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+    @Test
+    public void batchSizeSpeedTest() throws IOException, InterruptedException {
+        ArrayList<String> output = new ArrayList<>();
+        for (int batchSize = 1; batchSize <= 1024; batchSize *= 4) {
+            ArrayList<Long> times = new ArrayList<>();
+            for (int i = 0; i < 100; ++i) {
+                long start = System.currentTimeMillis();
+                channels(4, 5, batchSize);
+                long end = System.currentTimeMillis();
+                times.add(end-start);
             }
-        });
-
-        serverThread0.start();
-        clientThread0.start();
-        serverThread1.start();
-        clientThread1.start();
-
-        clientThread0.join();
-        clients[0].close();
-        servers[0].close();
-        serverThread0.join();
-
-        clientThread1.join();
-        clients[1].close();
-        servers[1].close();
-        serverThread1.join();
-
-        long senderCounter = store.getSenderCounter();
-        long receiverCounter = store.getReceiverCounter();
-        ArrayList<Long> missingPackets = store.getMissingPackets();
-
-        return senderCounter - receiverCounter;
+            double mean = Calculations.mean(times);
+            double stDev = Calculations.stDev(times, mean);
+            output.add(batchSize + " " + mean + " " + (mean+stDev));
+            System.out.println("Finished batch size " + batchSize);
+        }
+        FileUtil.writeToFile(output, "./src/test/java/out/UDPBatchSize_speedTest.dat");
     }
 
-    public long quadChannel(int base10Pow) throws SocketException, UnknownHostException, InterruptedException {
-        final long limit = (int) Math.pow(10, base10Pow);
-        int port1 = 1258, port2 = 1259, port3 = 1260, port4 = 1261;
-        DataStore store = new DataStore();
-        DatagramSocket[] servers = {new DatagramSocket(port1),new DatagramSocket(port2),
-                                    new DatagramSocket(port3),new DatagramSocket(port4)};
-        DatagramSocket[] clients = {new DatagramSocket(),new DatagramSocket(),
-                                    new DatagramSocket(),new DatagramSocket()};
-        InetAddress IPAddress = InetAddress.getByName("localhost");
-
-        Thread serverThread0 = new Thread(() -> {
-            long prev = 0;
-            for (long i = 0; i < limit/4; ++i) {
-                DatagramPacket packet = new DatagramPacket(new byte[8], 8);
-                try {
-                    servers[0].receive(packet);
-                } catch (IOException e) {
-                    long remaining = (limit/4) - i;
-                    store.addMissingPacket(remaining);
-                    return;
-                    //e.printStackTrace();
-                }
-                long v = ByteTool.unwrap(packet.getData());
-                if (prev == 0 && v == 0 && i == 0) {
-                    store.addReceiverValue(1);
-                    prev = v;
-                    continue;
-                }
-                if (v-1 == prev)
-                    store.addReceiverValue(1);
-                else
-                    store.addMissingPacket(prev+1);
-                prev = v;
-            }
-        });
-
-        Thread serverThread1 = new Thread(() -> {
-            long prev = 0;
-            for (long i = 0; i < limit/4; ++i) {
-                DatagramPacket packet = new DatagramPacket(new byte[8], 8);
-                try {
-                    servers[1].receive(packet);
-                } catch (IOException e) {
-                    long remaining = (limit/4) - i;
-                    store.addMissingPacket(remaining);
-                    return;
-                    //e.printStackTrace();
-                }
-                long v = ByteTool.unwrap(packet.getData());
-                if (prev == 0 && v == 0 && i == 0) {
-                    store.addReceiverValue(1);
-                    prev = v;
-                    continue;
-                }
-                if (v-1 == prev)
-                    store.addReceiverValue(1);
-                else
-                    store.addMissingPacket(prev+1);
-                prev = v;
-            }
-        });
-
-        Thread serverThread2 = new Thread(() -> {
-            long prev = 0;
-            for (long i = 0; i < limit/4; ++i) {
-                DatagramPacket packet = new DatagramPacket(new byte[8], 8);
-                try {
-                    servers[2].receive(packet);
-                } catch (IOException e) {
-                    long remaining = (limit/4) - i;
-                    store.addMissingPacket(remaining);
-                    return;
-                    //e.printStackTrace();
-                }
-                long v = ByteTool.unwrap(packet.getData());
-                if (prev == 0 && v == 0 && i == 0) {
-                    store.addReceiverValue(1);
-                    prev = v;
-                    continue;
-                }
-                if (v-1 == prev)
-                    store.addReceiverValue(1);
-                else
-                    store.addMissingPacket(prev+1);
-                prev = v;
-            }
-        });
-
-        Thread serverThread3 = new Thread(() -> {
-            long prev = 0;
-            for (long i = 0; i < limit/4; ++i) {
-                DatagramPacket packet = new DatagramPacket(new byte[8], 8);
-                try {
-                    servers[3].receive(packet);
-                } catch (IOException e) {
-                    long remaining = (limit/4) - i;
-                    store.addMissingPacket(remaining);
-                    return;
-                    //e.printStackTrace();
-                }
-                long v = ByteTool.unwrap(packet.getData());
-                if (prev == 0 && v == 0 && i == 0) {
-                    store.addReceiverValue(1);
-                    prev = v;
-                    continue;
-                }
-                if (v-1 == prev)
-                    store.addReceiverValue(1);
-                else
-                    store.addMissingPacket(prev+1);
-                prev = v;
-            }
-        });
-
-        Thread clientThread0 = new Thread(() -> {
-            for (long i = 0; i < limit/4; ++i) {
-                try {
-                    byte[] data = ByteTool.wrap(i, 8);
-
-                    DatagramPacket packet = new DatagramPacket(data, data.length, IPAddress, port1);
-                    clients[0].send(packet);
-                    store.addSenderValue(1);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        });
-
-        Thread clientThread1 = new Thread(() -> {
-            for (long i = 0; i < limit/4; ++i) {
-                try {
-                    byte[] data = ByteTool.wrap(i, 8);
-
-                    DatagramPacket packet = new DatagramPacket(data, data.length, IPAddress, port2);
-                    clients[1].send(packet);
-                    store.addSenderValue(1);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        });
-
-        Thread clientThread2 = new Thread(() -> {
-            for (long i = 0; i < limit/4; ++i) {
-                try {
-                    byte[] data = ByteTool.wrap(i, 8);
-
-                    DatagramPacket packet = new DatagramPacket(data, data.length, IPAddress, port3);
-                    clients[2].send(packet);
-                    store.addSenderValue(1);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+    @Test
+    public void fileTransferThroughputTest() throws IOException, InterruptedException {
+        Path source = Files.createTempFile("rapidtransfer", ".src");
+        Path destination = Files.createTempFile("rapidtransfer", ".dst");
+        try {
+            byte[] block = new byte[1024 * 1024];
+            new Random().nextBytes(block);
+            try (OutputStream out = Files.newOutputStream(source)) {
+                for (int i = 0; i < 64; ++i)
+                    out.write(block);
             }
-        });
-
-        Thread clientThread3 = new Thread(() -> {
-            for (long i = 0; i < limit/4; ++i) {
-                try {
-                    byte[] data = ByteTool.wrap(i, 8);
 
-                    DatagramPacket packet = new DatagramPacket(data, data.length, IPAddress, port4);
-                    clients[3].send(packet);
-                    store.addSenderValue(1);
-                } catch (IOException e) {
-                    e.printStackTrace();
+            ArrayList<String> output = new ArrayList<>();
+            int[] chunkSizes = {FileChunkSource.MIN_CHUNK_SIZE, 4 * 1024, 16 * 1024, FileChunkSource.JUMBO_CHUNK_SIZE};
+            for (int chunkSize : chunkSizes) {
+                ArrayList<Double> throughputs = new ArrayList<>();
+                for (int i = 0; i < 10; ++i) {
+                    TransferResult result = new TransferEngine(4).transferFile(source, destination, chunkSize);
+                    throughputs.add(result.getThroughput());
                 }
+                double mean = throughputs.stream().mapToDouble(Double::doubleValue).average().orElse(0);
+                output.add(chunkSize + " " + mean);
+                System.out.println("Finished chunk size " + chunkSize + ": " + mean + " MB/s");
             }
-        });
-
-        serverThread0.start();
-        clientThread0.start();
-        serverThread1.start();
-        clientThread1.start();
-        serverThread2.start();
-        clientThread2.start();
-        serverThread3.start();
-        clientThread3.start();
-
-        clientThread0.join();
-        clients[0].close();
-        servers[0].close();
-        serverThread0.join();
-
-        clientThread1.join();
-        clients[1].close();
-        servers[1].close();
-        serverThread1.join();
-
-        clientThread2.join();
-        clients[2].close();
-        servers[2].close();
-        serverThread2.join();
-
-        clientThread3.join();
-        clients[3].close();
-        servers[3].close();
-        serverThread3.join();
-
-        long senderCounter = store.getSenderCounter();
-        long receiverCounter = store.getReceiverCounter();
-        ArrayList<Long> missingPackets = store.getMissingPackets();
-
-        return senderCounter - receiverCounter;
-    }
-
-    private class DataStore {
-        private final Object locker1 = new Object(), locker2 = new Object(), locker3 = new Object();
-
-        private long senderCounter, receiverCounter;
-
-        private ArrayList<Long> missingPackets = new ArrayList<>();
-
-        public void addSenderValue(long val) {
-            synchronized (locker1) {
-                senderCounter += val;
-            }
+            FileUtil.writeToFile(output, "./src/test/java/out/UDPFileTransfer_throughput.dat");
+        } finally {
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(destination);
         }
+    }
 
-        public void addMissingPacket(long packet) {
-            synchronized (locker3) {
-                missingPackets.add(packet);
+    @Test
+    public void pacedRateSweepTest() throws IOException, InterruptedException {
+        ArrayList<String> output = new ArrayList<>();
+        final long packets = (long) Math.pow(10, 6);
+        for (long rate = 25000; rate <= 3200000; rate *= 2) {
+            ArrayList<Long> losses = new ArrayList<>();
+            for (int i = 0; i < 10; ++i) {
+                TransferEngine engine = new TransferEngine(4);
+                engine.setReliable(false);
+                engine.setMaxRate(rate);
+                losses.add(engine.transfer(packets).getLost());
             }
+            double mean = Calculations.mean(losses);
+            double stDev = Calculations.stDev(losses, mean);
+            output.add(rate + " " + mean + " " + (mean+stDev));
+            System.out.println("Finished " + rate + " packets/s");
         }
-
-        public void addReceiverValue(long val) {
-            synchronized (locker2) {
-                receiverCounter += val;
-            }
+        // adaptive pacing for comparison, the rate column is where the controller settled
+        for (int i = 0; i < 10; ++i) {
+            TransferResult result = new TransferEngine(4).transfer(packets);
+            output.add((long) result.getSendRate() + " " + result.getRetransmitted() + " " + result.getThroughput());
         }
+        FileUtil.writeToFile(output, "./src/test/java/out/UDPPacedRate_errorData_maxPow6.dat");
+    }
 
-        public long getSenderCounter() {
-            return senderCounter;
-        }
+    public long singleChannel(int base10Pow) throws IOException, InterruptedException {
+        return channels(1, base10Pow);
+    }
 
-        public long getReceiverCounter() {
-            return receiverCounter;
-        }
+    public long dualChannel(int base10Pow) throws IOException, InterruptedException {
+        return channels(2, base10Pow);
+    }
 
-        public ArrayList<Long> getMissingPackets() {
-            return missingPackets;
-        }
+    public long quadChannel(int base10Pow) throws IOException, InterruptedException {
+        return channels(4, base10Pow);
     }
 
-    private static class ByteTool {
-        public static byte[] wrap(long v, int size) {
-            return ByteBuffer.allocate(size).putLong(v).array();
-        }
+    public long channels(int channelCount, int base10Pow) throws IOException, InterruptedException {
+        return channels(channelCount, base10Pow, TransferEngine.DEFAULT_BATCH_SIZE);
+    }
 
-        public static long unwrap(byte[] b) {
-            return ByteBuffer.wrap(b).getLong();
-        }
+    public long channels(int channelCount, int base10Pow, int batchSize) throws IOException, InterruptedException {
+        final long limit = (long) Math.pow(10, base10Pow);
+        TransferEngine engine = new TransferEngine(channelCount);
+        engine.setBatchSize(batchSize);
+        // measure raw loss, retransmission would hide it
+        engine.setReliable(false);
+        TransferResult result = engine.transfer(limit);
+        return result.getLost();
     }
 
     private static class Calculations {
@@ -0,0 +1,110 @@
+package com.czifrotech.rapidtransfer.unit;
+
+import com.czifrotech.rapidtransfer.io.BatchChunkSink;
+import com.czifrotech.rapidtransfer.io.BatchChunkSource;
+import com.czifrotech.rapidtransfer.io.BatchManifest;
+import com.czifrotech.rapidtransfer.util.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * @author Will Czifro
+ */
+public class BatchManifestUnitTest {
+
+    private Path source, destination;
+
+    @Before
+    public void setUp() throws IOException {
+        source = Files.createTempDirectory("rapidtransfer");
+        destination = Files.createTempDirectory("rapidtransfer");
+        Files.createDirectories(source.resolve("b/c"));
+        Files.write(source.resolve("a.txt"), new byte[300]);
+        Files.write(source.resolve("b/empty"), new byte[0]);
+        Files.write(source.resolve("b/c/large.bin"), new byte[2500]);
+        Files.write(source.resolve("b/small.txt"), new byte[10]);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtil.deleteRecursively(source);
+        FileUtil.deleteRecursively(destination);
+    }
+
+    @Test
+    public void testSmallFilesArePackedAndLargeOnesAligned() throws IOException {
+        BatchManifest manifest = BatchManifest.scan(source, 1024, 2048);
+
+        assertThat(manifest.getFileCount()).isEqualTo(4);
+        assertThat(manifest.getPath(0)).isEqualTo("a.txt");
+        assertThat(manifest.getPath(1)).isEqualTo("b/c/large.bin");
+        assertThat(manifest.getOffset(0)).isEqualTo(0);
+        assertThat(manifest.getOffset(1)).isEqualTo(1024);
+        assertThat(manifest.getOffset(2)).isEqualTo(3524);
+        assertThat(manifest.getOffset(3)).isEqualTo(3524);
+        assertThat(manifest.getTotalSize()).isEqualTo(3534);
+        assertThat(manifest.getChunkCount()).isEqualTo(4);
+        assertThat(manifest.locate(3524)).isEqualTo(3);
+        assertThat(manifest.locate(500)).isEqualTo(0);
+    }
+
+    @Test
+    public void testEncodeRoundTrip() throws IOException {
+        BatchManifest manifest = BatchManifest.scan(source, 1024, 2048);
+        BatchManifest decoded = BatchManifest.decode(manifest.encode());
+
+        assertThat(decoded.getFileCount()).isEqualTo(manifest.getFileCount());
+        assertThat(decoded.getTotalSize()).isEqualTo(manifest.getTotalSize());
+        for (int i = 0; i < manifest.getFileCount(); ++i) {
+            assertThat(decoded.getPath(i)).isEqualTo(manifest.getPath(i));
+            assertThat(decoded.getOffset(i)).isEqualTo(manifest.getOffset(i));
+            assertThat(decoded.getSize(i)).isEqualTo(manifest.getSize(i));
+        }
+    }
+
+    @Test
+    public void testPathsLeavingTheDirectoryAreRejected() {
+        byte[] path = "../escape".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer encoded = ByteBuffer.allocate(8 + 18 + path.length);
+        encoded.putInt(1024).putInt(1).putLong(0).putLong(1).putShort((short) path.length).put(path);
+        encoded.flip();
+
+        assertThatThrownBy(() -> BatchManifest.decode(encoded)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testChunksAreScatteredBackIntoFiles() throws IOException {
+        byte[] a = FileUtil.randomBytes(300, 1), large = FileUtil.randomBytes(2500, 2),
+                small = FileUtil.randomBytes(10, 3);
+        Files.write(source.resolve("a.txt"), a);
+        Files.write(source.resolve("b/c/large.bin"), large);
+        Files.write(source.resolve("b/small.txt"), small);
+        BatchManifest manifest = BatchManifest.scan(source, 1024, 2048);
+
+        try (BatchChunkSource src = new BatchChunkSource(source, manifest);
+             BatchChunkSink sink = new BatchChunkSink(destination, manifest)) {
+            ByteBuffer chunk = ByteBuffer.allocateDirect(1024);
+            // backwards, chunks land in any order
+            for (long seq = manifest.getChunkCount() - 1; seq >= 0; --seq) {
+                chunk.clear();
+                assertThat(src.read(seq, chunk)).isEqualTo(seq == 3 ? 462 : 1024);
+                chunk.flip();
+                sink.write(seq, chunk);
+            }
+        }
+
+        assertThat(Files.readAllBytes(destination.resolve("a.txt"))).isEqualTo(a);
+        assertThat(Files.readAllBytes(destination.resolve("b/c/large.bin"))).isEqualTo(large);
+        assertThat(Files.readAllBytes(destination.resolve("b/small.txt"))).isEqualTo(small);
+        assertThat(Files.size(destination.resolve("b/empty"))).isZero();
+    }
+}
@@ -0,0 +1,50 @@
+package com.czifrotech.rapidtransfer.unit;
+
+import com.czifrotech.rapidtransfer.collections.SequenceSet;
+import com.czifrotech.rapidtransfer.net.ControlCodec;
+import com.czifrotech.rapidtransfer.net.PacketCodec;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * @author Will Czifro
+ */
+public class ControlCodecUnitTest {
+
+    @Test
+    public void testNackRoundTrips() {
+        ByteBuffer buffer = nack();
+        int length = buffer.position();
+
+        assertThat(ControlCodec.isWholeNack(buffer, length)).isTrue();
+        assertThat(ControlCodec.decodeChannel(buffer)).isEqualTo(3);
+        assertThat(ControlCodec.decodeNackRangeCount(buffer)).isEqualTo(2);
+        assertThat(ControlCodec.decodeNackStart(buffer, 1)).isEqualTo(40);
+        assertThat(ControlCodec.decodeNackEnd(buffer, 1)).isEqualTo(45);
+    }
+
+    @Test
+    public void testTruncatedOrCorruptNackIsNotWhole() {
+        ByteBuffer buffer = nack();
+        int length = buffer.position();
+
+        assertThat(ControlCodec.isWholeNack(buffer, length - 1)).isFalse();
+        assertThat(ControlCodec.isWholeNack(buffer, ControlCodec.NACK_HEADER_SIZE - 1)).isFalse();
+        for (int count : new int[] {3, -1, Integer.MAX_VALUE, ControlCodec.MAX_NACK_RANGES + 1}) {
+            buffer.putInt(5, count);
+            assertThat(ControlCodec.isWholeNack(buffer, length)).as("%d ranges", count).isFalse();
+        }
+    }
+
+    private static ByteBuffer nack() {
+        SequenceSet missing = new SequenceSet();
+        missing.add(10, 20);
+        missing.add(40, 45);
+        ByteBuffer buffer = ByteBuffer.allocate(PacketCodec.MAX_DATAGRAM_SIZE);
+        assertThat(ControlCodec.encodeNack(buffer, 3, missing, 0)).isEqualTo(-1);
+        return buffer;
+    }
+}
@@ -0,0 +1,83 @@
+package com.czifrotech.rapidtransfer.unit;
+
+import com.czifrotech.rapidtransfer.cryptography.Crc32c;
+import com.czifrotech.rapidtransfer.cryptography.Crc32cTables;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * @author Will Czifro
+ */
+public class Crc32cUnitTest {
+
+    @Test
+    public void testCheckValue() {
+        Crc32c crc = new Crc32c();
+        crc.update(ByteBuffer.wrap("123456789".getBytes(StandardCharsets.US_ASCII)));
+
+        assertThat(crc.getValue()).isEqualTo(0xE3069283);
+    }
+
+    @Test
+    public void testTablesMatchTheCheckValue() {
+        Crc32c crc = Crc32cTables.create();
+        crc.update(ByteBuffer.wrap("123456789".getBytes(StandardCharsets.US_ASCII)));
+
+        assertThat(crc.getValue()).isEqualTo(0xE3069283);
+    }
+
+    @Test
+    public void testTablesMatchTheDefaultAcrossAlignments() {
+        byte[] data = new byte[1000];
+        new Random(5).nextBytes(data);
+        for (int off = 0; off < 9; ++off) {
+            Crc32c tables = Crc32cTables.create(), chosen = new Crc32c();
+            tables.update(data, off, data.length - off - 3);
+            chosen.update(data, off, data.length - off - 3);
+
+            assertThat(tables.getValue()).as("offset %d", off).isEqualTo(chosen.getValue());
+        }
+        Crc32c tables = Crc32cTables.create();
+        tables.update(data, 0, 10);
+        tables.reset();
+
+        assertThat(tables.getValue()).isZero();
+    }
+
+    @Test
+    public void testIncrementalUpdatesMatchOneUpdate() {
+        byte[] data = new byte[1000];
+        new Random(3).nextBytes(data);
+        Crc32c whole = new Crc32c(), pieces = new Crc32c();
+        whole.update(ByteBuffer.wrap(data));
+        pieces.update(data, 0, 13);
+        ByteBuffer direct = ByteBuffer.allocateDirect(987);
+        direct.put(data, 13, 987).flip();
+        pieces.update(direct);
+
+        assertThat(pieces.getValue()).isEqualTo(whole.getValue());
+    }
+
+    @Test
+    public void testUpdateConsumesTheBuffer() {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[20]);
+        buffer.position(4);
+        new Crc32c().update(buffer);
+
+        assertThat(buffer.position()).isEqualTo(20);
+    }
+
+    @Test
+    public void testReset() {
+        Crc32c crc = new Crc32c();
+        crc.update(new byte[] {1, 2, 3}, 0, 3);
+        crc.reset();
+
+        assertThat(crc.getValue()).isZero();
+    }
+}
@@ -0,0 +1,78 @@
+package com.czifrotech.rapidtransfer.unit;
+
+import com.czifrotech.rapidtransfer.reorder.ExternalSegmentReorderer;
+import com.czifrotech.rapidtransfer.util.FileUtil;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * @author Will Czifro
+ */
+public class ExternalSegmentReordererUnitTest {
+
+    @Test
+    public void testReordersThroughManyRuns() throws IOException {
+        // 64KB of memory against a 960KB file, dozens of windows
+        assertReorders(new ExternalSegmentReorderer(64 * 1024, null), 20000, 48);
+    }
+
+    @Test
+    public void testReordersInASingleWindow() throws IOException {
+        assertReorders(new ExternalSegmentReorderer(), 5000, 16);
+    }
+
+    @Test
+    public void testSpillsIntoTheGivenDirectory() throws IOException {
+        Path directory = Files.createTempDirectory("rapidtransfer");
+        try {
+            assertReorders(new ExternalSegmentReorderer(16 * 1024, directory), 3000, 8);
+            assertThat(directory.toFile().list()).isEmpty();
+        } finally {
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test
+    public void testRejectsADuplicateBeforeWritingAnything() throws IOException {
+        int count = 4000, segmentSize = 8;
+        int[] destinations = FileUtil.shuffled(count, new Random(3));
+        destinations[10] = destinations[11];
+        Path path = Files.createTempFile("rapidtransfer", ".segments");
+        Path index = Files.createTempFile("rapidtransfer", ".index");
+        try {
+            byte[] contents = FileUtil.segments(destinations, segmentSize);
+            Files.write(path, contents);
+            ExternalSegmentReorderer.writeIndex(index, destinations);
+
+            assertThatThrownBy(() -> new ExternalSegmentReorderer(16 * 1024, null).reorder(path, segmentSize, index))
+                    .isInstanceOf(IllegalArgumentException.class);
+            assertThat(Files.readAllBytes(path)).isEqualTo(contents);
+        } finally {
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(index);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsAMemoryLimitBelowOneSegment() throws IOException {
+        assertReorders(new ExternalSegmentReorderer(100, null), 10, 200);
+    }
+
+    private static void assertReorders(ExternalSegmentReorderer reorderer, int count, int segmentSize)
+            throws IOException {
+        int[] destinations = FileUtil.shuffled(count, new Random(count));
+        Path index = Files.createTempFile("rapidtransfer", ".index");
+        try {
+            ExternalSegmentReorderer.writeIndex(index, destinations);
+            FileUtil.assertReorders(destinations, segmentSize, path -> reorderer.reorder(path, segmentSize, index));
+        } finally {
+            Files.deleteIfExists(index);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.czifrotech.rapidtransfer.unit;
+
+import com.czifrotech.rapidtransfer.io.FileHandlePool;
+import com.czifrotech.rapidtransfer.io.FilePointerArray;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * @author Will Czifro
+ */
+public class FileHandlePoolUnitTest {
+
+    @Test
+    public void testMillionPointersOverFourHandles() throws IOException {
+        int records = 1000000, recordSize = 4;
+        Path path = Files.createTempFile("rapidtransfer", ".pointers");
+        try {
+            Files.write(path, new byte[records * recordSize]);
+            try (FileHandlePool pool = new FileHandlePool(path, 4)) {
+                FilePointerArray pointers = FilePointerArray.strided(pool, records, recordSize);
+                ByteBuffer record = ByteBuffer.allocateDirect(recordSize);
+                // write back to front, every pointer keeps its own place
+                for (int i = records - 1; i >= 0; --i) {
+                    record.clear();
+                    record.putInt(i).flip();
+                    pointers.write(i, record);
+                }
+                assertThat(pointers.getFilePointer(0)).isEqualTo(recordSize);
+
+                pointers.seek(records / 2, (long) records / 2 * recordSize);
+                record.clear();
+                assertThat(pointers.read(records / 2, record)).isEqualTo(recordSize);
+                assertThat(record.getInt(0)).isEqualTo(records / 2);
+            }
+            ByteBuffer contents = ByteBuffer.wrap(Files.readAllBytes(path));
+            for (int i = 0; i < records; ++i)
+                assertThat(contents.getInt()).isEqualTo(i);
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void testThreadsShareTheHandles() throws Exception {
+        int threads = 8, perThread = 5000;
+        Path path = Files.createTempFile("rapidtransfer", ".pointers");
+        try {
+            Files.write(path, new byte[threads * perThread * 8]);
+            try (FileHandlePool pool = new FileHandlePool(path, 2)) {
+                List<Thread> workers = new ArrayList<>();
+                List<Throwable> failures = new ArrayList<>();
+                for (int t = 0; t < threads; ++t) {
+                    final int id = t;
+                    Thread worker = new Thread(() -> {
+                        ByteBuffer value = ByteBuffer.allocate(8);
+                        try {
+                            for (int i = 0; i < perThread; ++i) {
+                                long slot = (long) i * threads + id;
+                                value.clear();
+                                value.putLong(slot).flip();
+                                pool.write(value, slot * 8);
+                            }
+                        } catch (IOException e) {
+                            synchronized (failures) {
+                                failures.add(e);
+                            }
+                        }
+                    });
+                    workers.add(worker);
+                    worker.start();
+                }
+                for (Thread worker : workers)
+                    worker.join();
+                assertThat(failures).isEmpty();
+            }
+            ByteBuffer contents = ByteBuffer.wrap(Files.readAllBytes(path));
+            for (long i = 0; i < threads * perThread; ++i)
+                assertThat(contents.getLong()).isEqualTo(i);
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void testReadPastTheEnd() throws IOException {
+        Path path = Files.createTempFile("rapidtransfer", ".pointers");
+        try {
+            Files.write(path, new byte[10]);
+            try (FileHandlePool pool = new FileHandlePool(path, 1)) {
+                FilePointerArray pointers = new FilePointerArray(pool, 1);
+                pointers.seek(0, 6);
+                ByteBuffer dst = ByteBuffer.allocate(8);
+                assertThat(pointers.read(0, dst)).isEqualTo(4);
+                assertThat(pointers.read(0, dst)).isEqualTo(-1);
+                assertThat(pointers.getFilePointer(0)).isEqualTo(10);
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}
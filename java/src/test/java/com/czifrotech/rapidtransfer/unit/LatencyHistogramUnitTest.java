@@ -0,0 +1,85 @@
+package com.czifrotech.rapidtransfer.unit;
+
+import com.czifrotech.rapidtransfer.diagnostics.LatencyHistogram;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * @author Will Czifro
+ */
+public class LatencyHistogramUnitTest {
+
+    @Test
+    public void testPercentilesWithinOnePercent() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(3);
+        long[] values = new long[100000];
+        for (int i = 0; i < values.length; ++i) {
+            // log-uniform from a nanosecond to ten seconds
+            values[i] = (long) Math.exp(random.nextDouble() * Math.log(1e10));
+            histogram.recordValue(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double percentile : new double[]{1, 50, 90, 99, 99.9, 100}) {
+            long expected = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            assertThat(histogram.getValueAtPercentile(percentile))
+                    .isBetween(expected, Math.max(expected + 1, (long) (expected * 1.01)));
+        }
+        assertThat(histogram.getMax()).isEqualTo(values[values.length - 1]);
+        assertThat(histogram.getCount()).isEqualTo(values.length);
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 0; value < 200; ++value)
+            histogram.recordValue(value);
+
+        assertThat(histogram.getValueAtPercentile(50)).isEqualTo(99);
+        assertThat(histogram.getValueAtPercentile(100)).isEqualTo(199);
+        assertThat(histogram.getMean()).isEqualTo(99.5);
+    }
+
+    @Test
+    public void testLargestValue() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordValue(Long.MAX_VALUE);
+
+        assertThat(histogram.getValueAtPercentile(99.9)).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testCountIsExactAcrossThreads() throws InterruptedException {
+        int threadCount = 8, perThread = 100000;
+        LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; ++i) {
+            final long value = 1000L * (i + 1);
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < perThread; ++j)
+                    histogram.recordValue(value);
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        assertThat(histogram.getCount()).isEqualTo((long) threadCount * perThread);
+        assertThat(histogram.getMax()).isEqualTo(1000L * threadCount);
+    }
+
+    @Test
+    public void testReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordValue(12345);
+        histogram.reset();
+
+        assertThat(histogram.getCount()).isZero();
+        assertThat(histogram.getValueAtPercentile(99)).isZero();
+    }
+}
@@ -0,0 +1,56 @@
+package com.czifrotech.rapidtransfer.unit;
+
+import com.czifrotech.rapidtransfer.io.MappedFileChunkSink;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * @author Will Czifro
+ */
+public class MappedFileChunkSinkUnitTest {
+
+    @Test
+    public void testChunksAcrossWindowsLandInOrder() throws IOException {
+        int chunkSize = 10, chunks = 9;
+        long size = chunkSize * chunks - 4; // short last chunk
+        Path path = Files.createTempFile("rapidtransfer", ".mapped");
+        try {
+            // a 35 byte window rounds down to 30, three chunks per window
+            try (MappedFileChunkSink sink = new MappedFileChunkSink(path, chunkSize, size, 35)) {
+                assertThat(sink.getWindowCount()).isEqualTo(3);
+                for (int seq = chunks - 1; seq >= 0; --seq)
+                    sink.write(seq, chunk(seq, seq == chunks - 1 ? chunkSize - 4 : chunkSize));
+            }
+
+            byte[] contents = Files.readAllBytes(path);
+            assertThat(contents.length).isEqualTo((int) size);
+            for (int i = 0; i < contents.length; ++i)
+                assertThat(contents[i]).isEqualTo((byte) (i / chunkSize));
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsChunkPastEndOfFile() throws IOException {
+        Path path = Files.createTempFile("rapidtransfer", ".mapped");
+        try (MappedFileChunkSink sink = new MappedFileChunkSink(path, 10, 20)) {
+            sink.write(2, chunk(2, 10));
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private static ByteBuffer chunk(int seq, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; ++i)
+            bytes[i] = (byte) seq;
+        return ByteBuffer.wrap(bytes);
+    }
+}
@@ -0,0 +1,96 @@
+package com.czifrotech.rapidtransfer.unit;
+
+import com.czifrotech.rapidtransfer.io.MappedFileChunkSource;
+import com.czifrotech.rapidtransfer.net.SequenceRange;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * @author Will Czifro
+ */
+public class MappedFileChunkSourceUnitTest {
+
+    @Test
+    public void testChunksAcrossPartitionsAndWindows() throws IOException, InterruptedException {
+        int chunkSize = 10, partitions = 3;
+        byte[] data = new byte[chunkSize * 23 - 4]; // short last chunk
+        new Random(19).nextBytes(data);
+        Path path = Files.createTempFile("rapidtransfer", ".mapped");
+        try {
+            Files.write(path, data);
+            // partitions of 8, 8 and 7 chunks in windows of at most 3 chunks
+            try (MappedFileChunkSource source = new MappedFileChunkSource(path, chunkSize, partitions, 35, 64)) {
+                assertThat(source.getChunkCount()).isEqualTo(23);
+                assertThat(source.getWindowCount()).isEqualTo(9);
+
+                // one sender per partition, as in the engine
+                SequenceRange[] stripes = SequenceRange.stripe(source.getChunkCount(), partitions);
+                byte[] read = new byte[data.length];
+                Thread[] senders = new Thread[partitions];
+                for (int i = 0; i < partitions; ++i) {
+                    SequenceRange stripe = stripes[i];
+                    senders[i] = new Thread(() -> {
+                        ByteBuffer dst = ByteBuffer.allocateDirect(chunkSize);
+                        try {
+                            for (long seq = stripe.getStart(); seq < stripe.getEnd(); ++seq) {
+                                dst.clear();
+                                int length = source.read(seq, dst);
+                                dst.flip();
+                                dst.get(read, (int) seq * chunkSize, length);
+                            }
+                        } catch (IOException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    });
+                    senders[i].start();
+                }
+                for (Thread sender : senders)
+                    sender.join();
+
+                assertThat(read).isEqualTo(data);
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void testMorePartitionsThanChunks() throws IOException {
+        byte[] data = new byte[25];
+        Arrays.fill(data, (byte) 7);
+        Path path = Files.createTempFile("rapidtransfer", ".mapped");
+        try {
+            Files.write(path, data);
+            try (MappedFileChunkSource source = new MappedFileChunkSource(path, 10, 5)) {
+                ByteBuffer dst = ByteBuffer.allocate(10);
+
+                assertThat(source.getWindowCount()).isEqualTo(3);
+                assertThat(source.read(2, dst)).isEqualTo(5);
+                assertThat(dst.position()).isEqualTo(5);
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsChunkPastEndOfFile() throws IOException {
+        Path path = Files.createTempFile("rapidtransfer", ".mapped");
+        try {
+            Files.write(path, new byte[20]);
+            try (MappedFileChunkSource source = new MappedFileChunkSource(path, 10, 2)) {
+                source.read(2, ByteBuffer.allocate(10));
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.czifrotech.rapidtransfer.unit;
+
+import com.czifrotech.rapidtransfer.cryptography.Checksum;
+import com.czifrotech.rapidtransfer.cryptography.MerkleHasher;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * @author Will Czifro
+ */
+public class MerkleHasherUnitTest {
+
+    @Test
+    public void testRootOfThreeChunks() throws Exception {
+        byte[][] chunks = {{1}, {2, 2}, {3, 3, 3}};
+        MerkleHasher hasher = new MerkleHasher(10, 3);
+        for (int i = 0; i < chunks.length; ++i)
+            hasher.addChunk(10 + i, ByteBuffer.wrap(chunks[i]));
+
+        // the third leaf has no sibling and is carried up unchanged
+        byte[] expected = hash(1, hash(1, hash(0, chunks[0]), hash(0, chunks[1])), hash(0, chunks[2]));
+        assertThat(hasher.isComplete()).isTrue();
+        assertThat(hasher.getRoot()).isEqualTo(expected);
+    }
+
+    @Test
+    public void testRootDoesNotDependOnArrivalOrder() {
+        int count = 1000;
+        Random random = new Random(9);
+        byte[][] chunks = new byte[count][];
+        for (int i = 0; i < count; ++i) {
+            chunks[i] = new byte[random.nextInt(64)];
+            random.nextBytes(chunks[i]);
+        }
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < count; ++i)
+            order.add(i);
+        Collections.shuffle(order, random);
+
+        MerkleHasher inOrder = new MerkleHasher(0, count), shuffled = new MerkleHasher(0, count);
+        for (int i = 0; i < count; ++i)
+            inOrder.addChunk(i, ByteBuffer.wrap(chunks[i]));
+        for (int i = 0; i < count - 1; ++i)
+            shuffled.addChunk(order.get(i), ByteBuffer.wrap(chunks[order.get(i)]));
+
+        assertThat(shuffled.isComplete()).isFalse();
+        assertThat(shuffled.getRoot()).isNull();
+        shuffled.addChunk(order.get(count - 1), ByteBuffer.wrap(chunks[order.get(count - 1)]));
+        assertThat(shuffled.getRoot()).isEqualTo(inOrder.getRoot());
+    }
+
+    @Test
+    public void testAddChunkLeavesPositionAlone() {
+        ByteBuffer chunk = ByteBuffer.wrap(new byte[8]);
+        chunk.position(2);
+        new MerkleHasher(0, 2).addChunk(0, chunk);
+
+        assertThat(chunk.position()).isEqualTo(2);
+    }
+
+    @Test
+    public void testChunkAddedTwiceIsRejected() {
+        MerkleHasher hasher = new MerkleHasher(0, 4);
+        hasher.addChunk(1, ByteBuffer.wrap(new byte[] {1}));
+
+        assertThatThrownBy(() -> hasher.addChunk(1, ByteBuffer.wrap(new byte[] {1})))
+                .isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> hasher.addChunk(4, ByteBuffer.wrap(new byte[] {1})))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testChecksumsRoundTripAndCompare() {
+        Checksum[] expected = {new Checksum(new byte[] {1, 2}, 0), new Checksum(new byte[] {3, 4}, 100),
+                new Checksum(new byte[] {5, 6}, 200)};
+        Checksum[] actual = Checksum.deserialize(Checksum.serialize(expected), 2);
+
+        assertThat(actual).isEqualTo(expected);
+        assertThat(Checksum.compare(expected, actual)).isEmpty();
+        actual[1] = new Checksum(new byte[] {3, 5}, 100);
+        actual[2] = new Checksum(null, 200);
+        assertThat(Checksum.compare(expected, actual)).containsExactly(expected[1], expected[2]);
+    }
+
+    private static byte[] hash(int prefix, byte[]... parts) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update((byte) prefix);
+        for (byte[] part : parts)
+            digest.update(part);
+        return digest.digest();
+    }
+}
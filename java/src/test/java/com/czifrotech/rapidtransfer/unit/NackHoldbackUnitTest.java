@@ -0,0 +1,73 @@
+package com.czifrotech.rapidtransfer.unit;
+
+import com.czifrotech.rapidtransfer.collections.SequenceSet;
+import com.czifrotech.rapidtransfer.net.NackHoldback;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * @author Will Czifro
+ */
+public class NackHoldbackUnitTest {
+
+    @Test
+    public void testRangesAreHeldBackUntilTheHoldPasses() {
+        NackHoldback holdback = new NackHoldback();
+        holdback.hold(10, 20, 100);
+        holdback.hold(30, 40, 150);
+
+        SequenceSet due = missing();
+        holdback.removeFrom(due, 160, 100);
+        assertThat(due.toString()).isEqualTo("{[0, 10), [20, 30), [40, 50), [300, 400)}");
+
+        // the first round's hold has passed, the second's has not
+        due = missing();
+        holdback.removeFrom(due, 200, 100);
+        assertThat(due.toString()).isEqualTo("{[0, 30), [40, 50), [300, 400)}");
+        assertThat(holdback.isHeld(15)).isTrue();
+    }
+
+    @Test
+    public void testRepairIsTimedOnlyFromASingleRound() {
+        NackHoldback holdback = new NackHoldback();
+        holdback.hold(10, 20, 100);
+        holdback.hold(15, 25, 200);
+
+        assertThat(holdback.heldSince(12)).isEqualTo(100);
+        assertThat(holdback.heldSince(22)).isEqualTo(200);
+        assertThat(holdback.heldSince(17)).isEqualTo(-1);
+        assertThat(holdback.heldSince(30)).isEqualTo(-1);
+
+        holdback.expire(250, 100);
+        assertThat(holdback.heldSince(17)).isEqualTo(200);
+        assertThat(holdback.isHeld(12)).isFalse();
+        holdback.expire(300, 100);
+        assertThat(holdback.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testManyRoundsWrapTheRing() {
+        NackHoldback holdback = new NackHoldback();
+        for (int round = 0; round < 40; ++round) {
+            holdback.hold(round * 10, round * 10 + 5, round);
+            holdback.expire(round, 20);
+        }
+
+        // rounds 20 to 39 are remembered, and 31 to 39 still hold their ranges back
+        SequenceSet due = missing();
+        holdback.removeFrom(due, 40, 10);
+        assertThat(due.count(0, 50)).isEqualTo(50);
+        assertThat(due.count(300, 400)).isEqualTo(100 - 9 * 5);
+        assertThat(holdback.heldSince(192)).isEqualTo(-1);
+        assertThat(holdback.heldSince(212)).isEqualTo(21);
+        assertThat(holdback.heldSince(392)).isEqualTo(39);
+    }
+
+    private static SequenceSet missing() {
+        SequenceSet missing = new SequenceSet();
+        missing.add(0, 50);
+        missing.add(300, 400);
+        return missing;
+    }
+}
@@ -0,0 +1,42 @@
+package com.czifrotech.rapidtransfer.unit;
+
+import com.czifrotech.rapidtransfer.net.PacketCodec;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * @author Will Czifro
+ */
+public class PacketCodecUnitTest {
+
+    @Test
+    public void testSealedRecordVerifies() {
+        ByteBuffer buffer = record(42, new byte[] {1, 2, 3, 4, 5});
+
+        assertThat(PacketCodec.verify(buffer, 0)).isTrue();
+        assertThat(PacketCodec.decodeSeq(buffer, 0)).isEqualTo(42);
+        assertThat(PacketCodec.decodeLength(buffer, 0)).isEqualTo(5);
+        assertThat(buffer.position()).isEqualTo(PacketCodec.HEADER_SIZE + 5);
+    }
+
+    @Test
+    public void testFlippedBitFailsVerification() {
+        for (int i = 0; i < PacketCodec.HEADER_SIZE + 5; ++i) {
+            ByteBuffer buffer = record(42, new byte[] {1, 2, 3, 4, 5});
+            buffer.put(i, (byte) (buffer.get(i) ^ 0x10));
+
+            assertThat(PacketCodec.verify(buffer, 0)).as("byte %d flipped", i).isFalse();
+        }
+    }
+
+    private static ByteBuffer record(long seq, byte[] data) {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        PacketCodec.encodeHeader(buffer, seq, data.length);
+        buffer.put(data);
+        PacketCodec.seal(buffer, 0);
+        return buffer;
+    }
+}
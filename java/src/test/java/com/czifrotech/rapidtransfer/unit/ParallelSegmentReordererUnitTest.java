@@ -0,0 +1,54 @@
+package com.czifrotech.rapidtransfer.unit;
+
+import com.czifrotech.rapidtransfer.reorder.ParallelSegmentReorderer;
+import com.czifrotech.rapidtransfer.util.FileUtil;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * @author Will Czifro
+ */
+public class ParallelSegmentReordererUnitTest {
+
+    @Test
+    public void testCutsLongCyclesIntoPieces() throws IOException {
+        assertReorders(new ParallelSegmentReorderer(4, 64), FileUtil.shuffled(20000, new Random(5)), 16);
+    }
+
+    @Test
+    public void testOneCycleThroughTheWholeFile() throws IOException {
+        int[] destinations = new int[5000];
+        for (int i = 0; i < destinations.length; ++i)
+            destinations[i] = (i + 1) % destinations.length;
+        assertReorders(new ParallelSegmentReorderer(8, 100), destinations, 8);
+    }
+
+    @Test
+    public void testGroupsShortCycles() throws IOException {
+        // every segment swapped with its neighbour, 5000 cycles of two
+        int[] destinations = new int[10000];
+        for (int i = 0; i < destinations.length; ++i)
+            destinations[i] = i ^ 1;
+        assertReorders(new ParallelSegmentReorderer(4, 256), destinations, 12);
+    }
+
+    @Test
+    public void testLeavesAnOrderedFileAlone() throws IOException {
+        int[] destinations = new int[1000];
+        for (int i = 0; i < destinations.length; ++i)
+            destinations[i] = i;
+        assertReorders(new ParallelSegmentReorderer(), destinations, 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsWhatIsNotAPermutation() throws IOException {
+        assertReorders(new ParallelSegmentReorderer(), new int[]{1, 2, 1}, 4);
+    }
+
+    private static void assertReorders(ParallelSegmentReorderer reorderer, int[] destinations, int segmentSize)
+            throws IOException {
+        FileUtil.assertReorders(destinations, segmentSize, path -> reorderer.reorder(path, segmentSize, destinations));
+    }
+}
@@ -0,0 +1,111 @@
+package com.czifrotech.rapidtransfer.unit;
+
+import com.czifrotech.rapidtransfer.net.ParityBlock;
+import com.czifrotech.rapidtransfer.net.SequenceRange;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * @author Will Czifro
+ */
+public class ParityBlockUnitTest {
+
+    private static final int CHUNK_SIZE = 21;
+    private static final int PER_DATAGRAM = 4;
+
+    @Test
+    public void testRebuildsTheDatagramLostFromABlock() {
+        // 3 datagrams of 4 chunks, the stripe's last chunk short
+        SequenceRange stripe = new SequenceRange(100, 112);
+        byte[][] chunks = chunks(12, 13);
+        ParityBlock sent = new ParityBlock(stripe, 100, 3, PER_DATAGRAM, CHUNK_SIZE);
+        for (int slot = 0; slot < 3; ++slot) {
+            for (int position = 0; position < PER_DATAGRAM; ++position)
+                fold(sent, position, chunks[slot * PER_DATAGRAM + position]);
+            assertThat(sent.addDatagram()).isEqualTo(slot == 2);
+        }
+
+        ParityBlock received = new ParityBlock(stripe, 100, 3, PER_DATAGRAM, CHUNK_SIZE);
+        for (long seq = 100; seq < 112; ++seq) {
+            if (received.slotOf(seq) == 2)
+                continue; // the last datagram is lost
+            int position = received.positionOf(seq);
+            fold(received, position, chunks[(int) (seq - 100)]);
+            assertThat(received.arrive(position, 1L << received.slotOf(seq))).isEqualTo(-1);
+        }
+        for (int position = 0; position < PER_DATAGRAM; ++position) {
+            ByteBuffer parity = ByteBuffer.allocate(CHUNK_SIZE + ParityBlock.LENGTH_SIZE);
+            assertThat(sent.write(position, parity, true)).isEqualTo(CHUNK_SIZE + ParityBlock.LENGTH_SIZE);
+            received.xorParity(position, parity, 0);
+            assertThat(received.arrive(position, ParityBlock.PARITY_BIT)).isEqualTo(2);
+
+            ByteBuffer rebuilt = ByteBuffer.allocate(CHUNK_SIZE);
+            received.write(position, rebuilt, false);
+            rebuilt.flip();
+            assertThat(received.seqOf(2, position)).isEqualTo(108 + position);
+            assertThat(bytes(rebuilt)).isEqualTo(chunks[8 + position]);
+        }
+        assertThat(received.isWhole()).isTrue();
+    }
+
+    @Test
+    public void testTwoLossesAtAPositionAreLeftToRetransmission() {
+        SequenceRange stripe = new SequenceRange(0, 12);
+        byte[][] chunks = chunks(12, CHUNK_SIZE);
+        ParityBlock sent = new ParityBlock(stripe, 0, 3, PER_DATAGRAM, CHUNK_SIZE);
+        for (int i = 0; i < 12; ++i)
+            fold(sent, i % PER_DATAGRAM, chunks[i]);
+
+        ParityBlock received = new ParityBlock(stripe, 0, 3, PER_DATAGRAM, CHUNK_SIZE);
+        fold(received, 1, chunks[1]);
+        assertThat(received.arrive(1, 1L)).isEqualTo(-1);
+        ByteBuffer parity = ByteBuffer.allocate(CHUNK_SIZE + ParityBlock.LENGTH_SIZE);
+        sent.write(1, parity, true);
+        received.xorParity(1, parity, 0);
+        assertThat(received.arrive(1, ParityBlock.PARITY_BIT)).isEqualTo(-1);
+        assertThat(received.isWhole()).isFalse();
+    }
+
+    @Test
+    public void testShortTailBlockHasFewerMembers() {
+        // the stripe's last block holds 6 records: a full datagram and one of 2
+        SequenceRange stripe = new SequenceRange(0, 18);
+        assertThat(ParityBlock.firstOf(stripe, 17, 3, PER_DATAGRAM)).isEqualTo(12);
+        ParityBlock block = new ParityBlock(stripe, 12, 3, PER_DATAGRAM, CHUNK_SIZE);
+        assertThat(block.getPositions()).isEqualTo(PER_DATAGRAM);
+        assertThat(block.addDatagram()).isFalse();
+        assertThat(block.addDatagram()).isTrue();
+
+        // position 3 only has the first datagram, so its parity alone rebuilds it
+        assertThat(block.arrive(3, ParityBlock.PARITY_BIT)).isEqualTo(0);
+        assertThat(block.arrive(0, 1L)).isEqualTo(-1);
+        assertThat(block.arrive(0, 1L << 1)).isEqualTo(-1);
+        assertThat(block.arrive(0, ParityBlock.PARITY_BIT)).isEqualTo(-1);
+        assertThat(block.arrive(0, ParityBlock.PARITY_BIT)).isEqualTo(-1);
+        assertThat(block.isWhole()).isFalse();
+    }
+
+    private static byte[][] chunks(int count, int lastLength) {
+        Random random = new Random(count);
+        byte[][] chunks = new byte[count][];
+        for (int i = 0; i < count; ++i) {
+            chunks[i] = new byte[i == count - 1 ? lastLength : CHUNK_SIZE];
+            random.nextBytes(chunks[i]);
+        }
+        return chunks;
+    }
+
+    private static void fold(ParityBlock block, int position, byte[] chunk) {
+        block.xor(position, ByteBuffer.wrap(chunk), 0, chunk.length);
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,104 @@
+package com.czifrotech.rapidtransfer.unit;
+
+import com.czifrotech.rapidtransfer.collections.SequenceSet;
+import com.czifrotech.rapidtransfer.io.ChunkSink;
+import com.czifrotech.rapidtransfer.io.ReceiveCheckpoint;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * @author Will Czifro
+ */
+public class ReceiveCheckpointUnitTest {
+
+    private Path destination;
+
+    @Before
+    public void setUp() throws IOException {
+        destination = Files.createTempFile("rapidtransfer", ".dst");
+        Files.write(destination, new byte[10000]);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(ReceiveCheckpoint.sidecar(destination));
+        Files.deleteIfExists(destination);
+    }
+
+    @Test
+    public void testSavedRangesAreRestored() throws IOException {
+        ReceiveCheckpoint checkpoint = ReceiveCheckpoint.open(destination, 10000, 100, 2);
+        for (long seq = 0; seq < 20; ++seq)
+            checkpoint.markReceived(0, seq);
+        checkpoint.markReceived(1, 50);
+        checkpoint.markReceived(1, 99);
+
+        assertThat(checkpoint.save(ChunkSink.discard())).isTrue();
+        assertThat(checkpoint.save(ChunkSink.discard())).isFalse();
+
+        ReceiveCheckpoint reopened = ReceiveCheckpoint.open(destination, 10000, 100, 4);
+        SequenceSet restored = reopened.getRestored();
+        assertThat(restored.runCount()).isEqualTo(3);
+        assertThat(restored.cardinality()).isEqualTo(22);
+        assertThat(restored.contains(99)).isTrue();
+        assertThat(reopened.isComplete()).isFalse();
+    }
+
+    @Test
+    public void testSaveForcesTheSinkFirst() throws IOException {
+        ReceiveCheckpoint checkpoint = ReceiveCheckpoint.open(destination, 10000, 100, 1);
+        checkpoint.markReceived(0, 7);
+        int[] forced = new int[1];
+        ChunkSink sink = new ChunkSink() {
+            @Override
+            public void write(long seq, ByteBuffer src) {
+            }
+
+            @Override
+            public void force() {
+                assertThat(Files.exists(ReceiveCheckpoint.sidecar(destination))).isFalse();
+                ++forced[0];
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        checkpoint.save(sink);
+
+        assertThat(forced[0]).isEqualTo(1);
+        assertThat(Files.exists(ReceiveCheckpoint.sidecar(destination))).isTrue();
+    }
+
+    @Test
+    public void testCheckpointOfAnotherTransferIsIgnored() throws IOException {
+        ReceiveCheckpoint checkpoint = ReceiveCheckpoint.open(destination, 10000, 100, 1);
+        checkpoint.markReceived(0, 3);
+        checkpoint.save(ChunkSink.discard());
+
+        assertThat(ReceiveCheckpoint.open(destination, 10000, 200, 1).getRestored().isEmpty()).isTrue();
+        Files.write(destination, new byte[9000]);
+        assertThat(ReceiveCheckpoint.open(destination, 10000, 100, 1).getRestored().isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testDamagedCheckpointIsIgnored() throws IOException {
+        ReceiveCheckpoint checkpoint = ReceiveCheckpoint.open(destination, 10000, 100, 1);
+        checkpoint.markReceived(0, 3);
+        checkpoint.save(ChunkSink.discard());
+        Path sidecar = ReceiveCheckpoint.sidecar(destination);
+        byte[] bytes = Files.readAllBytes(sidecar);
+        bytes[bytes.length - 10] ^= 1;
+        Files.write(sidecar, bytes);
+
+        assertThat(ReceiveCheckpoint.open(destination, 10000, 100, 1).getRestored().isEmpty()).isTrue();
+    }
+}
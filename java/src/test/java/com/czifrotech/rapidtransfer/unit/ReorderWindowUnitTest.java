@@ -0,0 +1,87 @@
+package com.czifrotech.rapidtransfer.unit;
+
+import com.czifrotech.rapidtransfer.collections.SequenceSet;
+import com.czifrotech.rapidtransfer.net.ReorderWindow;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * @author Will Czifro
+ */
+public class ReorderWindowUnitTest {
+
+    @Test
+    public void testLateArrivalInsideTheWindowIsNotLost() {
+        ReorderWindow window = new ReorderWindow(3, 1000);
+        SequenceSet lost = new SequenceSet();
+        window.open(5, 6, 0);
+        window.expire(6, 0, lost::add);
+        window.expire(7, 0, lost::add);
+
+        assertThat(window.fill(5)).isTrue();
+        window.expire(8, 0, lost::add);
+        assertThat(lost.isEmpty()).isTrue();
+        assertThat(window.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testGapIsLostOnceThresholdPacketsPassIt() {
+        ReorderWindow window = new ReorderWindow(3, 1000);
+        SequenceSet lost = new SequenceSet();
+        window.open(5, 8, 0);
+        assertThat(window.fill(6)).isTrue();
+        window.expire(9, 0, lost::add);
+        assertThat(lost.isEmpty()).isTrue();
+
+        window.expire(10, 0, lost::add);
+        assertThat(lost.toString()).isEqualTo("{[5, 6), [7, 8)}");
+        assertThat(window.fill(5)).isFalse();
+        assertThat(window.pending()).isZero();
+    }
+
+    @Test
+    public void testGapIsLostOnceItTimesOut() {
+        ReorderWindow window = new ReorderWindow(100, 1000);
+        SequenceSet lost = new SequenceSet();
+        window.open(0, 2, 0);
+        window.open(3, 4, 500);
+        window.expire(4, 999, lost::add);
+        assertThat(lost.isEmpty()).isTrue();
+
+        window.expire(4, 1000, lost::add);
+        assertThat(lost.toString()).isEqualTo("{[0, 2)}");
+        window.expire(4, 1500, lost::add);
+        assertThat(lost.toString()).isEqualTo("{[0, 2), [3, 4)}");
+    }
+
+    @Test
+    public void testThresholdOfOneLosesEveryGapAtOnce() {
+        ReorderWindow window = new ReorderWindow(1, 1000);
+        SequenceSet lost = new SequenceSet();
+        window.open(0, 4, 0);
+        window.expire(4, 0, lost::add);
+
+        assertThat(lost.cardinality()).isEqualTo(4);
+    }
+
+    @Test
+    public void testManyGapsAcrossGrowthAndFlush() {
+        ReorderWindow window = new ReorderWindow(10, 1000);
+        SequenceSet lost = new SequenceSet();
+        for (long seq = 0; seq < 10; seq += 2)
+            window.open(seq, seq + 1, 0);
+        window.fill(4);
+        // expires the first two gaps, so the ring wraps before it grows
+        window.expire(12, 0, lost::add);
+        assertThat(lost.cardinality()).isEqualTo(2);
+        for (long seq = 10; seq < 100; seq += 2)
+            window.open(seq, seq + 1, 0);
+        window.flush(lost::add);
+
+        assertThat(lost.cardinality()).isEqualTo(49);
+        assertThat(lost.contains(4)).isFalse();
+        assertThat(lost.contains(98)).isTrue();
+        assertThat(window.isEmpty()).isTrue();
+    }
+}
@@ -0,0 +1,66 @@
+package com.czifrotech.rapidtransfer.unit;
+
+import com.czifrotech.rapidtransfer.reorder.SegmentReorderer;
+import com.czifrotech.rapidtransfer.util.FileUtil;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * @author Will Czifro
+ */
+public class SegmentReordererUnitTest {
+
+    @Test
+    public void testReordersInMemory() throws IOException {
+        assertReorders(new SegmentReorderer(), 10000, 12);
+    }
+
+    @Test
+    public void testFollowsCyclesOnDiskPastTheMemoryLimit() throws IOException {
+        assertReorders(new SegmentReorderer(1024), 5000, 12);
+    }
+
+    @Test
+    public void testStagesMoreThanOneWrite() throws IOException {
+        // 80000 segments of 64 bytes, larger than the 4MB staging buffer
+        assertReorders(new SegmentReorderer(), 80000, 64);
+    }
+
+    @Test
+    public void testReusesItsBuffersAcrossFiles() throws IOException {
+        SegmentReorderer reorderer = new SegmentReorderer();
+        assertReorders(reorderer, 3000, 8);
+        assertReorders(reorderer, 1000, 8);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsWhatIsNotAPermutation() throws IOException {
+        Path path = Files.createTempFile("rapidtransfer", ".segments");
+        try {
+            Files.write(path, new byte[3 * 4]);
+            new SegmentReorderer().reorder(path, 4, new int[]{0, 1, 1});
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsPartialSegments() throws IOException {
+        Path path = Files.createTempFile("rapidtransfer", ".segments");
+        try {
+            Files.write(path, new byte[3 * 4 + 1]);
+            new SegmentReorderer().reorder(path, 4, new int[]{0, 1, 2});
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private static void assertReorders(SegmentReorderer reorderer, int count, int segmentSize) throws IOException {
+        int[] destinations = FileUtil.shuffled(count, new Random(count));
+        FileUtil.assertReorders(destinations, segmentSize, path -> reorderer.reorder(path, segmentSize, destinations));
+    }
+}
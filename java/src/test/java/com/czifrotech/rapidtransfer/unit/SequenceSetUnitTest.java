@@ -0,0 +1,89 @@
+package com.czifrotech.rapidtransfer.unit;
+
+import com.czifrotech.rapidtransfer.collections.SequenceSet;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * @author Will Czifro
+ */
+public class SequenceSetUnitTest {
+
+    @Test
+    public void testAdjacentAddsCollapseIntoOneRun() {
+        SequenceSet set = new SequenceSet();
+        for (long i = 0; i < 1000; ++i)
+            set.add(i);
+
+        assertThat(set.runCount()).isEqualTo(1);
+        assertThat(set.cardinality()).isEqualTo(1000);
+    }
+
+    @Test
+    public void testAddBridgesRuns() {
+        SequenceSet set = new SequenceSet();
+        set.add(0, 5);
+        set.add(10, 15);
+        set.add(20, 25);
+        set.add(4, 21);
+
+        assertThat(set.toString()).isEqualTo("{[0, 25)}");
+        assertThat(set.cardinality()).isEqualTo(25);
+    }
+
+    @Test
+    public void testRemoveSplitsRun() {
+        SequenceSet set = new SequenceSet();
+        set.add(0, 10);
+
+        assertThat(set.remove(5)).isTrue();
+        assertThat(set.remove(5)).isFalse();
+        assertThat(set.toString()).isEqualTo("{[0, 5), [6, 10)}");
+        assertThat(set.cardinality()).isEqualTo(9);
+    }
+
+    @Test
+    public void testRangeQueries() {
+        SequenceSet set = new SequenceSet();
+        set.add(0, 10);
+        set.add(20, 30);
+        List<String> visited = new ArrayList<>();
+        set.forEachRange(5, 25, (s, e) -> visited.add(s + "-" + e));
+
+        assertThat(visited).containsExactly("5-10", "20-25");
+        assertThat(set.count(5, 25)).isEqualTo(10);
+        assertThat(set.contains(9)).isTrue();
+        assertThat(set.contains(10)).isFalse();
+    }
+
+    @Test
+    public void testMatchesBitSetUnderRandomOperations() {
+        Random rand = new Random(42);
+        SequenceSet set = new SequenceSet();
+        BitSet expected = new BitSet();
+        for (int i = 0; i < 20000; ++i) {
+            int start = rand.nextInt(5000), end = start + rand.nextInt(20);
+            if (rand.nextInt(3) == 0) {
+                long removed = set.remove(start, end);
+                assertThat(removed).isEqualTo(expected.get(start, end).cardinality());
+                expected.clear(start, end);
+            } else {
+                set.add(start, end);
+                expected.set(start, end);
+            }
+        }
+
+        assertThat(set.cardinality()).isEqualTo(expected.cardinality());
+        for (int i = 0; i < 5100; ++i) {
+            assertThat(set.contains(i)).isEqualTo(expected.get(i));
+            assertThat(set.nextSet(i)).isEqualTo(expected.nextSetBit(i));
+            assertThat(set.nextClear(i)).isEqualTo(expected.nextClearBit(i));
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.czifrotech.rapidtransfer.unit;
+
+import com.czifrotech.rapidtransfer.diagnostics.StripedCounter;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * @author Will Czifro
+ */
+public class StripedCounterUnitTest {
+
+    @Test
+    public void testSumIsExactAcrossThreads() throws InterruptedException {
+        int stripes = 8, perThread = 100000;
+        StripedCounter counter = new StripedCounter(stripes);
+        Thread[] threads = new Thread[stripes];
+        for (int i = 0; i < stripes; ++i) {
+            final int stripe = i;
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < perThread; ++j)
+                    counter.increment(stripe);
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        assertThat(counter.sum()).isEqualTo((long) stripes * perThread);
+        assertThat(counter.get(3)).isEqualTo(perThread);
+    }
+
+    @Test
+    public void testReset() {
+        StripedCounter counter = new StripedCounter(2);
+        counter.add(0, 5);
+        counter.add(1, 7);
+        counter.reset();
+
+        assertThat(counter.sum()).isZero();
+    }
+}
@@ -0,0 +1,645 @@
+package com.czifrotech.rapidtransfer.unit;
+
+import com.czifrotech.rapidtransfer.collections.SequenceSet;
+import com.czifrotech.rapidtransfer.cryptography.Checksum;
+import com.czifrotech.rapidtransfer.cryptography.MerkleHasher;
+import com.czifrotech.rapidtransfer.diagnostics.MetricsReporter;
+import com.czifrotech.rapidtransfer.diagnostics.TransferMetrics;
+import com.czifrotech.rapidtransfer.io.ChunkSink;
+import com.czifrotech.rapidtransfer.io.ChunkSource;
+import com.czifrotech.rapidtransfer.io.FileChunkSource;
+import com.czifrotech.rapidtransfer.io.MappedFileChunkSink;
+import com.czifrotech.rapidtransfer.io.ReceiveCheckpoint;
+import com.czifrotech.rapidtransfer.net.ExecutionBackend;
+import com.czifrotech.rapidtransfer.net.SequenceRange;
+import com.czifrotech.rapidtransfer.net.TransferEngine;
+import com.czifrotech.rapidtransfer.net.TransferResult;
+import com.czifrotech.rapidtransfer.util.FileUtil;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * @author Will Czifro
+ */
+public class TransferEngineUnitTest {
+
+    @Test
+    public void testStripeCoversWholeSequenceSpace() {
+        SequenceRange[] stripes = SequenceRange.stripe(10, 4);
+
+        assertThat(stripes).containsExactly(new SequenceRange(0, 3), new SequenceRange(3, 6),
+                new SequenceRange(6, 8), new SequenceRange(8, 10));
+    }
+
+    @Test
+    public void testStripeWithMoreChannelsThanPackets() {
+        SequenceRange[] stripes = SequenceRange.stripe(2, 3);
+
+        assertThat(stripes[0].length()).isEqualTo(1);
+        assertThat(stripes[1].length()).isEqualTo(1);
+        assertThat(stripes[2].length()).isEqualTo(0);
+    }
+
+    @Test
+    public void testTransferOverManyChannels() throws IOException, InterruptedException {
+        TransferResult result = new TransferEngine(8).transfer(1000);
+
+        assertThat(result.getChannels()).isEqualTo(8);
+        assertThat(result.getSenderCounter()).isEqualTo(1000);
+        assertThat(result.getReceiverCounter()).isEqualTo(1000);
+        assertThat(result.getLost()).isEqualTo(0);
+        assertThat(result.getMissingPackets().isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testBatchesThatDoNotDivideTheStripe() throws IOException, InterruptedException {
+        TransferEngine engine = new TransferEngine(3);
+        engine.setBatchSize(7);
+        TransferResult result = engine.transfer(1000);
+
+        assertThat(result.getSenderCounter()).isEqualTo(1000);
+        assertThat(result.getMissingPackets().cardinality()).isEqualTo(result.getLost());
+    }
+
+    @Test
+    public void testFileChunksLandAtTheirOffsets() throws IOException, InterruptedException {
+        byte[] data = new byte[300 * 1024 + 123];
+        new Random(7).nextBytes(data);
+        Path source = Files.createTempFile("rapidtransfer", ".src");
+        Path destination = Files.createTempFile("rapidtransfer", ".dst");
+        try {
+            Files.write(source, data);
+            int chunkSize = 4096;
+            TransferResult result = new TransferEngine(4).transferFile(source, destination, chunkSize);
+
+            byte[] received = Files.readAllBytes(destination);
+            assertThat(received.length).isEqualTo(data.length);
+            assertThat(result.getPackets()).isEqualTo((data.length + chunkSize - 1) / chunkSize);
+            SequenceSet missing = result.getMissingPackets();
+            for (int seq = 0; seq < result.getPackets(); ++seq) {
+                if (missing.contains(seq))
+                    continue;
+                int from = seq * chunkSize, to = Math.min(data.length, from + chunkSize);
+                assertThat(Arrays.copyOfRange(received, from, to)).isEqualTo(Arrays.copyOfRange(data, from, to));
+            }
+        } finally {
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(destination);
+        }
+    }
+
+    @Test
+    public void testReliableTransferRecoversEveryChunk() throws IOException, InterruptedException {
+        TransferResult result = transferAndCompare(new TransferEngine(6), 2 * 1024 * 1024 + 77);
+
+        assertThat(result.getMissingPackets().isEmpty()).isTrue();
+        assertThat(result.getLost()).isEqualTo(0);
+        assertThat(result.getBytesReceived()).isEqualTo(2 * 1024 * 1024 + 77);
+    }
+
+    @Test
+    public void testDroppedDatagramsAreRetransmittedOnce() throws IOException, InterruptedException {
+        // 4 stripes of 40 datagrams of 62 records, the sixth of every eight dropped
+        AtomicLong dropped = new AtomicLong();
+        TransferEngine engine = new TransferEngine(4);
+        engine.setMaxRate(20000);
+        engine.setReorderThreshold(1000);
+        engine.setReorderTimeoutMillis(200);
+        engine.setLossFilter(seq -> seq % (40 * 62) / 62 % 8 == 5 && dropped.addAndGet(62) > 0);
+        TransferResult result = transferAndCompare(engine, 4 * 40 * 62 * 1024);
+
+        assertThat(dropped.get()).isEqualTo(4 * 5 * 62);
+        assertThat(result.getRetransmitted()).isBetween(dropped.get(), dropped.get() * 3 / 2);
+        assertThat(result.getDeclaredLost()).isBetween(dropped.get(), result.getRetransmitted());
+        assertThat(result.getLost()).isEqualTo(0);
+    }
+
+    @Test
+    public void testFecSendsAParityDatagramPerBlock() throws IOException, InterruptedException {
+        TransferEngine engine = new TransferEngine(4);
+        engine.setFecBlockSize(4);
+        TransferResult result = transferAndCompare(engine, 10000 * 1024);
+
+        // 62 records per datagram, so each stripe of 2500 is 10 blocks of 248 and one of 20
+        assertThat(result.getParitySent()).isEqualTo(4 * (10 * 62 + 20));
+        assertThat(result.getFecOverhead()).isBetween(0.25, 0.26);
+        assertThat(result.getLost()).isEqualTo(0);
+        assertThat(result.isVerified()).isTrue();
+    }
+
+    @Test
+    public void testFecRebuildsOneDroppedDatagramPerBlock() throws IOException, InterruptedException {
+        // 4 stripes of 10 blocks of 4 datagrams of 8 records, the second datagram of every block dropped;
+        // small datagrams, so a busy receiver does not overrun its socket buffer and lose a second one
+        AtomicLong dropped = new AtomicLong();
+        TransferEngine engine = new TransferEngine(4);
+        engine.setReliable(false);
+        engine.setBatchSize(8);
+        engine.setFecBlockSize(4);
+        engine.setMaxRate(5000);
+        engine.setLossFilter(seq -> seq % (40 * 8) / 8 % 4 == 1 && dropped.addAndGet(8) > 0);
+        TransferResult result = transferAndCompare(engine, 4 * 40 * 8 * 1024);
+
+        assertThat(dropped.get()).isEqualTo(4 * 10 * 8);
+        assertThat(result.getRecovered()).isEqualTo(dropped.get());
+        assertThat(result.getRetransmitted()).isEqualTo(0);
+        assertThat(result.getLost()).isEqualTo(0);
+    }
+
+    @Test
+    public void testFecRejectsJumboChunksBeforeTouchingTheDestination() throws IOException {
+        Path source = Files.createTempFile("rapidtransfer", ".src");
+        Path destination = source.resolveSibling(source.getFileName() + ".dst");
+        try {
+            Files.write(source, new byte[3 * FileChunkSource.JUMBO_CHUNK_SIZE]);
+            TransferEngine engine = new TransferEngine(2);
+            engine.setFecBlockSize(4);
+
+            assertThatThrownBy(() -> engine.transferFile(source, destination, FileChunkSource.JUMBO_CHUNK_SIZE))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining(String.valueOf(TransferEngine.MAX_FEC_CHUNK_SIZE));
+            assertThat(Files.exists(destination)).isFalse();
+        } finally {
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(destination);
+        }
+    }
+
+    @Test
+    public void testFecAtTheLargestChunkSize() throws IOException, InterruptedException {
+        TransferEngine engine = new TransferEngine(2);
+        engine.setFecBlockSize(4);
+        int chunkSize = TransferEngine.MAX_FEC_CHUNK_SIZE;
+        TransferResult result = transferAndCompare(engine, FileUtil.randomBytes(20 * chunkSize + 7, 47), chunkSize);
+
+        assertThat(result.getParitySent()).isPositive();
+        assertThat(result.getLost()).isEqualTo(0);
+        assertThat(result.isVerified()).isTrue();
+    }
+
+    @Test
+    public void testCompressionShrinksLogsAndBypassesRandomData() throws IOException, InterruptedException {
+        StringBuilder log = new StringBuilder();
+        Random random = new Random(31);
+        while (log.length() < 4 * 1024 * 1024)
+            log.append("2016-04-0").append(random.nextInt(10)).append(" INFO  [sender-").append(random.nextInt(64))
+                    .append("] sent datagram ").append(random.nextInt(1 << 20)).append(" in ")
+                    .append(random.nextInt(1000)).append("us\n");
+        byte[] text = log.toString().getBytes(StandardCharsets.US_ASCII);
+        byte[] noise = new byte[1024 * 1024 + 3];
+        random.nextBytes(noise);
+
+        for (byte[] data : new byte[][]{text, noise}) {
+            TransferEngine engine = new TransferEngine(4);
+            engine.setCompression(true);
+            engine.setCompressionThreads(2);
+            TransferResult result = transferAndCompare(engine, data, 4096);
+
+            if (data == text) {
+                assertThat(result.getCompressed()).isPositive();
+                assertThat(result.getBytesSaved()).isGreaterThan(data.length / 2);
+            } else {
+                assertThat(result.getCompressed()).isZero();
+            }
+            assertThat(result.getBytesReceived()).isEqualTo(data.length);
+            assertThat(result.isVerified()).isTrue();
+        }
+    }
+
+    @Test
+    public void testEveryAvailableBackendDeliversTheFile() throws IOException, InterruptedException {
+        for (ExecutionBackend backend : ExecutionBackend.values()) {
+            TransferEngine engine = new TransferEngine(6);
+            if (!backend.isAvailable()) {
+                assertThatThrownBy(() -> engine.setBackend(backend))
+                        .isInstanceOf(IllegalArgumentException.class);
+                continue;
+            }
+            engine.setBackend(backend);
+            TransferResult result = transferAndCompare(engine, 1024 * 1024 + 5);
+
+            assertThat(result.getLost()).as(backend.name()).isEqualTo(0);
+            assertThat(result.isVerified()).as(backend.name()).isTrue();
+        }
+    }
+
+    @Test
+    public void testAdaptiveTransferHandsStripesBetweenSenders() throws IOException, InterruptedException {
+        TransferEngine engine = new TransferEngine(8);
+        engine.setAdaptive(true);
+        engine.setInitialChannels(1);
+        // a decision every millisecond, so senders come and go many times over the transfer
+        engine.setAdaptIntervalMillis(1);
+        TransferResult result = transferAndCompare(engine, 2 * 1024 * 1024 + 9);
+
+        assertThat(result.getPeakChannels()).isBetween(1, 8);
+        assertThat(result.getLost()).isEqualTo(0);
+        assertThat(result.isVerified()).isTrue();
+    }
+
+    @Test
+    public void testIdleSendersHelpASlowStripe() throws IOException, InterruptedException {
+        long chunks = 4000;
+        // every chunk of the first stripe takes a while to read
+        ChunkSource slowFirstStripe = new ChunkSource() {
+            @Override
+            public int getChunkSize() {
+                return 16;
+            }
+
+            @Override
+            public long getChunkCount() {
+                return chunks;
+            }
+
+            @Override
+            public int read(long seq, ByteBuffer dst) {
+                if (seq < chunks / 4)
+                    LockSupport.parkNanos(20000);
+                dst.putLong(seq).putLong(~seq);
+                return 16;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        TransferEngine engine = new TransferEngine(4);
+        engine.setPacing(false);
+        TransferResult result = engine.transfer(slowFirstStripe, ChunkSink.discard());
+
+        assertThat(result.getStolen()).isPositive();
+        assertThat(result.getLost()).isEqualTo(0);
+        assertThat(result.isVerified()).isTrue();
+    }
+
+    @Test
+    public void testReliableTransferDigestsMatchTheDestination() throws IOException, InterruptedException {
+        byte[] data = new byte[1024 * 1024 + 300];
+        new Random(5).nextBytes(data);
+        Path source = Files.createTempFile("rapidtransfer", ".src");
+        Path destination = Files.createTempFile("rapidtransfer", ".dst");
+        try {
+            Files.write(source, data);
+            TransferResult result = new TransferEngine(3).transferFile(source, destination, 1024);
+
+            assertThat(result.isVerified()).isTrue();
+            assertThat(result.getCorrupted()).isEqualTo(0);
+            Checksum[] received = result.getReceivedDigest();
+            assertThat(received).hasSize(3).isEqualTo(result.getSourceDigest());
+            for (int i = 0; i < received.length; ++i) {
+                long from = received[i].getPositionInSource();
+                long to = i + 1 < received.length ? received[i + 1].getPositionInSource() : data.length;
+                assertThat(MerkleHasher.digest(destination, 1024, from, to - from))
+                        .isEqualTo(received[i].getChecksum());
+            }
+        } finally {
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(destination);
+        }
+    }
+
+    @Test
+    public void testResumedTransferSendsOnlyWhatIsMissing() throws IOException, InterruptedException {
+        byte[] data = new byte[1024 * 1024];
+        new Random(17).nextBytes(data);
+        Path source = Files.createTempFile("rapidtransfer", ".src");
+        Path destination = Files.createTempFile("rapidtransfer", ".dst");
+        Files.delete(destination);
+        try {
+            Files.write(source, data);
+            long packets = data.length / 1024;
+            TransferEngine engine = new TransferEngine(2);
+            engine.setStallTimeoutMillis(300);
+            try (FileChunkSource src = new FileChunkSource(source, 1024);
+                 MappedFileChunkSink sink = new MappedFileChunkSink(destination, 1024, data.length)) {
+                ReceiveCheckpoint checkpoint = ReceiveCheckpoint.open(destination, data.length, 1024, 2);
+                // the second channel's sink dies three quarters of the way through the file
+                ChunkSink failing = new ChunkSink() {
+                    @Override
+                    public void write(long seq, ByteBuffer chunk) throws IOException {
+                        if (seq >= packets * 3 / 4)
+                            throw new IOException("disk gone");
+                        sink.write(seq, chunk);
+                    }
+
+                    @Override
+                    public void force() {
+                        sink.force();
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+                assertThatThrownBy(() -> engine.transfer(src, failing, checkpoint)).isInstanceOf(IOException.class);
+            }
+            assertThat(Files.exists(ReceiveCheckpoint.sidecar(destination))).isTrue();
+
+            engine.setResumable(true);
+            TransferResult result = engine.transferFile(source, destination, 1024);
+
+            assertThat(result.getResumed()).isBetween(packets / 2, packets - 1);
+            assertThat(result.getSenderCounter()).isEqualTo(packets - result.getResumed());
+            assertThat(result.getMissingPackets().isEmpty()).isTrue();
+            assertThat(Files.readAllBytes(destination)).isEqualTo(data);
+            assertThat(Files.exists(ReceiveCheckpoint.sidecar(destination))).isFalse();
+        } finally {
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(destination);
+            Files.deleteIfExists(ReceiveCheckpoint.sidecar(destination));
+        }
+    }
+
+    @Test
+    public void testInterruptedTransferStillSavesItsCheckpoint() throws IOException {
+        byte[] data = FileUtil.randomBytes(1024 * 1024, 19);
+        Path source = Files.createTempFile("rapidtransfer", ".src");
+        Path destination = Files.createTempFile("rapidtransfer", ".dst");
+        try {
+            Files.write(source, data);
+            TransferEngine engine = new TransferEngine(2);
+            engine.setMaxRate(20000);
+            // no periodic save before the transfer ends, only the last one
+            engine.setCheckpointIntervalMillis(60000);
+            Thread caller = Thread.currentThread();
+            try (FileChunkSource src = new FileChunkSource(source, 1024);
+                 MappedFileChunkSink sink = new MappedFileChunkSink(destination, 1024, data.length)) {
+                ReceiveCheckpoint checkpoint = ReceiveCheckpoint.open(destination, data.length, 1024, 2);
+                // the caller is interrupted while it waits for the senders, once some chunks are in
+                ChunkSink interrupting = new ChunkSink() {
+                    @Override
+                    public void write(long seq, ByteBuffer chunk) throws IOException {
+                        sink.write(seq, chunk);
+                        if (seq == 100)
+                            caller.interrupt();
+                    }
+
+                    @Override
+                    public void force() {
+                        sink.force();
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+                assertThatThrownBy(() -> engine.transfer(src, interrupting, checkpoint))
+                        .isInstanceOf(InterruptedException.class);
+            }
+
+            ReceiveCheckpoint saved = ReceiveCheckpoint.open(destination, data.length, 1024, 2);
+            assertThat(saved.getRestored().contains(100)).isTrue();
+        } finally {
+            Thread.interrupted();
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(destination);
+            Files.deleteIfExists(ReceiveCheckpoint.sidecar(destination));
+        }
+    }
+
+    @Test
+    public void testBatchMovesADirectoryTree() throws IOException, InterruptedException {
+        Path source = Files.createTempDirectory("rapidtransfer");
+        Path destination = Files.createTempDirectory("rapidtransfer");
+        try {
+            Random random = new Random(23);
+            for (int i = 0; i < 500; ++i) {
+                Path file = source.resolve("dir" + i % 7).resolve("file" + i);
+                Files.createDirectories(file.getParent());
+                Files.write(file, FileUtil.randomBytes(random.nextInt(3000), i));
+            }
+            Files.write(source.resolve("large.bin"), FileUtil.randomBytes(3 * 1024 * 1024 + 5, 99));
+            TransferResult result = new TransferEngine(4).transferBatch(source, destination, 1024);
+
+            assertThat(result.isVerified()).isTrue();
+            for (int i = 0; i < 500; ++i) {
+                Path relative = Paths.get("dir" + i % 7, "file" + i);
+                assertThat(Files.readAllBytes(destination.resolve(relative)))
+                        .isEqualTo(Files.readAllBytes(source.resolve(relative)));
+            }
+            assertThat(Files.readAllBytes(destination.resolve("large.bin")))
+                    .isEqualTo(Files.readAllBytes(source.resolve("large.bin")));
+        } finally {
+            FileUtil.deleteRecursively(source);
+            FileUtil.deleteRecursively(destination);
+        }
+    }
+
+    @Test
+    public void testTransferWithoutChunksHasNoDigest() throws IOException, InterruptedException {
+        TransferResult result = new TransferEngine(2).transfer(100);
+
+        assertThat(result.getSourceDigest()).isNull();
+        assertThat(result.isVerified()).isFalse();
+        assertThat(result.getMismatchedStripes()).isEmpty();
+    }
+
+    @Test
+    public void testUnreliableTransferReportsWhatWasLost() throws IOException, InterruptedException {
+        TransferEngine engine = new TransferEngine(4);
+        engine.setReliable(false);
+        TransferResult result = engine.transfer(1000);
+
+        assertThat(result.getRetransmitted()).isEqualTo(0);
+        assertThat(result.getMissingPackets().cardinality()).isEqualTo(result.getLost());
+    }
+
+    @Test
+    public void testMaxRateSpacesOutUnreliableSends() throws IOException, InterruptedException {
+        TransferEngine engine = new TransferEngine(2);
+        engine.setReliable(false);
+        engine.setBatchSize(10);
+        engine.setMaxRate(20000);
+        TransferResult result = engine.transfer(2000);
+
+        // the first datagram goes out at once, the other 1990 packets wait for their slots
+        assertThat(result.getElapsedNanos()).isGreaterThanOrEqualTo(1990 * 1000000000L / 20000);
+        assertThat(result.getSendRate()).isEqualTo(20000.0);
+    }
+
+    @Test
+    public void testPacedTransferStaysWithinRateBounds() throws IOException, InterruptedException {
+        TransferEngine engine = new TransferEngine(4);
+        engine.setMaxRate(500000);
+        TransferResult result = engine.transfer(20000);
+
+        assertThat(result.getLost()).isEqualTo(0);
+        assertThat(result.getSendRate()).isBetween((double) TransferEngine.MIN_RATE, 500000.0);
+    }
+
+    @Test
+    public void testMetricsArePublishedWhileTheTransferRuns() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName pattern = new ObjectName("com.czifrotech.rapidtransfer:type=Transfer,*");
+        List<TransferMetrics> registered = new ArrayList<>(), unregistered = new ArrayList<>();
+        List<Integer> beans = new ArrayList<>();
+        MetricsReporter jmx = MetricsReporter.jmx();
+        TransferEngine engine = new TransferEngine(4);
+        engine.setMaxRate(200000);
+        engine.setMetricsReporter(new MetricsReporter() {
+            @Override
+            public void register(TransferMetrics metrics) {
+                jmx.register(metrics);
+                registered.add(metrics);
+                beans.add(server.queryNames(pattern, null).size());
+            }
+
+            @Override
+            public void unregister(TransferMetrics metrics) {
+                jmx.unregister(metrics);
+                unregistered.add(metrics);
+            }
+        });
+        TransferResult result = engine.transfer(20000);
+
+        assertThat(beans).containsExactly(1);
+        assertThat(server.queryNames(pattern, null)).isEmpty();
+        assertThat(unregistered).isEqualTo(registered);
+        TransferMetrics metrics = registered.get(0);
+        assertThat(metrics.getChannels()).isEqualTo(4);
+        long received = 0;
+        for (int i = 0; i < 4; ++i)
+            received += metrics.getPacketsReceived(i);
+        assertThat(received).isEqualTo(result.getReceiverCounter());
+        assertThat(metrics.getPacketRates()).hasSize(4);
+        assertThat(metrics.getMissing()).isZero();
+        // every datagram reserved a pacing slot
+        assertThat(result.getPacingDelayHistogram().getCount()).isPositive();
+        assertThat(result.getPacingDelayHistogram().getValueAtPercentile(99))
+                .isLessThanOrEqualTo(result.getPacingDelayHistogram().getMax());
+    }
+
+    @Test
+    public void testRatesDoNotDependOnWhoElseReadsThem() throws IOException, InterruptedException {
+        List<TransferMetrics> registered = new ArrayList<>();
+        List<double[]> reads = new ArrayList<>();
+        TransferEngine engine = new TransferEngine(4);
+        // a stripe of 2000 packets each, received at about 1000 a second
+        engine.setMaxRate(4000);
+        engine.setMetricsReporter(new MetricsReporter() {
+            @Override
+            public void register(TransferMetrics metrics) {
+                registered.add(metrics);
+            }
+
+            @Override
+            public void unregister(TransferMetrics metrics) {
+            }
+        });
+        ChunkSink reading = new ChunkSink() {
+            @Override
+            public void write(long seq, ByteBuffer chunk) {
+                // on the first channel's receiving loop, halfway into its second rate window
+                if (seq == 1500) {
+                    reads.add(registered.get(0).getPacketRates());
+                    reads.add(registered.get(0).getPacketRates());
+                }
+            }
+
+            @Override
+            public void force() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        ChunkSource chunks = new ChunkSource() {
+            @Override
+            public int getChunkSize() {
+                return 8;
+            }
+
+            @Override
+            public long getChunkCount() {
+                return 8000;
+            }
+
+            @Override
+            public int read(long seq, ByteBuffer dst) {
+                dst.putLong(seq);
+                return 8;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        TransferResult result = engine.transfer(chunks, reading);
+
+        assertThat(result.getLost()).isEqualTo(0);
+        assertThat(reads).hasSize(2);
+        assertThat(reads.get(0)[0]).isPositive().isEqualTo(reads.get(1)[0]);
+        assertThat(registered.get(0).getPacketRates()).containsOnly(0.0);
+    }
+
+    @Test
+    public void testInterruptedTransferStopsEveryThread() throws IOException {
+        TransferEngine engine = new TransferEngine(4);
+        engine.setMaxRate(20000);
+        Thread.currentThread().interrupt();
+        assertThatThrownBy(() -> engine.transfer(1000000)).isInstanceOf(InterruptedException.class);
+
+        assertThat(Thread.interrupted()).isFalse();
+        for (Thread thread : Thread.getAllStackTraces().keySet())
+            assertThat(thread.getName()).doesNotStartWith("rapidtransfer-");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsRateBelowMinimum() {
+        new TransferEngine(1).setMaxRate(TransferEngine.MIN_RATE - 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsOversizedFecBlock() {
+        new TransferEngine(1).setFecBlockSize(TransferEngine.MAX_FEC_BLOCK_SIZE + 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsTooManyChannels() {
+        new TransferEngine(TransferEngine.MAX_CHANNELS + 1);
+    }
+
+    /**
+     * Transfers {@code size} random bytes between two temporary files in 1 KB
+     * chunks and checks the destination matches the source.
+     */
+    private static TransferResult transferAndCompare(TransferEngine engine, int size)
+            throws IOException, InterruptedException {
+        return transferAndCompare(engine, FileUtil.randomBytes(size, size), 1024);
+    }
+
+    private static TransferResult transferAndCompare(TransferEngine engine, byte[] data, int chunkSize)
+            throws IOException, InterruptedException {
+        Path source = Files.createTempFile("rapidtransfer", ".src");
+        Path destination = Files.createTempFile("rapidtransfer", ".dst");
+        try {
+            Files.write(source, data);
+            TransferResult result = engine.transferFile(source, destination, chunkSize);
+
+            assertThat(Files.readAllBytes(destination)).isEqualTo(data);
+            return result;
+        } finally {
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(destination);
+        }
+    }
+}
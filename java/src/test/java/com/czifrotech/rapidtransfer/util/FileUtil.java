@@ -4,13 +4,29 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.*;
 
 /**
  * @author Will Czifro
  */
 public class FileUtil {
 
+    /**
+     * Reorders the segment file at the given path.
+     */
+    @FunctionalInterface
+    public interface Reorder {
+        void reorder(Path path) throws IOException;
+    }
+
     public static void writeToFile(ArrayList<String> output, String filename) {
         try {
             File file = new File(filename);
@@ -27,4 +43,67 @@ public class FileUtil {
             e.printStackTrace();
         }
     }
+
+    public static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * A random permutation of [0, count).
+     */
+    public static int[] shuffled(int count, Random rand) {
+        int[] arr = new int[count];
+        for (int i = 0; i < count; ++i)
+            arr[i] = i;
+        for (int i = count - 1; i > 0; --i) {
+            int j = rand.nextInt(i + 1);
+            int t = arr[j];
+            arr[j] = arr[i];
+            arr[i] = t;
+        }
+        return arr;
+    }
+
+    /**
+     * A segment file whose every segment is filled with the index it belongs at.
+     */
+    public static byte[] segments(int[] destinations, int segmentSize) {
+        ByteBuffer contents = ByteBuffer.allocate(destinations.length * segmentSize);
+        for (int destination : destinations)
+            for (int k = 0; k < segmentSize; k += 4)
+                contents.putInt(destination);
+        return contents.array();
+    }
+
+    /**
+     * Writes the {@link #segments} of {@code destinations} to a temporary
+     * file, reorders it and checks every segment landed where it belongs.
+     */
+    public static void assertReorders(int[] destinations, int segmentSize, Reorder reorder) throws IOException {
+        int count = destinations.length;
+        Path path = Files.createTempFile("rapidtransfer", ".segments");
+        try {
+            Files.write(path, segments(destinations, segmentSize));
+
+            reorder.reorder(path);
+
+            ByteBuffer sorted = ByteBuffer.wrap(Files.readAllBytes(path));
+            assertThat(sorted.capacity()).isEqualTo(count * segmentSize);
+            for (int i = 0; i < count * segmentSize / 4; ++i)
+                assertThat(sorted.getInt()).isEqualTo(i * 4 / segmentSize);
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    public static void deleteRecursively(Path root) throws IOException {
+        if (!Files.exists(root))
+            return;
+        try (Stream<Path> walk = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(path);
+        }
+    }
 }